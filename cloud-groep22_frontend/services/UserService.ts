@@ -1,5 +1,8 @@
 import axios, { AxiosInstance, AxiosResponse } from 'axios';
 
+// The largest page the functions serve
+const USERS_PAGE_SIZE = 1000;
+
 export class UserService {
     private axiosInstance: AxiosInstance;
 
@@ -20,9 +23,21 @@ export class UserService {
         );
     }
 
+    // The full list is capped on the server, so read it a page at a time, following the
+    // X-Continuation-Token header until the last page, and return every user in one response
     async getUsers(): Promise<AxiosResponse<any, any>> {
         try {
-            return await this.axiosInstance.get('/users');
+            const users: any[] = [];
+            let continuation: string | undefined;
+            let response: AxiosResponse<any, any>;
+            do {
+                response = await this.axiosInstance.get('/users', {
+                    params: { pageSize: USERS_PAGE_SIZE, continuation },
+                });
+                users.push(...response.data);
+                continuation = response.headers['x-continuation-token'];
+            } while (continuation);
+            return { ...response, data: users };
         } catch (error: any) {
             return error.response;
         }
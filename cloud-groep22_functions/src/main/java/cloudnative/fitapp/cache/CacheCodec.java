@@ -0,0 +1,25 @@
+package cloudnative.fitapp.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+
+// Turns cached values into the bytes stored in Redis and back. Binary formats start with a format byte,
+// so values written by another codec (or before codecs existed, as plain JSON) can still be decoded.
+public interface CacheCodec {
+
+    byte FORMAT_SMILE = 0x01;
+    byte FORMAT_SMILE_DEFLATE = 0x02;
+
+    byte[] encode(JsonNode value) throws IOException;
+
+    JsonNode decode(byte[] bytes) throws IOException;
+
+    // REDIS_CACHE_CODEC=json keeps plain JSON strings, anything else uses compact binary Smile
+    static CacheCodec fromEnvironment() {
+        String name = System.getenv("REDIS_CACHE_CODEC");
+        if ("json".equalsIgnoreCase(name)) {
+            return new JsonCacheCodec();
+        }
+        return new SmileCacheCodec();
+    }
+}
@@ -0,0 +1,28 @@
+package cloudnative.fitapp.cache;
+
+// Entity types that can be cached by id, each with its own key prefix and time to live (in seconds)
+public enum CacheEntity {
+
+    WORKOUT("workout:id:", RedisCache.WORKOUT_CACHE_DURATION),
+    EXERCISE("exercise:id:", RedisCache.EXERCISE_CACHE_DURATION),
+    SET("set:id:", RedisCache.EXERCISE_CACHE_DURATION),
+    USER("user:id:", RedisCache.USER_CACHE_DURATION),
+    PROGRESS("progress:exercise:", RedisCache.EXERCISE_CACHE_DURATION),
+    BODYWEIGHT("bodyweight:user:", RedisCache.USER_CACHE_DURATION);
+
+    private final String prefix;
+    private final int ttlSeconds;
+
+    CacheEntity(String prefix, int ttlSeconds) {
+        this.prefix = prefix;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public String key(String id) {
+        return prefix + id;
+    }
+
+    public int getTtlSeconds() {
+        return ttlSeconds;
+    }
+}
@@ -0,0 +1,61 @@
+package cloudnative.fitapp.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.concurrent.ThreadLocalRandom;
+
+// What is stored per cache key: the value, when it logically expires and how long it took to compute.
+// The Redis TTL is longer than the logical expiry, so a stale value can still be served while it is refreshed.
+class CacheEnvelope {
+
+    private final JsonNode value;
+    private final long expiresAt;
+    private final long computeMillis;
+
+    private CacheEnvelope(JsonNode value, long expiresAt, long computeMillis) {
+        this.value = value;
+        this.expiresAt = expiresAt;
+        this.computeMillis = computeMillis;
+    }
+
+    static CacheEnvelope wrap(ObjectMapper mapper, Object value, int ttlSeconds, long computeMillis) {
+        return new CacheEnvelope(mapper.valueToTree(value), System.currentTimeMillis() + ttlSeconds * 1000L,
+                computeMillis);
+    }
+
+    static CacheEnvelope fromNode(JsonNode node) {
+        if (node.isObject() && node.has("exp") && node.has("value")) {
+            return new CacheEnvelope(node.get("value"), node.get("exp").asLong(), node.path("delta").asLong());
+        }
+        // Written before envelopes existed: only its Redis TTL applies
+        return new CacheEnvelope(node, Long.MAX_VALUE, 0);
+    }
+
+    JsonNode toNode() {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("exp", expiresAt);
+        node.put("delta", computeMillis);
+        node.set("value", value);
+        return node;
+    }
+
+    JsonNode getValue() {
+        return value;
+    }
+
+    boolean isStale(long now) {
+        return now >= expiresAt;
+    }
+
+    // Probabilistic early expiration (XFetch): the closer to expiry and the more expensive the value,
+    // the more likely a reader refreshes it early, so refreshes of a hot key are spread out instead of aligned
+    boolean shouldRefreshEarly(long now, double beta) {
+        if (computeMillis <= 0 || expiresAt == Long.MAX_VALUE) {
+            return false;
+        }
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return now - computeMillis * beta * Math.log(random) >= expiresAt;
+    }
+}
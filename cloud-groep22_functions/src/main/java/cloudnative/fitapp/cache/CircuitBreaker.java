@@ -0,0 +1,103 @@
+package cloudnative.fitapp.cache;
+
+import java.util.logging.Logger;
+
+// Trips after consecutive failures so callers stop waiting on a dependency that is down.
+// CLOSED: all calls pass. OPEN: calls are rejected until the cool-down has passed.
+// HALF_OPEN: a single probe call is let through; its result closes or re-opens the circuit. A probe whose
+// result is never recorded is given up on after the cool-down, so the circuit cannot stay half-open forever.
+public class CircuitBreaker {
+
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Runnable onOpen;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long probeStartedAt;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, Runnable onOpen) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.onOpen = onOpen;
+    }
+
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    return false;
+                }
+                logger.info("Circuit " + name + " half-open, probing");
+                state = State.HALF_OPEN;
+                return startProbe();
+            default:
+                // HALF_OPEN: only one probe at a time
+                if (probeInFlight && System.currentTimeMillis() - probeStartedAt < openMillis) {
+                    return false;
+                }
+                if (probeInFlight) {
+                    logger.warning("Circuit " + name + " probe did not report back, probing again");
+                }
+                return startProbe();
+        }
+    }
+
+    private boolean startProbe() {
+        probeInFlight = true;
+        probeStartedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Circuit " + name + " closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    public void recordFailure() {
+        boolean opened;
+        int failures;
+        synchronized (this) {
+            failures = ++consecutiveFailures;
+            probeInFlight = false;
+            opened = state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold);
+            if (opened) {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+            }
+        }
+
+        if (opened) {
+            logger.warning("Circuit " + name + " opened after " + failures + " consecutive failures");
+            onOpen.run();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+}
@@ -0,0 +1,26 @@
+package cloudnative.fitapp.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+
+// Plain UTF-8 JSON, the format RedisCache used before codecs existed
+public class JsonCacheCodec implements CacheCodec {
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final SmileCacheCodec binaryCodec = new SmileCacheCodec();
+
+    @Override
+    public byte[] encode(JsonNode value) throws IOException {
+        return jsonMapper.writeValueAsBytes(value);
+    }
+
+    @Override
+    public JsonNode decode(byte[] bytes) throws IOException {
+        // Other instances may still be writing binary values while the codec setting rolls out
+        if (bytes.length > 0 && (bytes[0] == FORMAT_SMILE || bytes[0] == FORMAT_SMILE_DEFLATE)) {
+            return binaryCodec.decode(bytes);
+        }
+        return jsonMapper.readTree(bytes);
+    }
+}
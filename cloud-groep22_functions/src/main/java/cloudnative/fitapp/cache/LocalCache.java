@@ -0,0 +1,85 @@
+package cloudnative.fitapp.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded in-process LRU cache with a per-entry TTL. Entries are weighed by their serialized size,
+// so a few very large values cannot push the worker's heap beyond maxWeight.
+public class LocalCache {
+
+    private static final class Entry {
+        private final Object value;
+        private final long expiresAt;
+        private final long weight;
+
+        private Entry(Object value, long expiresAt, long weight) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.weight = weight;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight;
+
+    public LocalCache(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    public synchronized Object get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void put(String key, Object value, long weight, int ttlSeconds) {
+        if (weight > maxWeight) {
+            // Never worth evicting everything else for a single entry
+            remove(key);
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(value, System.currentTimeMillis() + ttlSeconds * 1000L, weight));
+        totalWeight += weight;
+        evict();
+    }
+
+    public synchronized void invalidate(String key) {
+        remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            totalWeight -= removed.weight;
+        }
+    }
+
+    // Drop least recently used entries until both bounds hold again
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalWeight > maxWeight) && iterator.hasNext()) {
+            totalWeight -= iterator.next().getValue().weight;
+            iterator.remove();
+        }
+    }
+}
@@ -1,14 +1,41 @@
 package cloudnative.fitapp.cache;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
 import redis.clients.jedis.exceptions.JedisException;
-
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.util.SafeEncoder;
+
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.User;
+import cloudnative.fitapp.domain.Workout;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 public class RedisCache {
@@ -16,20 +43,81 @@ public class RedisCache {
     private static final Logger logger = Logger.getLogger(RedisCache.class.getName());
     private static RedisCache instance;
     private final JedisPool jedisPool;
+    private final CircuitBreaker circuitBreaker;
     private final ObjectMapper objectMapper;
+    private final LocalCache localCache;
+    private final CacheCodec codec;
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final ExecutorService refreshExecutor = createRefreshExecutor();
+    private final String instanceId = UUID.randomUUID().toString();
+    private volatile boolean closed;
+    private volatile JedisPubSub subscriber;
+    private long lastSequence = -1;
+
+    // Fail fast: a slow or unreachable Redis must not add more than this to a request
+    private static final int REDIS_TIMEOUT_MILLIS = 500;
+    private static final long POOL_MAX_WAIT_MILLIS = 100;
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 30000;
 
     // Cache duration constants (in seconds)
     public static final int WORKOUT_CACHE_DURATION = 900; // 15 minutes
     public static final int USER_CACHE_DURATION = 1800; // 30 minutes
     public static final int EXERCISE_CACHE_DURATION = 600; // 10 minutes
 
+    // In-process near-cache bounds (entries, and total encoded bytes)
+    private static final int LOCAL_CACHE_MAX_ENTRIES = 1000;
+    private static final long LOCAL_CACHE_MAX_WEIGHT = 16 * 1024 * 1024;
+
+    // Every instance publishes its invalidations here so the other instances can evict their local copies
+    static final String INVALIDATION_CHANNEL = "fitapp:cache:invalidation";
+    static final String INVALIDATION_SEQUENCE_KEY = "fitapp:cache:invalidation:seq";
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 1000;
+
+    // Unlinks the keys, bumps the sequence and publishes the event in a single round trip
+    private static final String INVALIDATE_SCRIPT =
+            "if #KEYS > 0 then redis.call('unlink', unpack(KEYS)) end "
+                    + "local event = cjson.decode(ARGV[3]) "
+                    + "event['seq'] = redis.call('incr', ARGV[1]) "
+                    + "redis.call('publish', ARGV[2], cjson.encode(event)) "
+                    + "return event['seq']";
+
+    // Lease that lets a single instance repopulate a missing key; the others wait for it to appear
+    private static final boolean LEASE_ENABLED = !"false".equalsIgnoreCase(System.getenv("REDIS_LEASE_ENABLED"));
+    private static final long LEASE_MILLIS = 5000;
+    private static final long LEASE_WAIT_MILLIS = 1000;
+    private static final long LEASE_POLL_MILLIS = 50;
+    private static final String RELEASE_LEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+
+    // Entries stay in Redis this many times longer than their logical TTL, so stale values can be served
+    private static final int STALE_TTL_FACTOR = 2;
+    private static final double EARLY_REFRESH_BETA = 1.0;
+    private static final int REFRESH_THREADS = 2;
+    private static final int REFRESH_QUEUE_SIZE = 100;
+
+    // A null pool gives a disabled cache: every lookup misses and every write is skipped
     private RedisCache(JedisPool jedisPool) {
-        if (jedisPool == null) {
-            throw new IllegalArgumentException("JedisPool is required");
-        }
         this.jedisPool = jedisPool;
+        // Invalidations may be missed while Redis is unreachable, so local copies are dropped when the circuit opens
+        this.circuitBreaker = new CircuitBreaker("redis", CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS,
+                this::flushLocalCache);
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.localCache = new LocalCache(LOCAL_CACHE_MAX_ENTRIES, LOCAL_CACHE_MAX_WEIGHT);
+        this.codec = CacheCodec.fromEnvironment();
+    }
+
+    // Background refreshes run on a small bounded pool; when it is full the stale value is simply served longer
+    private static ExecutorService createRefreshExecutor() {
+        return new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(REFRESH_QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "redis-cache-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
     }
 
     private static JedisPool createJedisPool() {
@@ -56,150 +144,668 @@ public class RedisCache {
         poolConfig.setTestOnReturn(true);
         poolConfig.setTestWhileIdle(true);
         poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setMaxWait(Duration.ofMillis(POOL_MAX_WAIT_MILLIS));
 
-        return new JedisPool(poolConfig, hostName, port, 2000, accessKey, true);
+        return new JedisPool(poolConfig, hostName, port, REDIS_TIMEOUT_MILLIS, accessKey, true);
     }
 
+    // Never throws: without a usable configuration the app runs on Cosmos alone with a disabled cache
     public static synchronized RedisCache getInstance() {
         if (instance == null) {
             try {
                 JedisPool pool = createJedisPool();
                 instance = new RedisCache(pool);
+                instance.startInvalidationListener();
                 logger.info("Redis cache instance created successfully");
             } catch (Exception e) {
-                logger.severe("Failed to create Redis cache instance: " + e.getMessage());
-                throw new RuntimeException("Failed to initialize Redis cache", e);
+                logger.severe("Failed to create Redis cache instance, caching is disabled: " + e.getMessage());
+                instance = disabled();
             }
         }
         return instance;
     }
 
 
-    // Cache user workouts by user ID
-    public void cacheUserWorkouts(String userId, Object workouts) {
-        String key = "workouts:user:" + userId;
+    // A cache that never connects, for running on Cosmos alone (and for tests)
+    public static RedisCache disabled() {
+        return new RedisCache(null);
+    }
+
+
+    public boolean isEnabled() {
+        return jedisPool != null;
+    }
+
+
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+
+    public int getConsecutiveFailures() {
+        return circuitBreaker.getConsecutiveFailures();
+    }
+
+
+    public int getLocalCacheSize() {
+        return localCache.size();
+    }
+
+
+    // Every Redis call goes through here. While the circuit is open (or the cache is disabled) the call is
+    // not attempted at all. An error reply from Redis still proves it is reachable; anything else that goes
+    // wrong (connection problems, timeouts, pool exhaustion, but also e.g. a failing codec) counts as a failure.
+    // The outcome is always recorded, so a half-open probe can never leave the circuit waiting for it.
+    private <T> T redis(Function<Jedis, T> call) {
+        if (jedisPool == null) {
+            throw new CacheUnavailableException("Redis cache is not configured");
+        }
+        if (!circuitBreaker.allowRequest()) {
+            throw new CacheUnavailableException("Redis circuit breaker is open");
+        }
+
+        boolean reachable = false;
         try (Jedis jedis = jedisPool.getResource()) {
-            String value = objectMapper.writeValueAsString(workouts);
-            jedis.setex(key, WORKOUT_CACHE_DURATION, value);
-            logger.info("Cached workouts for user: " + userId);
-        } catch (JsonProcessingException | JedisException e) {
-            logger.warning("Failed to cache user workouts: " + e.getMessage());
+            T result = call.apply(jedis);
+            reachable = true;
+            return result;
+        } catch (JedisDataException e) {
+            reachable = true;
+            throw e;
+        } finally {
+            if (reachable) {
+                circuitBreaker.recordSuccess();
+            } else {
+                circuitBreaker.recordFailure();
+            }
         }
     }
 
 
-    // Get cached user workouts
-    public List<Object> getCachedUserWorkouts(String userId) {
-        String key = "workouts:user:" + userId;
-        try (Jedis jedis = jedisPool.getResource()) {
-            String value = jedis.get(key);
-            if (value != null) {
-                logger.info("Data retrieved from cache for user workouts: " + userId);
-                return objectMapper.readValue(value, objectMapper.getTypeFactory().constructCollectionType(List.class, Object.class));
+    // Skipped calls are expected while Redis is down and are not worth a warning each
+    private static void warn(String message, Exception e) {
+        if (e instanceof CacheUnavailableException) {
+            logger.fine(message + ": " + e.getMessage());
+        } else {
+            logger.warning(message + ": " + e.getMessage());
+        }
+    }
+
+
+    static class CacheUnavailableException extends JedisException {
+        CacheUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+
+    // Get a single cached entity, deserialized into its own type. Logically expired entries count as a miss.
+    public <T> T get(CacheEntity entity, String id, Class<T> clazz) {
+        return readThrough(entity.key(id), objectMapper.constructType(clazz), entity.getTtlSeconds(),
+                entity.name().toLowerCase() + ": " + id);
+    }
+
+
+    // Get a cached list that belongs to an entity, e.g. the progress of an exercise
+    public <T> List<T> getList(CacheEntity entity, String id, Class<T> elementClass) {
+        return readThrough(entity.key(id), listTypeOf(elementClass), entity.getTtlSeconds(),
+                entity.name().toLowerCase() + ": " + id);
+    }
+
+
+    // Get an entity from the cache, serving a stale value while it is refreshed in the background,
+    // or load it once for all concurrent callers when it is not cached at all
+    public <T> T getOrLoad(CacheEntity entity, String id, Class<T> clazz, Supplier<T> loader) {
+        JavaType type = objectMapper.constructType(clazz);
+        T cached = readRevalidating(entity.key(id), type, entity.getTtlSeconds(),
+                entity.name().toLowerCase() + ": " + id, loader);
+        return cached != null ? cached : loadOnMiss(entity.key(id), type, entity.getTtlSeconds(), loader);
+    }
+
+
+    public <T> List<T> getOrLoadList(CacheEntity entity, String id, Class<T> elementClass, Supplier<List<T>> loader) {
+        JavaType type = listTypeOf(elementClass);
+        List<T> cached = readRevalidating(entity.key(id), type, entity.getTtlSeconds(),
+                entity.name().toLowerCase() + ": " + id, loader);
+        return cached != null ? cached : loadOnMiss(entity.key(id), type, entity.getTtlSeconds(), loader);
+    }
+
+
+    public void put(CacheEntity entity, String id, Object value) {
+        writeThrough(entity.key(id), value, entity.getTtlSeconds(), 0);
+    }
+
+
+    // Get several entities at once: local hits first, then one MGET for the rest. Only fresh hits are returned.
+    public <T> Map<String, T> getAll(CacheEntity entity, Collection<String> ids, Class<T> clazz) {
+        JavaType type = objectMapper.constructType(clazz);
+        long now = System.currentTimeMillis();
+        Map<String, T> found = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+
+        for (String id : ids) {
+            CacheEnvelope envelope = decode((byte[]) localCache.get(entity.key(id)), entity.key(id));
+            if (envelope != null && !envelope.isStale(now)) {
+                found.put(id, valueOf(envelope, type, entity.key(id)));
             } else {
-                logger.info("Data not found in cache for user workouts: " + userId);
-                return null;
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        byte[][] keys = new byte[missing.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = SafeEncoder.encode(entity.key(missing.get(i)));
+        }
+        try {
+            List<byte[]> values = redis(jedis -> jedis.mget(keys));
+            for (int i = 0; i < values.size(); i++) {
+                String key = entity.key(missing.get(i));
+                byte[] bytes = values.get(i);
+                CacheEnvelope envelope = decode(bytes, key);
+                if (envelope != null) {
+                    localCache.put(key, bytes, bytes.length, entity.getTtlSeconds() * STALE_TTL_FACTOR);
+                    if (!envelope.isStale(now)) {
+                        found.put(missing.get(i), valueOf(envelope, type, key));
+                    }
+                }
             }
+        } catch (JedisException e) {
+            warn("Failed to get cached " + entity.name().toLowerCase() + " entries", e);
+        }
+        return found;
+    }
+
+
+    // Cache several entities of one type in a single pipelined round trip
+    public void putAll(CacheEntity entity, Map<String, ?> valuesById) {
+        List<CacheWrite> writes = new ArrayList<>();
+        valuesById.forEach((id, value) -> writes.add(new CacheWrite(entity.key(id), value, entity.getTtlSeconds())));
+        writeAll(writes);
+    }
+
+
+    // Warm everything the app reads right after login in one pipeline: the user, their workout list,
+    // each workout and each workout's exercises
+    public void warmUserCache(User user, List<Workout> workouts) {
+        List<CacheWrite> writes = new ArrayList<>();
+        writes.add(new CacheWrite(CacheEntity.USER.key(user.getId()), user, USER_CACHE_DURATION));
+        writes.add(new CacheWrite("workouts:user:" + user.getId(), workouts, WORKOUT_CACHE_DURATION));
+
+        for (Workout workout : workouts) {
+            List<Exercise> exercises = workout.getExercises() != null ? workout.getExercises() : List.of();
+            writes.add(new CacheWrite(CacheEntity.WORKOUT.key(workout.getId()), workout, WORKOUT_CACHE_DURATION));
+            writes.add(new CacheWrite("exercises:workout:" + workout.getId(), exercises, EXERCISE_CACHE_DURATION));
+        }
+
+        writeAll(writes);
+        logger.info("Warmed cache for user " + user.getId() + " with " + workouts.size() + " workouts");
+    }
+
+
+    public void invalidate(CacheEntity entity, String... ids) {
+        String[] keys = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            keys[i] = entity.key(ids[i]);
+        }
+        invalidateKeys(Arrays.asList(keys));
+    }
+
+
+    // Invalidate from write paths: an unreachable cache must never fail the write itself
+    public void evict(Collection<String> keys) {
+        if (keys.isEmpty() || !isEnabled()) {
+            return;
+        }
+        try {
+            invalidateKeys(keys);
         } catch (Exception e) {
-            logger.warning("Failed to get cached user workouts: " + e.getMessage());
-            return null;
+            logger.warning("Failed to evict " + keys + " from cache: " + e.getMessage());
         }
     }
 
 
+    // Cache user workouts by user ID
+    public void cacheUserWorkouts(String userId, Object workouts) {
+        writeThrough("workouts:user:" + userId, workouts, WORKOUT_CACHE_DURATION, 0);
+        logger.info("Cached workouts for user: " + userId);
+    }
+
+
+    // Get cached user workouts
+    public List<Object> getCachedUserWorkouts(String userId) {
+        return readThrough("workouts:user:" + userId, listType(), WORKOUT_CACHE_DURATION, "user workouts: " + userId);
+    }
+
+
+    // Get cached user workouts, refreshing them in the background when they are (almost) stale
+    public List<Object> getCachedUserWorkouts(String userId, Supplier<?> loader) {
+        return readRevalidating("workouts:user:" + userId, listType(), WORKOUT_CACHE_DURATION,
+                "user workouts: " + userId, loader);
+    }
+
+
+    // Load missed user workouts once for all concurrent callers and cache them
+    public Object loadUserWorkouts(String userId, Supplier<?> loader) {
+        return loadOnMiss("workouts:user:" + userId, listType(), WORKOUT_CACHE_DURATION, loader);
+    }
+
+
     // Cache user data
     public void cacheUser(String userEmail, Object user) {
-        String key = "user:email:" + userEmail;
-        try (Jedis jedis = jedisPool.getResource()) {
-            String value = objectMapper.writeValueAsString(user);
-            jedis.setex(key, USER_CACHE_DURATION, value);
-            logger.info("Cached user: " + userEmail);
-        } catch (JsonProcessingException | JedisException e) {
-            logger.warning("Failed to cache user: " + e.getMessage());
-        }
+        writeThrough("user:email:" + userEmail, user, USER_CACHE_DURATION, 0);
+        logger.info("Cached user: " + userEmail);
     }
 
 
     // Get cached user data
     public Object getCachedUser(String userEmail) {
-        String key = "user:email:" + userEmail;
-        try (Jedis jedis = jedisPool.getResource()) {
-            String value = jedis.get(key);
-            if (value != null) {
-                logger.info("Data retrieved from cache for user: " + userEmail);
-                return objectMapper.readValue(value, Object.class);
-            } else {
-                logger.info("Data not found in cache for user: " + userEmail);
-                return null;
-            }
-        } catch (Exception e) {
-            logger.warning("Failed to get cached user: " + e.getMessage());
-            return null;
-        }
+        return readThrough("user:email:" + userEmail, objectMapper.constructType(Object.class), USER_CACHE_DURATION,
+                "user: " + userEmail);
     }
 
 
     // Cache exercises by workout ID
     public void cacheWorkoutExercises(String workoutId, Object exercises) {
-        String key = "exercises:workout:" + workoutId;
-        try (Jedis jedis = jedisPool.getResource()) {
-            String value = objectMapper.writeValueAsString(exercises);
-            jedis.setex(key, EXERCISE_CACHE_DURATION, value);
-            logger.info("Cached exercises for workout: " + workoutId);
-        } catch (JsonProcessingException | JedisException e) {
-            logger.warning("Failed to cache workout exercises: " + e.getMessage());
-        }
+        writeThrough("exercises:workout:" + workoutId, exercises, EXERCISE_CACHE_DURATION, 0);
+        logger.info("Cached exercises for workout: " + workoutId);
     }
 
 
     // Get cached exercises by workout ID
     public List<Object> getCachedWorkoutExercises(String workoutId) {
-        String key = "exercises:workout:" + workoutId;
-        try (Jedis jedis = jedisPool.getResource()) {
-            String value = jedis.get(key);
-            if (value != null) {
-                logger.info("Data retrieved from cache for workout exercises: " + workoutId);
-                return objectMapper.readValue(value, objectMapper.getTypeFactory().constructCollectionType(List.class, Object.class));
-            } else {
-                logger.info("Data not found in cache for workout exercises: " + workoutId);
+        return readThrough("exercises:workout:" + workoutId, listType(), EXERCISE_CACHE_DURATION,
+                "workout exercises: " + workoutId);
+    }
+
+
+    // Read without a loader: a logically expired value cannot be refreshed here, so it is a miss
+    private <T> T readThrough(String key, JavaType type, int ttlSeconds, String description) {
+        CacheEnvelope envelope = readEnvelope(key, ttlSeconds, description);
+        if (envelope == null || envelope.isStale(System.currentTimeMillis())) {
+            return null;
+        }
+        return valueOf(envelope, type, key);
+    }
+
+
+    // Stale-while-revalidate: serve what is cached and refresh in the background once the value is stale,
+    // or probabilistically a little before that
+    private <T> T readRevalidating(String key, JavaType type, int ttlSeconds, String description,
+                                   Supplier<?> loader) {
+        CacheEnvelope envelope = readEnvelope(key, ttlSeconds, description);
+        if (envelope == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (envelope.isStale(now) || envelope.shouldRefreshEarly(now, EARLY_REFRESH_BETA)) {
+            refreshInBackground(key, ttlSeconds, loader);
+        }
+        return valueOf(envelope, type, key);
+    }
+
+
+    // The local near-cache first, then Redis (which also fills the local cache). The local cache keeps
+    // the encoded bytes, so every caller gets its own copy. A stale local copy is skipped because another
+    // instance may already have refreshed the value in Redis.
+    private CacheEnvelope readEnvelope(String key, int ttlSeconds, String description) {
+        try {
+            // Local copies are only trusted while Redis, and with it invalidation, is healthy
+            byte[] bytes = circuitBreaker.isClosed() ? (byte[]) localCache.get(key) : null;
+            if (bytes != null) {
+                CacheEnvelope envelope = CacheEnvelope.fromNode(codec.decode(bytes));
+                if (!envelope.isStale(System.currentTimeMillis())) {
+                    logger.info("Data retrieved from local cache for " + description);
+                    return envelope;
+                }
+            }
+
+            bytes = redis(jedis -> jedis.get(SafeEncoder.encode(key)));
+            if (bytes == null) {
+                logger.info("Data not found in cache for " + description);
                 return null;
             }
+            logger.info("Data retrieved from cache for " + description);
+            localCache.put(key, bytes, bytes.length, ttlSeconds * STALE_TTL_FACTOR);
+            return CacheEnvelope.fromNode(codec.decode(bytes));
         } catch (Exception e) {
-            logger.warning("Failed to get cached workout exercises: " + e.getMessage());
+            warn("Failed to get cached " + description, e);
+            return null;
+        }
+    }
+
+
+    private CacheEnvelope decode(byte[] bytes, String key) {
+        if (bytes == null) {
             return null;
         }
+        try {
+            return CacheEnvelope.fromNode(codec.decode(bytes));
+        } catch (IOException e) {
+            logger.warning("Failed to decode cached value for " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    private <T> T valueOf(CacheEnvelope envelope, JavaType type, String key) {
+        try {
+            return objectMapper.readerFor(type).readValue(envelope.getValue());
+        } catch (Exception e) {
+            logger.warning("Failed to read cached value for " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    // Write-through to Redis and the local near-cache. The value logically expires after ttlSeconds,
+    // but is kept for longer so it can be served stale while being refreshed.
+    private void writeThrough(String key, Object value, int ttlSeconds, long computeMillis) {
+        try {
+            byte[] bytes = codec.encode(CacheEnvelope.wrap(objectMapper, value, ttlSeconds, computeMillis).toNode());
+            redis(jedis -> jedis.setex(SafeEncoder.encode(key), ttlSeconds * STALE_TTL_FACTOR, bytes));
+            localCache.put(key, bytes, bytes.length, ttlSeconds * STALE_TTL_FACTOR);
+        } catch (IOException | IllegalArgumentException | JedisException e) {
+            warn("Failed to cache " + key, e);
+        }
+    }
+
+
+    // Encode everything first, then send all SETEX commands in one pipeline
+    private void writeAll(List<CacheWrite> writes) {
+        List<byte[]> encoded = new ArrayList<>(writes.size());
+        try {
+            for (CacheWrite write : writes) {
+                encoded.add(codec.encode(CacheEnvelope.wrap(objectMapper, write.value(), write.ttlSeconds(), 0).toNode()));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warning("Failed to encode cache values: " + e.getMessage());
+            return;
+        }
+
+        try {
+            redis(jedis -> {
+                Pipeline pipeline = jedis.pipelined();
+                for (int i = 0; i < writes.size(); i++) {
+                    CacheWrite write = writes.get(i);
+                    pipeline.setex(SafeEncoder.encode(write.key()), write.ttlSeconds() * STALE_TTL_FACTOR,
+                            encoded.get(i));
+                }
+                pipeline.sync();
+                return null;
+            });
+        } catch (JedisException e) {
+            warn("Failed to cache " + writes.size() + " values", e);
+            return;
+        }
+
+        for (int i = 0; i < writes.size(); i++) {
+            CacheWrite write = writes.get(i);
+            localCache.put(write.key(), encoded.get(i), encoded.get(i).length, write.ttlSeconds() * STALE_TTL_FACTOR);
+        }
+    }
+
+
+    private record CacheWrite(String key, Object value, int ttlSeconds) {
+    }
+
+
+    // At most one refresh per key per instance, and with the lease enabled at most one across instances
+    private void refreshInBackground(String key, int ttlSeconds, Supplier<?> loader) {
+        if (loader == null || !refreshing.add(key)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                String leaseKey = "lease:" + key;
+                String token = instanceId + ":" + Thread.currentThread().getId();
+                try {
+                    if (!LEASE_ENABLED) {
+                        loadAndCache(key, ttlSeconds, loader);
+                    } else if (acquireLease(leaseKey, token)) {
+                        try {
+                            loadAndCache(key, ttlSeconds, loader);
+                        } finally {
+                            releaseLease(leaseKey, token);
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.warning("Background refresh of " + key + " failed: " + e.getMessage());
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+
+    // Concurrent misses in this instance share one load. With the lease enabled, only the instance that
+    // holds it loads from Cosmos; the others poll briefly for the value and load themselves if it never comes.
+    private <T> T loadOnMiss(String key, JavaType type, int ttlSeconds, Supplier<? extends T> loader) {
+        return singleFlight.execute(key, () -> {
+            if (!LEASE_ENABLED) {
+                return loadAndCache(key, ttlSeconds, loader);
+            }
+
+            String leaseKey = "lease:" + key;
+            String token = instanceId + ":" + Thread.currentThread().getId();
+            if (acquireLease(leaseKey, token)) {
+                try {
+                    return loadAndCache(key, ttlSeconds, loader);
+                } finally {
+                    releaseLease(leaseKey, token);
+                }
+            }
+
+            if (awaitKey(key)) {
+                T value = readThrough(key, type, ttlSeconds, key);
+                if (value != null) {
+                    return value;
+                }
+            }
+            logger.info("Lease holder did not fill " + key + " in time, loading it here");
+            return loadAndCache(key, ttlSeconds, loader);
+        });
+    }
+
+
+    // Loads and caches the value, recording how long the load took for early refresh decisions
+    private <T> T loadAndCache(String key, int ttlSeconds, Supplier<? extends T> loader) {
+        long start = System.currentTimeMillis();
+        T value = loader.get();
+        if (value != null) {
+            writeThrough(key, value, ttlSeconds, System.currentTimeMillis() - start);
+        }
+        return value;
+    }
+
+
+    // A Redis failure counts as holding the lease, so loads never block on an unreachable cache
+    private boolean acquireLease(String leaseKey, String token) {
+        try {
+            return "OK".equals(redis(jedis -> jedis.set(leaseKey, token, SetParams.setParams().nx().px(LEASE_MILLIS))));
+        } catch (JedisException e) {
+            warn("Failed to acquire lease " + leaseKey, e);
+            return true;
+        }
+    }
+
+
+    // Only delete the lease if it is still ours; it may have expired and been taken by another instance
+    private void releaseLease(String leaseKey, String token) {
+        try {
+            redis(jedis -> jedis.eval(RELEASE_LEASE_SCRIPT, List.of(leaseKey), List.of(token)));
+        } catch (JedisException e) {
+            warn("Failed to release lease " + leaseKey, e);
+        }
+    }
+
+
+    private boolean awaitKey(String key) {
+        long deadline = System.currentTimeMillis() + LEASE_WAIT_MILLIS;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                if (redis(jedis -> jedis.exists(key))) {
+                    return true;
+                }
+                Thread.sleep(LEASE_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (JedisException e) {
+            warn("Failed while waiting for " + key, e);
+        }
+        return false;
+    }
+
+
+    private JavaType listType() {
+        return listTypeOf(Object.class);
+    }
+
+
+    private JavaType listTypeOf(Class<?> elementClass) {
+        return objectMapper.getTypeFactory().constructCollectionType(List.class, elementClass);
     }
 
 
     // Invalidate user cache when data changes
     public void invalidateUserCache(String userId) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.del("workouts:user:" + userId);
-            jedis.del("user:id:" + userId);
+        if (invalidateKeys(userCacheKeys(userId))) {
             logger.info("Invalidated cache for user: " + userId);
-        } catch (JedisException e) {
-            logger.warning("Failed to invalidate user cache: " + e.getMessage());
         }
     }
 
 
     // Invalidate workout cache
     public void invalidateWorkoutCache(String workoutId) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.del("exercises:workout:" + workoutId);
+        if (invalidateKeys(workoutCacheKeys(workoutId))) {
             logger.info("Invalidated cache for workout: " + workoutId);
-        } catch (JedisException e) {
-            logger.warning("Failed to invalidate workout cache: " + e.getMessage());
+        }
+    }
+
+
+    private static List<String> userCacheKeys(String userId) {
+        return List.of("workouts:user:" + userId, CacheEntity.USER.key(userId));
+    }
+
+
+    private static List<String> workoutCacheKeys(String workoutId) {
+        return List.of("exercises:workout:" + workoutId, CacheEntity.WORKOUT.key(workoutId));
+    }
+
+
+    // Evict locally, then unlink in Redis and tell the other instances to evict their local copies,
+    // all in one round trip
+    public boolean invalidateKeys(Collection<String> keys) {
+        for (String key : keys) {
+            localCache.invalidate(key);
+        }
+
+        try {
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("origin", instanceId);
+            event.put("keys", keys);
+            String message = objectMapper.writeValueAsString(event);
+            redis(jedis -> jedis.eval(INVALIDATE_SCRIPT, new ArrayList<>(keys),
+                    List.of(INVALIDATION_SEQUENCE_KEY, INVALIDATION_CHANNEL, message)));
+            return true;
+        } catch (JsonProcessingException | JedisException e) {
+            warn("Failed to invalidate " + keys, e);
+            return false;
+        }
+    }
+
+
+    // Subscribe on a daemon thread; SUBSCRIBE blocks its connection, so it is kept for as long as the listener runs
+    private void startInvalidationListener() {
+        Thread thread = new Thread(() -> {
+            while (!closed) {
+                try (Jedis jedis = jedisPool.getResource()) {
+                    subscriber = new InvalidationSubscriber();
+                    jedis.subscribe(subscriber, INVALIDATION_CHANNEL);
+                } catch (Exception e) {
+                    logger.warning("Cache invalidation subscription lost: " + e.getMessage());
+                }
+
+                // Anything published while we were not listening is lost, so nothing local can be trusted
+                flushLocalCache();
+                sleepBeforeResubscribe();
+            }
+        }, "redis-cache-invalidation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    private void sleepBeforeResubscribe() {
+        try {
+            Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        }
+    }
+
+
+    // Apply an invalidation event; a gap in the sequence means messages were missed
+    synchronized void onInvalidation(String message) {
+        try {
+            Map<?, ?> event = objectMapper.readValue(message, Map.class);
+            long sequence = ((Number) event.get("seq")).longValue();
+
+            if (lastSequence >= 0 && sequence != lastSequence + 1) {
+                // Concurrent publishers can also deliver out of order; flushing is the safe answer either way
+                logger.warning("Cache invalidation sequence gap (" + lastSequence + " -> " + sequence
+                        + "), flushing local cache");
+                localCache.invalidateAll();
+            } else if (!instanceId.equals(event.get("origin"))) {
+                for (Object key : (List<?>) event.get("keys")) {
+                    localCache.invalidate(String.valueOf(key));
+                }
+            }
+            lastSequence = sequence;
+        } catch (Exception e) {
+            logger.warning("Unreadable cache invalidation message, flushing local cache: " + e.getMessage());
+            localCache.invalidateAll();
+        }
+    }
+
+
+    private synchronized void flushLocalCache() {
+        localCache.invalidateAll();
+        lastSequence = -1;
+    }
+
+
+    private class InvalidationSubscriber extends JedisPubSub {
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            logger.info("Subscribed to cache invalidation channel: " + channel);
+            // Start from a clean slate: the previous subscription may have missed events
+            flushLocalCache();
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            onInvalidation(message);
         }
     }
 
 
     // Check cache connection status
     public boolean isConnected() {
-        try (Jedis jedis = jedisPool.getResource()) {
-            return "PONG".equals(jedis.ping());
+        try {
+            return "PONG".equals(redis(Jedis::ping));
         } catch (Exception e) {
-            logger.warning("Redis connection check failed: " + e.getMessage());
+            warn("Redis connection check failed", e);
             return false;
         }
     }
@@ -207,6 +813,12 @@ public class RedisCache {
 
     // Close the Redis connection pool
     public void close() {
+        closed = true;
+        refreshExecutor.shutdownNow();
+        JedisPubSub current = subscriber;
+        if (current != null && current.isSubscribed()) {
+            current.unsubscribe();
+        }
         if (jedisPool != null && !jedisPool.isClosed()) {
             jedisPool.close();
             logger.info("Redis connection pool closed");
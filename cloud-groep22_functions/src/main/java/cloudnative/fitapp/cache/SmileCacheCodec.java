@@ -0,0 +1,95 @@
+package cloudnative.fitapp.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Binary JSON (Smile), deflated when the value is large enough for compression to pay off.
+// Layout: one format byte followed by the Smile document, or by the deflated Smile document.
+public class SmileCacheCodec implements CacheCodec {
+
+    // Below this size compression rarely saves enough to be worth the CPU
+    private static final int COMPRESSION_THRESHOLD = 1024;
+
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+
+    @Override
+    public byte[] encode(JsonNode value) throws IOException {
+        byte[] smile = smileMapper.writeValueAsBytes(value);
+        if (smile.length >= COMPRESSION_THRESHOLD) {
+            byte[] compressed = deflate(smile);
+            if (compressed.length < smile.length) {
+                return withHeader(FORMAT_SMILE_DEFLATE, compressed);
+            }
+        }
+        return withHeader(FORMAT_SMILE, smile);
+    }
+
+    @Override
+    public JsonNode decode(byte[] bytes) throws IOException {
+        if (bytes.length == 0) {
+            throw new IOException("Empty cache value");
+        }
+
+        switch (bytes[0]) {
+            case FORMAT_SMILE:
+                return smileMapper.readTree(Arrays.copyOfRange(bytes, 1, bytes.length));
+            case FORMAT_SMILE_DEFLATE:
+                return smileMapper.readTree(inflate(bytes, 1));
+            default:
+                // No format byte: a plain JSON value
+                return jsonMapper.readTree(bytes);
+        }
+    }
+
+    private static byte[] withHeader(byte format, byte[] body) {
+        byte[] bytes = new byte[body.length + 1];
+        bytes[0] = format;
+        System.arraycopy(body, 0, bytes, 1, body.length);
+        return bytes;
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input, int offset) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input, offset, input.length - offset);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 3);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(buffer);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed cache value");
+                }
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed cache value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
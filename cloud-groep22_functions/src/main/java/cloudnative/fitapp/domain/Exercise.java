@@ -32,6 +32,8 @@ public class Exercise {
     private double autoIncreaseCurrentWeight = 20;
     private List<Set> sets = new ArrayList<>();
     private int orderIndex;
+    // Progress is stored in the history container; this list is only filled on responses and on workouts
+    // written before the split that were not migrated yet
     private List<Progress> progressList = new ArrayList<>();
 
     @JsonIgnore
@@ -0,0 +1,105 @@
+package cloudnative.fitapp.domain;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Running aggregates of one exercise, updated for every recorded set or progress entry without reading its history.
+// Stored in the readmodels container; the weekly buckets are capped, so the document does not grow with the history
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ExerciseStats {
+
+    public static final String TYPE = "exercise-stats";
+
+    private String id;
+    private String type = TYPE;
+    private String exerciseId;
+    private String userId;
+    private long samples;
+    private Double maxWeight;
+    private Date maxWeightDate;
+    private Integer maxDuration;
+    private Date maxDurationDate;
+    private Double bestEpley1RM;
+    private Date bestEpley1RMDate;
+    private Double bestBrzycki1RM;
+    private Date bestBrzycki1RMDate;
+    // Heaviest single entry by weight x reps x sets
+    private Double bestVolume;
+    private Date bestVolumeDate;
+    // Best Epley estimate over the most recent weeks
+    private Double rollingBest1RM;
+    private Date lastSampleDate;
+    private List<WeekStats> weeks = new ArrayList<>();
+    // What each planned set currently adds to the aggregates, by set id, so an edit or delete can take it out again
+    private Map<String, SetContribution> sets = new HashMap<>();
+
+    public ExerciseStats() {
+    }
+
+    public ExerciseStats(String exerciseId, String userId) {
+        this.id = key(exerciseId);
+        this.exerciseId = exerciseId;
+        this.userId = userId;
+    }
+
+    public static String key(String exerciseId) {
+        return TYPE + ":" + exerciseId;
+    }
+
+    @Getter
+    @Setter
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class WeekStats {
+        // Monday of the week, UTC
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
+        private LocalDate weekStart;
+        private double volume;
+        private Double best1RM;
+        private int samples;
+
+        public WeekStats() {
+        }
+
+        public WeekStats(LocalDate weekStart) {
+            this.weekStart = weekStart;
+        }
+    }
+
+    @Getter
+    @Setter
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class SetContribution {
+        private double weight;
+        private int reps;
+        private int duration;
+        // When the set was first recorded: an edit keeps it in that week
+        private Date date;
+        private double volume;
+
+        public SetContribution() {
+        }
+
+        public SetContribution(double weight, int reps, int duration, Date date, double volume) {
+            this.weight = weight;
+            this.reps = reps;
+            this.duration = duration;
+            this.date = date;
+            this.volume = volume;
+        }
+
+        public boolean sameValues(double weight, int reps, int duration) {
+            return this.weight == weight && this.reps == reps && this.duration == duration;
+        }
+    }
+}
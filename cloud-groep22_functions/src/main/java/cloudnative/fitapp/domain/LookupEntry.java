@@ -0,0 +1,35 @@
+package cloudnative.fitapp.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+// Points a workout, exercise or set ID to the workout document (and its partition key) that contains it
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LookupEntry {
+
+    private String id;
+    private String type;
+    private String entityId;
+    private String exerciseId;
+    private String workoutId;
+    private String userId;
+
+    public LookupEntry() {
+    }
+
+    public LookupEntry(String type, String entityId, String exerciseId, String workoutId, String userId) {
+        this.id = key(type, entityId);
+        this.type = type;
+        this.entityId = entityId;
+        this.exerciseId = exerciseId;
+        this.workoutId = workoutId;
+        this.userId = userId;
+    }
+
+    public static String key(String type, String entityId) {
+        return type + ":" + entityId;
+    }
+}
@@ -5,6 +5,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import java.util.Date;
+import java.util.UUID;
 
 @Getter
 @Setter
@@ -19,19 +20,24 @@ public class Progress {
     private transient Exercise exercise;
 
     public Progress() {
-        this.id = String.valueOf(System.currentTimeMillis());
+        this.id = newId();
     }
 
     public Progress(double weight, Date date) {
         this.weight = weight;
         this.date = date;
-        this.id = String.valueOf(System.currentTimeMillis());
+        this.id = newId();
     }
 
     public Progress(int duration, Date date) {
         this.duration = duration;
         this.date = date;
-        this.id = String.valueOf(System.currentTimeMillis());
+        this.id = newId();
+    }
+
+    // Entries are stored under their id, so two entries created in the same millisecond must not share it
+    private static String newId() {
+        return System.currentTimeMillis() + "_" + UUID.randomUUID().toString().substring(0, 8);
     }
 
     // Keep the old Long getter for backward compatibility
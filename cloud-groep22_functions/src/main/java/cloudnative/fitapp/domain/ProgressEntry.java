@@ -0,0 +1,50 @@
+package cloudnative.fitapp.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Date;
+
+// One progress entry of an exercise, stored as its own small append-only document in the history container.
+// Partitioned by userId; exerciseId and date serve range scans over one exercise's history
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ProgressEntry {
+
+    private String id;
+    private String userId;
+    private String workoutId;
+    private String exerciseId;
+    private Double weight;
+    private Integer duration;
+    private Date date;
+
+    public ProgressEntry() {
+    }
+
+    public ProgressEntry(Workout workout, Exercise exercise, Progress progress) {
+        this.exerciseId = String.valueOf(exercise.getId());
+        this.id = key(exerciseId, progress.getStringId());
+        this.userId = workout.getUserId();
+        this.workoutId = workout.getId();
+        this.weight = progress.getWeight();
+        this.duration = progress.getDuration();
+        this.date = progress.getDate();
+    }
+
+    // Derived from the progress id, so writing the same entry twice (e.g. a re-run migration) overwrites it
+    public static String key(String exerciseId, String progressId) {
+        return exerciseId + ":" + progressId;
+    }
+
+    public Progress toProgress() {
+        Progress progress = new Progress();
+        progress.setId(id.substring(id.indexOf(':') + 1));
+        progress.setWeight(weight);
+        progress.setDuration(duration);
+        progress.setDate(date);
+        return progress;
+    }
+}
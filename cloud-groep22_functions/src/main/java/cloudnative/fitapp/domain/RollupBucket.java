@@ -0,0 +1,58 @@
+package cloudnative.fitapp.domain;
+
+import cloudnative.fitapp.enums.RollupGranularity;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+// Aggregate of one series (an exercise's progress or a user's bodyweight) over one day, week or month.
+// Each bucket is its own small document in the rollups container, partitioned by userId, so a chart reads
+// one document per bucket in the range instead of every recorded point
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RollupBucket {
+
+    private String id;
+    private String userId;
+    private String series;
+    private RollupGranularity granularity;
+    // ISO date (yyyy-MM-dd), so range filters and ordering work on the string
+    private String bucketStart;
+    private long count;
+    private Double min;
+    private Double max;
+    private double sum;
+    private Double last;
+    private long lastTime;
+
+    public RollupBucket() {
+    }
+
+    public RollupBucket(String userId, String series, RollupGranularity granularity, String bucketStart) {
+        this.id = key(series, granularity, bucketStart);
+        this.userId = userId;
+        this.series = series;
+        this.granularity = granularity;
+        this.bucketStart = bucketStart;
+    }
+
+    public static String key(String series, RollupGranularity granularity, String bucketStart) {
+        return series + ":" + granularity.name().toLowerCase() + ":" + bucketStart;
+    }
+
+    public Double getAvg() {
+        return count > 0 ? sum / count : null;
+    }
+
+    public void add(double value, long time) {
+        count++;
+        sum += value;
+        min = min == null ? value : Math.min(min, value);
+        max = max == null ? value : Math.max(max, value);
+        if (last == null || time >= lastTime) {
+            last = value;
+            lastTime = time;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package cloudnative.fitapp.domain;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Denormalized view of one user for the profile and workout pages, maintained from the change feeds of the
+// users and workouts containers. Every part records the _ts of the source document it was built from, so
+// replaying older versions of a document never overwrites a newer projection
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class UserDashboard {
+
+    private String id;
+    private String name;
+    private String email;
+    private long userTs;
+    private List<String> workoutIds = new ArrayList<>();
+    private Map<String, WorkoutSummary> workouts = new LinkedHashMap<>();
+    private Map<String, ExerciseLatest> latestWeights = new LinkedHashMap<>();
+    private Double latestBodyweight;
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "dd-MM-yyyy")
+    private LocalDate latestBodyweightDate;
+    // Change between the latest entry and the oldest entry of the 30 days before it
+    private Double bodyweightChange30Days;
+    private int bodyweightEntries;
+    private Integer streakGoal = 0;
+    private Integer streakProgress = 0;
+    private Integer streak = 0;
+
+    public UserDashboard() {
+    }
+
+    public UserDashboard(String userId) {
+        this.id = userId;
+    }
+
+    @Getter
+    @Setter
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class WorkoutSummary {
+        private String id;
+        private String name;
+        private int rest;
+        private int exerciseCount;
+        private int setCount;
+        private long sourceTs;
+    }
+
+    @Getter
+    @Setter
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ExerciseLatest {
+        private String exerciseId;
+        private String workoutId;
+        private String name;
+        private String type;
+        private Double weight;
+        private Integer duration;
+    }
+}
@@ -0,0 +1,18 @@
+package cloudnative.fitapp.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+import java.util.List;
+
+@Getter
+@Setter
+public class Page<T> {
+    private List<T> items;
+    // Opaque Cosmos DB continuation token, null when there are no more pages
+    private String continuationToken;
+
+    public Page(List<T> items, String continuationToken) {
+        this.items = items;
+        this.continuationToken = continuationToken;
+    }
+}
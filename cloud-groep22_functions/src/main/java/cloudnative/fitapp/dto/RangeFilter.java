@@ -0,0 +1,67 @@
+package cloudnative.fitapp.dto;
+
+import lombok.Getter;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+// ?from=&to=&limit=&order= of a list route. Both dates are inclusive and either may be open (null);
+// without a limit every entry in the range is returned
+@Getter
+public class RangeFilter {
+    private final LocalDate from;
+    private final LocalDate to;
+    private final Integer limit;
+    private final boolean descending;
+
+    public RangeFilter(LocalDate from, LocalDate to, Integer limit, boolean descending) {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+        if (limit != null && limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+        this.descending = descending;
+    }
+
+    public static RangeFilter none() {
+        return new RangeFilter(null, null, null, false);
+    }
+
+    // Start of the from date in UTC epoch milliseconds, the unit entry dates are stored in
+    public Long fromMillis() {
+        return from != null ? from.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() : null;
+    }
+
+    // Start of the day after the to date, so the whole to date is included
+    public Long toMillisExclusive() {
+        return to != null ? to.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() : null;
+    }
+
+    public boolean contains(LocalDate date) {
+        if (date == null) {
+            return from == null && to == null;
+        }
+        return (from == null || !date.isBefore(from)) && (to == null || !date.isAfter(to));
+    }
+
+    // Filters and limits in memory, for entries that cannot be queried; the items must be oldest first
+    public <T> List<T> apply(List<T> oldestFirst, Function<T, LocalDate> dateOf) {
+        List<T> result = new ArrayList<>();
+        for (T item : oldestFirst) {
+            if (contains(dateOf.apply(item))) {
+                result.add(item);
+            }
+        }
+        if (descending) {
+            Collections.reverse(result);
+        }
+        return limit != null && result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+}
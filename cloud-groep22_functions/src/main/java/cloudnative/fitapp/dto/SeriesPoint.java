@@ -0,0 +1,19 @@
+package cloudnative.fitapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Getter;
+import lombok.Setter;
+import java.time.LocalDate;
+
+@Getter
+@Setter
+public class SeriesPoint {
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
+    private LocalDate date;
+    private double value;
+
+    public SeriesPoint(LocalDate date, double value) {
+        this.date = date;
+        this.value = value;
+    }
+}
@@ -0,0 +1,15 @@
+package cloudnative.fitapp.dto;
+
+import lombok.Getter;
+
+@Getter
+public class Versioned<T> {
+    private final T item;
+    // Cosmos DB ETag of the document when it was read, used for conditional replaces
+    private final String eTag;
+
+    public Versioned(T item, String eTag) {
+        this.item = item;
+        this.eTag = eTag;
+    }
+}
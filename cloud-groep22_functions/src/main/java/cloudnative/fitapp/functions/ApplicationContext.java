@@ -0,0 +1,121 @@
+package cloudnative.fitapp.functions;
+
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.repository.ProgressRepository;
+import cloudnative.fitapp.repository.UserRepository;
+import cloudnative.fitapp.repository.WorkoutRepository;
+import cloudnative.fitapp.security.JwtUtil;
+import cloudnative.fitapp.security.SimplePasswordEncoder;
+import cloudnative.fitapp.service.AuthService;
+import cloudnative.fitapp.service.BodyweightService;
+import cloudnative.fitapp.service.CosmosDBService;
+import cloudnative.fitapp.service.ExerciseService;
+import cloudnative.fitapp.service.ExerciseStatsService;
+import cloudnative.fitapp.service.LookupIndexService;
+import cloudnative.fitapp.service.ProgressService;
+import cloudnative.fitapp.service.ReadModelService;
+import cloudnative.fitapp.service.RollupService;
+import cloudnative.fitapp.service.SetService;
+import cloudnative.fitapp.service.TrainingHistoryService;
+import cloudnative.fitapp.service.UserService;
+import cloudnative.fitapp.service.WorkoutService;
+import cloudnative.fitapp.service.WriteBehindBuffer;
+import lombok.Getter;
+import java.util.logging.Logger;
+
+// The service graph, built once per worker on first use and shared by every handler.
+// Services and repositories keep no per-request state, so one instance serves concurrent invocations.
+// This is the only place components are created; each receives its collaborators through its constructor.
+// Tests install a context built from fakes with override() and restore the real one with reset().
+@Getter
+public class ApplicationContext {
+
+    private static final Logger logger = Logger.getLogger(ApplicationContext.class.getName());
+    private static volatile ApplicationContext instance;
+
+    private final CosmosDBService cosmosDBService;
+    private final RedisCache redisCache;
+    private final WriteBehindBuffer writeBehindBuffer;
+    private final JwtUtil jwtUtil;
+    private final SimplePasswordEncoder passwordEncoder;
+    private final LookupIndexService lookupIndexService;
+    private final ExerciseStatsService exerciseStatsService;
+    private final RollupService rollupService;
+    private final UserRepository userRepository;
+    private final ProgressRepository progressRepository;
+    private final WorkoutRepository workoutRepository;
+    private final UserService userService;
+    private final WorkoutService workoutService;
+    private final ExerciseService exerciseService;
+    private final SetService setService;
+    private final BodyweightService bodyweightService;
+    private final ProgressService progressService;
+    private final AuthService authService;
+    private final TrainingHistoryService trainingHistoryService;
+    private final ReadModelService readModelService;
+
+    // Wires the real services on top of one Cosmos client, one cache and one write-behind buffer;
+    // tests pass a fake Cosmos client, RedisCache.disabled() and a disabled buffer
+    public ApplicationContext(CosmosDBService cosmosDBService, RedisCache redisCache,
+                              WriteBehindBuffer writeBehindBuffer, JwtUtil jwtUtil) {
+        this.cosmosDBService = cosmosDBService;
+        this.redisCache = redisCache;
+        this.writeBehindBuffer = writeBehindBuffer;
+        this.jwtUtil = jwtUtil;
+        this.passwordEncoder = new SimplePasswordEncoder();
+        this.lookupIndexService = new LookupIndexService(cosmosDBService);
+        this.exerciseStatsService = new ExerciseStatsService(cosmosDBService);
+        this.rollupService = new RollupService(cosmosDBService);
+        this.userRepository = new UserRepository(cosmosDBService, redisCache, writeBehindBuffer);
+        this.progressRepository = new ProgressRepository(cosmosDBService, redisCache);
+        this.workoutRepository = new WorkoutRepository(cosmosDBService, redisCache, writeBehindBuffer,
+                lookupIndexService, progressRepository, exerciseStatsService, rollupService);
+        this.userService = new UserService(cosmosDBService, passwordEncoder, userRepository, workoutRepository,
+                writeBehindBuffer);
+        this.workoutService = new WorkoutService(cosmosDBService, userService, lookupIndexService, workoutRepository);
+        this.exerciseService = new ExerciseService(cosmosDBService, workoutService, lookupIndexService,
+                workoutRepository, progressRepository, exerciseStatsService, rollupService, redisCache);
+        this.setService = new SetService(cosmosDBService, exerciseService, lookupIndexService, workoutRepository,
+                exerciseStatsService, redisCache);
+        this.bodyweightService = new BodyweightService(cosmosDBService, userRepository, rollupService);
+        this.progressService = new ProgressService(cosmosDBService, lookupIndexService, workoutRepository,
+                progressRepository, exerciseStatsService, rollupService);
+        this.authService = new AuthService(jwtUtil, cosmosDBService, userService, passwordEncoder);
+        this.trainingHistoryService = new TrainingHistoryService(userRepository, workoutRepository,
+                progressRepository, progressService, exerciseStatsService, rollupService);
+        this.readModelService = new ReadModelService(cosmosDBService, userRepository, workoutRepository);
+    }
+
+    public static ApplicationContext get() {
+        ApplicationContext context = instance;
+        if (context == null) {
+            synchronized (ApplicationContext.class) {
+                context = instance;
+                if (context == null) {
+                    context = create();
+                    instance = context;
+                }
+            }
+        }
+        return context;
+    }
+
+    public static synchronized void override(ApplicationContext context) {
+        instance = context;
+    }
+
+    public static synchronized void reset() {
+        instance = null;
+    }
+
+    private static ApplicationContext create() {
+        logger.info("Building application context");
+        CosmosDBService cosmosDBService = CosmosDBService.getInstance();
+
+        // Ensure containers exist
+        cosmosDBService.ensureContainersExist();
+
+        return new ApplicationContext(cosmosDBService, RedisCache.getInstance(),
+                WriteBehindBuffer.fromEnvironment(cosmosDBService), new JwtUtil());
+    }
+}
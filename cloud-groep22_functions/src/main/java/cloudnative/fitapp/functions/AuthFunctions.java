@@ -7,9 +7,9 @@ import cloudnative.fitapp.domain.User;
 import cloudnative.fitapp.dto.*;
 import cloudnative.fitapp.service.AuthService;
 import cloudnative.fitapp.service.UserService;
-import cloudnative.fitapp.security.SimplePasswordEncoder;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 
@@ -40,10 +40,7 @@ public class AuthFunctions extends BaseFunctionHandler {
             RegisterRequest registerRequest = parseBody(request, RegisterRequest.class);
             context.getLogger().info("Parsed register request for email: " + registerRequest.getEmail());
 
-            // Create services with SimplePasswordEncoder
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            AuthService authService = new AuthService(jwtUtil, cosmosDBService, userService, passwordEncoder);
+            AuthService authService = services().getAuthService();
 
             context.getLogger().info("Created services, attempting registration...");
 
@@ -100,7 +97,7 @@ public class AuthFunctions extends BaseFunctionHandler {
                 throw new IllegalArgumentException("Email and password are required");
             }
 
-            RedisCache cache = RedisCache.getInstance();
+            RedisCache cache = services().getRedisCache();
             Object cachedUser = cache.getCachedUser(loginRequest.getEmail());
 
             boolean cacheHit = cachedUser != null;
@@ -110,9 +107,8 @@ public class AuthFunctions extends BaseFunctionHandler {
                 context.getLogger().info("Data not in cache for user: " + loginRequest.getEmail());
             }
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            AuthService authService = new AuthService(jwtUtil, cosmosDBService, userService, passwordEncoder);
+            UserService userService = services().getUserService();
+            AuthService authService = services().getAuthService();
 
             String token = authService.login(loginRequest.getEmail(), loginRequest.getPassword());
             User user = userService.getUserByEmail(loginRequest.getEmail());
@@ -126,6 +122,15 @@ public class AuthFunctions extends BaseFunctionHandler {
                 context.getLogger().info("Cached user after successful login: " + loginRequest.getEmail());
             }
 
+            // Warm what the app loads right after login in one pipeline, without delaying the response. The same
+            // workouts with their progress attached as the routes that read these keys return
+            CompletableFuture.runAsync(() -> cache.warmUserCache(user, services().getProgressService()
+                    .attachHistory(user.getId(), services().getWorkoutRepository().findByUserId(user.getId()))))
+                    .exceptionally(e -> {
+                        logger.warning("Failed to warm cache for user " + user.getId() + ": " + e.getMessage());
+                        return null;
+                    });
+
             AuthResponse response = new AuthResponse(token, user.getId());
 
             return request.createResponseBuilder(HttpStatus.OK)
@@ -156,14 +161,14 @@ public class AuthFunctions extends BaseFunctionHandler {
             context.getLogger().info("Testing Cosmos DB connection...");
 
             // Test basic connection
-            List<User> users = cosmosDBService.findAll("users", User.class);
+            List<User> users = services().getCosmosDBService().findAll("users", User.class);
             context.getLogger().info("Found " + users.size() + " users in database");
 
             // Test creating a simple user
             User testUser = new User("Test User", "test@example.com", "hashedpassword");
             testUser.setId("test-" + System.currentTimeMillis());
 
-            User savedUser = cosmosDBService.save("users", testUser, testUser.getEmail(), User.class);
+            User savedUser = services().getCosmosDBService().save("users", testUser, testUser.getEmail(), User.class);
             context.getLogger().info("Test user saved: " + (savedUser != null ? savedUser.getId() : "null"));
 
             return createResponse(request, "Connection test successful. Users: " + users.size());
@@ -1,14 +1,27 @@
 package cloudnative.fitapp.functions;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.microsoft.azure.functions.HttpRequestMessage;
 import com.microsoft.azure.functions.HttpResponseMessage;
 import com.microsoft.azure.functions.HttpStatus;
+import cloudnative.fitapp.cache.CacheEntity;
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.dto.RangeFilter;
 import cloudnative.fitapp.security.JwtUtil;
-import cloudnative.fitapp.service.CosmosDBService;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 
 public abstract class BaseFunctionHandler {
@@ -16,24 +29,16 @@ public abstract class BaseFunctionHandler {
     protected static final Logger logger = Logger.getLogger(BaseFunctionHandler.class.getName());
     protected static final ObjectMapper objectMapper = createObjectMapper();
 
-    // Initialize services as static to reuse across function invocations
-    protected static CosmosDBService cosmosDBService;
-    protected static JwtUtil jwtUtil;
+    // Paging limits for the list endpoints
+    protected static final int DEFAULT_PAGE_SIZE = 100;
+    protected static final int MAX_PAGE_SIZE = 1000;
+    protected static final String CONTINUATION_HEADER = "X-Continuation-Token";
+    // Largest list returned without paging, since such a response is built in memory
+    protected static final int MAX_UNPAGED_ITEMS = 5000;
 
-    static {
-        try {
-            cosmosDBService = CosmosDBService.getInstance();
-
-            // Ensure containers exist
-            cosmosDBService.ensureContainersExist();
-
-            jwtUtil = new JwtUtil();
-            logger.info("Services initialized successfully");
-        } catch (Exception e) {
-            logger.severe("Failed to initialize services: " + e.getMessage());
-            e.printStackTrace();
-            throw new RuntimeException("Service initialization failed", e);
-        }
+    // The shared service graph, built once per worker on first use
+    protected ApplicationContext services() {
+        return ApplicationContext.get();
     }
 
     private static ObjectMapper createObjectMapper() {
@@ -55,6 +60,7 @@ public abstract class BaseFunctionHandler {
         }
 
         String token = authHeader.substring(7);
+        JwtUtil jwtUtil = services().getJwtUtil();
         if (!jwtUtil.validateToken(token)) {
             throw new SecurityException("Invalid token");
         }
@@ -99,6 +105,74 @@ public abstract class BaseFunctionHandler {
     }
 
 
+    // Creates a JSON array response for a list endpoint called without paging. HttpResponseMessage only takes a
+    // complete body, so the whole array is serialized into memory before it is sent; items are written as they
+    // are read from Cosmos and not kept as objects, and past MAX_UNPAGED_ITEMS the caller is asked to page instead
+    protected HttpResponseMessage createListResponse(HttpRequestMessage<?> request, Stream<?> items) {
+        byte[] body;
+        try {
+            body = writeJsonArray(items, MAX_UNPAGED_ITEMS);
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse(request, HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            logger.severe("Error serializing response: " + e.getMessage());
+            return createErrorResponse(request, HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Error serializing response");
+        }
+
+        return request.createResponseBuilder(HttpStatus.OK)
+                .header("Content-Type", "application/json")
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type, Authorization")
+                .body(body)
+                .build();
+    }
+
+    // Stops reading at the first item past maxItems, so a large collection costs at most maxItems serialized
+    static byte[] writeJsonArray(Stream<?> items, int maxItems) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+        try (Stream<?> source = items;
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(buffer)) {
+            generator.writeStartArray();
+            Iterator<?> iterator = source.iterator();
+            int written = 0;
+            while (iterator.hasNext()) {
+                if (written == maxItems) {
+                    throw new IllegalArgumentException("More than " + maxItems
+                            + " items: page through them with ?pageSize= and ?continuation=");
+                }
+                generator.writeObject(iterator.next());
+                written++;
+            }
+            generator.writeEndArray();
+        }
+        return buffer.toByteArray();
+    }
+
+
+    // Creates a response for one page: the body stays a plain JSON array, the next token goes in a header
+    protected HttpResponseMessage createPageResponse(HttpRequestMessage<?> request, Page<?> page) {
+        try {
+            String json = objectMapper.writeValueAsString(page.getItems());
+            HttpResponseMessage.Builder builder = request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .header("Access-Control-Allow-Origin", "*")
+                    .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                    .header("Access-Control-Allow-Headers", "Content-Type, Authorization")
+                    .header("Access-Control-Expose-Headers", CONTINUATION_HEADER);
+            if (page.getContinuationToken() != null) {
+                builder.header(CONTINUATION_HEADER, page.getContinuationToken());
+            }
+            return builder.body(json).build();
+        } catch (Exception e) {
+            logger.severe("Error serializing page response: " + e.getMessage());
+            return createErrorResponse(request, HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Error serializing response");
+        }
+    }
+
+
     // Creates an error response
     protected HttpResponseMessage createErrorResponse(HttpRequestMessage<?> request,
                                                       HttpStatus status, String message) {
@@ -128,12 +202,101 @@ public abstract class BaseFunctionHandler {
     }
 
 
+    // Waits for an async operation and rethrows its original exception so handleException can map it
+    protected <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+
+    // Cache-aside read of a single entity: the cache first (stale values are refreshed in the background),
+    // one shared load and cache fill on a miss.
+    // When Redis is unavailable the cache misses without waiting and the loader reads from Cosmos.
+    protected <T> T cached(CacheEntity entity, String id, Class<T> clazz, Supplier<T> loader) {
+        return services().getRedisCache().getOrLoad(entity, id, clazz, loader);
+    }
+
+    protected <T> List<T> cachedList(CacheEntity entity, String id, Class<T> elementClass, Supplier<List<T>> loader) {
+        return services().getRedisCache().getOrLoadList(entity, id, elementClass, loader);
+    }
+
+
     // Gets the optional query parameter(s) from a request
     protected Optional<String> getQueryParam(HttpRequestMessage<?> request, String paramName) {
         return Optional.ofNullable(request.getQueryParameters().get(paramName));
     }
 
 
+    // Reads ?pageSize= and ?continuation=; empty when neither is given and the caller wants the full list
+    // (up to MAX_UNPAGED_ITEMS)
+    protected Optional<Integer> getPageSize(HttpRequestMessage<?> request) {
+        Optional<String> pageSize = getQueryParam(request, "pageSize");
+        if (pageSize.isEmpty() && getQueryParam(request, "continuation").isEmpty()) {
+            return Optional.empty();
+        }
+
+        int size;
+        try {
+            size = pageSize.map(Integer::parseInt).orElse(DEFAULT_PAGE_SIZE);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("pageSize must be a number");
+        }
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("pageSize must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return Optional.of(size);
+    }
+
+    protected String getContinuation(HttpRequestMessage<?> request) {
+        return getQueryParam(request, "continuation").orElse(null);
+    }
+
+
+    // Reads an optional ISO date (yyyy-MM-dd) query parameter
+    protected Optional<LocalDate> getDateParam(HttpRequestMessage<?> request, String paramName) {
+        try {
+            return getQueryParam(request, paramName).map(LocalDate::parse);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(paramName + " must be a date (yyyy-MM-dd)");
+        }
+    }
+
+
+    // Reads an optional numeric query parameter
+    protected int getIntParam(HttpRequestMessage<?> request, String paramName, int defaultValue) {
+        try {
+            return getQueryParam(request, paramName).map(Integer::parseInt).orElse(defaultValue);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(paramName + " must be a number");
+        }
+    }
+
+
+    // Reads ?from=&to=&limit=&order=asc|desc; empty when none is given and the caller can serve the full list
+    protected Optional<RangeFilter> getRangeFilter(HttpRequestMessage<?> request) {
+        if (Stream.of("from", "to", "limit", "order").allMatch(name -> getQueryParam(request, name).isEmpty())) {
+            return Optional.empty();
+        }
+
+        Integer limit = getQueryParam(request, "limit").isPresent() ? getIntParam(request, "limit", MAX_PAGE_SIZE) : null;
+        if (limit != null && (limit < 1 || limit > MAX_PAGE_SIZE)) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        String order = getQueryParam(request, "order").orElse("asc").toLowerCase();
+        if (!order.equals("asc") && !order.equals("desc")) {
+            throw new IllegalArgumentException("order must be asc or desc");
+        }
+        return Optional.of(new RangeFilter(getDateParam(request, "from").orElse(null),
+                getDateParam(request, "to").orElse(null), limit, order.equals("desc")));
+    }
+
+
     // Handles CORS preflight requests
     protected HttpResponseMessage handleCors(HttpRequestMessage<?> request) {
         return request.createResponseBuilder(HttpStatus.OK)
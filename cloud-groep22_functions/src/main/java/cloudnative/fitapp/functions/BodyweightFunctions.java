@@ -1,17 +1,24 @@
 package cloudnative.fitapp.functions;
 
+import cloudnative.fitapp.cache.CacheEntity;
 import com.microsoft.azure.functions.*;
 import com.microsoft.azure.functions.annotation.*;
 import cloudnative.fitapp.domain.Bodyweight;
+import cloudnative.fitapp.domain.RollupBucket;
+import cloudnative.fitapp.dto.RangeFilter;
+import cloudnative.fitapp.enums.RollupGranularity;
 import cloudnative.fitapp.service.BodyweightService;
+import cloudnative.fitapp.service.RollupService;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 
 public class BodyweightFunctions extends BaseFunctionHandler {
 
 
-    // Get all bodyweight entries - GET /api/bodyweight
+    // Get all bodyweight entries - GET /api/bodyweight[?pageSize=&continuation=]
     @FunctionName("GetAllBodyweight")
     public HttpResponseMessage getAllBodyweight(
             @HttpTrigger(
@@ -30,16 +37,21 @@ public class BodyweightFunctions extends BaseFunctionHandler {
 
         try {
             validateToken(request);
-            BodyweightService bodyweightService = new BodyweightService(cosmosDBService);
-            List<Bodyweight> bodyweights = bodyweightService.getAllBodyweight();
-            return createResponse(request, bodyweights);
+            BodyweightService bodyweightService = services().getBodyweightService();
+
+            Optional<Integer> pageSize = getPageSize(request);
+            if (pageSize.isPresent()) {
+                return createPageResponse(request, bodyweightService.getAllBodyweight(pageSize.get(), getContinuation(request)));
+            }
+
+            return createListResponse(request, bodyweightService.streamAllBodyweight());
         } catch (Exception e) {
             return handleException(request, e);
         }
     }
 
 
-    // Get bodyweight by user ID - GET /api/bodyweight/{id}
+    // Get bodyweight by user ID - GET /api/bodyweight/{id}[?from=&to=&limit=&order=]
     @FunctionName("GetBodyweightByUserId")
     public HttpResponseMessage getBodyweightByUserId(
             @HttpTrigger(
@@ -59,8 +71,14 @@ public class BodyweightFunctions extends BaseFunctionHandler {
 
         try {
             validateToken(request);
-            BodyweightService bodyweightService = new BodyweightService(cosmosDBService);
-            List<Bodyweight> bodyweights = bodyweightService.getBodyweightByUserId(Long.parseLong(id));
+            BodyweightService bodyweightService = services().getBodyweightService();
+            Long userId = Long.parseLong(id);
+            // Filtered reads go to Cosmos; only the full list is cached
+            Optional<RangeFilter> filter = getRangeFilter(request);
+            List<Bodyweight> bodyweights = filter.isPresent()
+                    ? bodyweightService.getBodyweightByUserId(userId, filter.get())
+                    : cachedList(CacheEntity.BODYWEIGHT, String.valueOf(userId), Bodyweight.class,
+                            () -> bodyweightService.getBodyweightByUserId(userId));
             return createResponse(request, bodyweights);
         } catch (Exception e) {
             return handleException(request, e);
@@ -68,6 +86,73 @@ public class BodyweightFunctions extends BaseFunctionHandler {
     }
 
 
+    // Get min/max/avg/last per day, week or month - GET /api/bodyweight/{id}/rollups[?granularity=&from=&to=]
+    @FunctionName("GetBodyweightRollups")
+    public HttpResponseMessage getBodyweightRollups(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET, HttpMethod.OPTIONS},
+                    route = "bodyweight/{id}/rollups",
+                    authLevel = AuthorizationLevel.ANONYMOUS)
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("id") String id,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Getting bodyweight rollups for user: " + id);
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            validateToken(request);
+            LocalDate to = getDateParam(request, "to").orElse(LocalDate.now());
+            LocalDate from = getDateParam(request, "from").orElse(to.minusYears(1));
+            RollupGranularity granularity = getQueryParam(request, "granularity").map(RollupGranularity::parse)
+                    .orElse(RollupGranularity.WEEK);
+
+            List<RollupBucket> rollups = services().getBodyweightService()
+                    .getBodyweightRollups(Long.parseLong(id), granularity, from, to);
+            return createResponse(request, rollups);
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+
+
+    // Get the bodyweight chart downsampled to at most N points - GET /api/bodyweight/{id}/series[?points=&from=&to=]
+    @FunctionName("GetBodyweightSeries")
+    public HttpResponseMessage getBodyweightSeries(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET, HttpMethod.OPTIONS},
+                    route = "bodyweight/{id}/series",
+                    authLevel = AuthorizationLevel.ANONYMOUS)
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("id") String id,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Getting bodyweight series for user: " + id);
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            validateToken(request);
+            LocalDate to = getDateParam(request, "to").orElse(LocalDate.now());
+            LocalDate from = getDateParam(request, "from").orElse(to.minusYears(1));
+            int points = getIntParam(request, "points", RollupService.DEFAULT_POINTS);
+
+            Map<String, Object> series = services().getBodyweightService()
+                    .getBodyweightSeries(Long.parseLong(id), from, to, points);
+            return createResponse(request, series);
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+
+
     // Add bodyweight entry - POST /api/bodyweight/add/{userId}
     @FunctionName("AddBodyweight")
     public HttpResponseMessage addBodyweight(
@@ -89,7 +174,7 @@ public class BodyweightFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
             Bodyweight bodyweight = parseBody(request, Bodyweight.class);
-            BodyweightService bodyweightService = new BodyweightService(cosmosDBService);
+            BodyweightService bodyweightService = services().getBodyweightService();
             Bodyweight newBodyweight = bodyweightService.addBodyweight(Long.parseLong(userId), bodyweight);
             return createResponse(request, newBodyweight);
         } catch (Exception e) {
@@ -0,0 +1,47 @@
+package cloudnative.fitapp.functions;
+
+import cloudnative.fitapp.cache.RedisCache;
+import com.microsoft.azure.functions.*;
+import com.microsoft.azure.functions.annotation.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+
+public class CacheFunctions extends BaseFunctionHandler {
+
+
+    // Cache health and circuit breaker state - GET /api/admin/cache/status
+    @FunctionName("GetCacheStatus")
+    public HttpResponseMessage getCacheStatus(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET, HttpMethod.OPTIONS},
+                    route = "admin/cache/status",
+                    authLevel = AuthorizationLevel.ANONYMOUS)
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Getting cache status");
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            validateToken(request);
+
+            RedisCache cache = services().getRedisCache();
+
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("enabled", cache.isEnabled());
+            status.put("circuitState", cache.getCircuitState());
+            status.put("consecutiveFailures", cache.getConsecutiveFailures());
+            status.put("localEntries", cache.getLocalCacheSize());
+
+            return createResponse(request, status);
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+}
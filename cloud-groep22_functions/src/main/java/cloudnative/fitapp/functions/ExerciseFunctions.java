@@ -1,14 +1,12 @@
 package cloudnative.fitapp.functions;
 
+import cloudnative.fitapp.cache.CacheEntity;
 import cloudnative.fitapp.cache.RedisCache;
 import cloudnative.fitapp.domain.Set;
-import cloudnative.fitapp.security.SimplePasswordEncoder;
 import com.microsoft.azure.functions.*;
 import com.microsoft.azure.functions.annotation.*;
 import cloudnative.fitapp.domain.Exercise;
 import cloudnative.fitapp.service.ExerciseService;
-import cloudnative.fitapp.service.WorkoutService;
-import cloudnative.fitapp.service.UserService;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,7 +14,7 @@ import java.util.Optional;
 public class ExerciseFunctions extends BaseFunctionHandler {
 
 
-    // Get all exercises - GET /api/exercises/all
+    // Get all exercises - GET /api/exercises/all[?pageSize=&continuation=]
     @FunctionName("GetAllExercises")
     public HttpResponseMessage getAllExercises(
             @HttpTrigger(
@@ -36,13 +34,14 @@ public class ExerciseFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
+            ExerciseService exerciseService = services().getExerciseService();
 
-            List<Exercise> exercises = exerciseService.getAllExercises();
-            return createResponse(request, exercises);
+            Optional<Integer> pageSize = getPageSize(request);
+            if (pageSize.isPresent()) {
+                return createPageResponse(request, exerciseService.getAllExercises(pageSize.get(), getContinuation(request)));
+            }
+
+            return createListResponse(request, exerciseService.streamAllExercises());
         } catch (Exception e) {
             return handleException(request, e);
         }
@@ -73,10 +72,7 @@ public class ExerciseFunctions extends BaseFunctionHandler {
 
             Exercise exercise = parseBody(request, Exercise.class);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
+            ExerciseService exerciseService = services().getExerciseService();
 
             Exercise createdExercise;
             if (exercise.getName() != null && exercise.getType() == null) {
@@ -113,12 +109,11 @@ public class ExerciseFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
+            ExerciseService exerciseService = services().getExerciseService();
 
-            Exercise exercise = exerciseService.getExerciseById(Long.parseLong(id));
+            Long exerciseId = Long.parseLong(id);
+            Exercise exercise = cached(CacheEntity.EXERCISE, String.valueOf(exerciseId), Exercise.class,
+                    () -> services().getProgressService().attachExerciseHistory(exerciseService.getExerciseById(exerciseId)));
             return createResponse(request, exercise);
         } catch (Exception e) {
             return handleException(request, e);
@@ -163,10 +158,7 @@ public class ExerciseFunctions extends BaseFunctionHandler {
                 }
             }
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
+            ExerciseService exerciseService = services().getExerciseService();
 
             Exercise updatedExercise = exerciseService.updateExercise(Long.parseLong(id), exercise);
 
@@ -203,7 +195,7 @@ public class ExerciseFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            RedisCache cache = RedisCache.getInstance();
+            RedisCache cache = services().getRedisCache();
             Object cachedExercises = cache.getCachedWorkoutExercises(workoutId);
 
             if (cachedExercises != null) {
@@ -216,12 +208,10 @@ public class ExerciseFunctions extends BaseFunctionHandler {
             }
 
             context.getLogger().info("Data not in cache for workout exercises: " + workoutId);
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
+            ExerciseService exerciseService = services().getExerciseService();
 
-            List<Exercise> exercises = exerciseService.getExercisesByWorkoutId(Long.parseLong(workoutId));
+            List<Exercise> exercises = services().getProgressService()
+                    .attachExerciseHistory(exerciseService.getExercisesByWorkoutId(Long.parseLong(workoutId)));
 
             cache.cacheWorkoutExercises(workoutId, exercises);
 
@@ -260,10 +250,7 @@ public class ExerciseFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
+            ExerciseService exerciseService = services().getExerciseService();
 
             String response = exerciseService.deleteExerciseFromWorkout(
                     Long.parseLong(workoutId),
@@ -297,10 +284,7 @@ public class ExerciseFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
+            ExerciseService exerciseService = services().getExerciseService();
 
             Exercise exercise = exerciseService.autoIncrease(Long.parseLong(id));
             return createResponse(request, exercise);
@@ -331,10 +315,7 @@ public class ExerciseFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
+            ExerciseService exerciseService = services().getExerciseService();
 
             Exercise exercise = exerciseService.autoDecrease(Long.parseLong(id));
             return createResponse(request, exercise);
@@ -365,13 +346,10 @@ public class ExerciseFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
+            ExerciseService exerciseService = services().getExerciseService();
 
             List<Exercise> exercises = exerciseService.getExercisesByUserId(Long.parseLong(userId));
-            return createResponse(request, exercises);
+            return createResponse(request, services().getProgressService().attachExerciseHistory(userId, exercises));
         } catch (Exception e) {
             return handleException(request, e);
         }
@@ -0,0 +1,40 @@
+package cloudnative.fitapp.functions;
+
+import com.microsoft.azure.functions.*;
+import com.microsoft.azure.functions.annotation.*;
+import cloudnative.fitapp.service.LookupIndexService;
+import java.util.Map;
+import java.util.Optional;
+
+
+public class LookupIndexFunctions extends BaseFunctionHandler {
+
+
+    // Rebuild the exercise/set lookup index from existing workouts - POST /api/admin/lookups/rebuild
+    // Scans the whole workouts container, so it takes the function app's admin (master) key instead of a user token
+    @FunctionName("RebuildLookupIndex")
+    public HttpResponseMessage rebuildLookupIndex(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.POST, HttpMethod.OPTIONS},
+                    route = "admin/lookups/rebuild",
+                    authLevel = AuthorizationLevel.ADMIN)
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Rebuilding lookup index");
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            LookupIndexService lookupIndexService = services().getLookupIndexService();
+            int workouts = lookupIndexService.rebuild();
+
+            return createResponse(request, Map.of("indexedWorkouts", workouts));
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+}
@@ -1,17 +1,25 @@
 package cloudnative.fitapp.functions;
 
+import cloudnative.fitapp.cache.CacheEntity;
 import com.microsoft.azure.functions.*;
 import com.microsoft.azure.functions.annotation.*;
+import cloudnative.fitapp.domain.ExerciseStats;
 import cloudnative.fitapp.domain.Progress;
+import cloudnative.fitapp.domain.RollupBucket;
+import cloudnative.fitapp.dto.RangeFilter;
+import cloudnative.fitapp.enums.RollupGranularity;
 import cloudnative.fitapp.service.ProgressService;
+import cloudnative.fitapp.service.RollupService;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 
 public class ProgressFunctions extends BaseFunctionHandler {
 
 
-     // Get all progress - GET /api/progress
+     // Get all progress - GET /api/progress[?pageSize=&continuation=]
     @FunctionName("GetAllProgress")
     public HttpResponseMessage getAllProgress(
             @HttpTrigger(
@@ -30,15 +38,20 @@ public class ProgressFunctions extends BaseFunctionHandler {
 
         try {
             validateToken(request);
-            ProgressService progressService = new ProgressService(cosmosDBService);
-            List<Progress> progressList = progressService.getAllProgress();
-            return createResponse(request, progressList);
+            ProgressService progressService = services().getProgressService();
+
+            Optional<Integer> pageSize = getPageSize(request);
+            if (pageSize.isPresent()) {
+                return createPageResponse(request, progressService.getAllProgress(pageSize.get(), getContinuation(request)));
+            }
+
+            return createListResponse(request, progressService.streamAllProgress());
         } catch (Exception e) {
             return handleException(request, e);
         }
     }
 
-    // Get progress by exercise ID - GET /api/progress/{id}
+    // Get progress by exercise ID - GET /api/progress/{id}[?from=&to=&limit=&order=]
     @FunctionName("GetProgressByExerciseId")
     public HttpResponseMessage getProgressByExerciseId(
             @HttpTrigger(
@@ -58,11 +71,194 @@ public class ProgressFunctions extends BaseFunctionHandler {
 
         try {
             validateToken(request);
-            ProgressService progressService = new ProgressService(cosmosDBService);
-            List<Progress> progressList = progressService.getProgressByExerciseId(Long.parseLong(id));
+            ProgressService progressService = services().getProgressService();
+            Long exerciseId = Long.parseLong(id);
+            // Filtered reads go to Cosmos; only the full list is cached
+            Optional<RangeFilter> filter = getRangeFilter(request);
+            List<Progress> progressList = filter.isPresent()
+                    ? progressService.getProgressByExerciseId(exerciseId, filter.get())
+                    : cachedList(CacheEntity.PROGRESS, String.valueOf(exerciseId), Progress.class,
+                            () -> progressService.getProgressByExerciseId(exerciseId));
             return createResponse(request, progressList);
         } catch (Exception e) {
             return handleException(request, e);
         }
     }
-}
\ No newline at end of file
+
+    // Get min/max/avg/last per day, week or month - GET /api/progress/{id}/rollups[?granularity=&from=&to=]
+    @FunctionName("GetProgressRollups")
+    public HttpResponseMessage getProgressRollups(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET, HttpMethod.OPTIONS},
+                    route = "progress/{id}/rollups",
+                    authLevel = AuthorizationLevel.ANONYMOUS)
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("id") String id,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Getting progress rollups for exercise: " + id);
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            validateToken(request);
+            LocalDate to = getDateParam(request, "to").orElse(LocalDate.now());
+            LocalDate from = getDateParam(request, "from").orElse(to.minusYears(1));
+            RollupGranularity granularity = getQueryParam(request, "granularity").map(RollupGranularity::parse)
+                    .orElse(RollupGranularity.WEEK);
+
+            List<RollupBucket> rollups = services().getProgressService()
+                    .getProgressRollups(Long.parseLong(id), granularity, from, to);
+            return createResponse(request, rollups);
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+
+    // Get the progress chart downsampled to at most N points - GET /api/progress/{id}/series[?points=&from=&to=]
+    @FunctionName("GetProgressSeries")
+    public HttpResponseMessage getProgressSeries(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET, HttpMethod.OPTIONS},
+                    route = "progress/{id}/series",
+                    authLevel = AuthorizationLevel.ANONYMOUS)
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("id") String id,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Getting progress series for exercise: " + id);
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            validateToken(request);
+            LocalDate to = getDateParam(request, "to").orElse(LocalDate.now());
+            LocalDate from = getDateParam(request, "from").orElse(to.minusYears(1));
+            int points = getIntParam(request, "points", RollupService.DEFAULT_POINTS);
+
+            Map<String, Object> series = services().getProgressService()
+                    .getProgressSeries(Long.parseLong(id), from, to, points);
+            return createResponse(request, series);
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+
+    // Get the exercise's records, estimated 1RM and weekly volume - GET /api/progress/{id}/stats
+    @FunctionName("GetExerciseStats")
+    public HttpResponseMessage getExerciseStats(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET, HttpMethod.OPTIONS},
+                    route = "progress/{id}/stats",
+                    authLevel = AuthorizationLevel.ANONYMOUS)
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("id") String id,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Getting stats for exercise: " + id);
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            validateToken(request);
+
+            Optional<ExerciseStats> stats = services().getExerciseStatsService().getStats(String.valueOf(Long.parseLong(id)));
+            if (stats.isEmpty()) {
+                return createErrorResponse(request, HttpStatus.NOT_FOUND, "No stats recorded for this exercise yet");
+            }
+            return createResponse(request, stats.get());
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+
+    // Get the stats of all of a user's exercises - GET /api/progress/user/{userId}/stats
+    @FunctionName("GetExerciseStatsByUserId")
+    public HttpResponseMessage getExerciseStatsByUserId(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET, HttpMethod.OPTIONS},
+                    route = "progress/user/{userId}/stats",
+                    authLevel = AuthorizationLevel.ANONYMOUS)
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("userId") String userId,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Getting exercise stats for user: " + userId);
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            validateToken(request);
+
+            List<ExerciseStats> stats = services().getExerciseStatsService().getStatsByUserId(userId);
+            return createResponse(request, stats);
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+
+    // Move progress embedded in workouts to the history container - POST /api/admin/progress/migrate
+    // Scans and rewrites the whole workouts container, so it takes the function app's admin (master) key
+    @FunctionName("MigrateProgressHistory")
+    public HttpResponseMessage migrateProgressHistory(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.POST, HttpMethod.OPTIONS},
+                    route = "admin/progress/migrate",
+                    authLevel = AuthorizationLevel.ADMIN)
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Migrating embedded progress to the history container");
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            Map<String, Object> result = services().getProgressService().migrateEmbeddedProgress();
+            return createResponse(request, result);
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+
+    // Rebuild the user's progress rollups from the history container - POST /api/admin/users/{userId}/rollups/rebuild
+    // Repairs buckets whose writes failed; rewrites every bucket of the user, so it takes the admin (master) key
+    @FunctionName("RebuildProgressRollups")
+    public HttpResponseMessage rebuildProgressRollups(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.POST, HttpMethod.OPTIONS},
+                    route = "admin/users/{userId}/rollups/rebuild",
+                    authLevel = AuthorizationLevel.ADMIN)
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("userId") String userId,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Rebuilding the progress rollups of user: " + userId);
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            Map<String, Object> result = services().getProgressService().rebuildProgressRollups(userId);
+            return createResponse(request, result);
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+}
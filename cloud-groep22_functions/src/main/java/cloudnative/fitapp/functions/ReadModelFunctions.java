@@ -0,0 +1,88 @@
+package cloudnative.fitapp.functions;
+
+import com.microsoft.azure.functions.*;
+import com.microsoft.azure.functions.annotation.*;
+import cloudnative.fitapp.domain.UserDashboard;
+import cloudnative.fitapp.service.ReadModelService;
+import java.util.Arrays;
+import java.util.Optional;
+
+
+// Keeps the per-user dashboards in the readmodels container up to date from the change feeds.
+// Each feed has its own lease prefix in the leases container; deleting a prefix's leases replays that feed
+// from the beginning, which is safe because the projection is idempotent
+public class ReadModelFunctions extends BaseFunctionHandler {
+
+
+    // Project changed workouts into their users' dashboards
+    @FunctionName("ProjectWorkoutChanges")
+    @ExponentialBackoffRetry(maxRetryCount = 5, minimumInterval = "00:00:02", maximumInterval = "00:01:00")
+    public void projectWorkoutChanges(
+            @CosmosDBTrigger(
+                    name = "documents",
+                    databaseName = "%AZURE_COSMOS_DATABASE_NAME%",
+                    containerName = "workouts",
+                    connection = "AZURE_COSMOS_CONNECTION_STRING",
+                    leaseContainerName = "leases",
+                    leaseContainerPrefix = "workouts-",
+                    createLeaseContainerIfNotExists = true,
+                    startFromBeginning = true)
+            String[] documents,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Projecting " + documents.length + " workout changes");
+        services().getReadModelService().projectWorkoutChanges(Arrays.asList(documents));
+    }
+
+
+    // Project changed users (profile, bodyweight, streak, workout links) into their dashboards
+    @FunctionName("ProjectUserChanges")
+    @ExponentialBackoffRetry(maxRetryCount = 5, minimumInterval = "00:00:02", maximumInterval = "00:01:00")
+    public void projectUserChanges(
+            @CosmosDBTrigger(
+                    name = "documents",
+                    databaseName = "%AZURE_COSMOS_DATABASE_NAME%",
+                    containerName = "users",
+                    connection = "AZURE_COSMOS_CONNECTION_STRING",
+                    leaseContainerName = "leases",
+                    leaseContainerPrefix = "users-",
+                    createLeaseContainerIfNotExists = true,
+                    startFromBeginning = true)
+            String[] documents,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Projecting " + documents.length + " user changes");
+        services().getReadModelService().projectUserChanges(Arrays.asList(documents));
+    }
+
+
+    // Get the user's dashboard - GET /api/users/{userId}/dashboard
+    @FunctionName("GetUserDashboard")
+    public HttpResponseMessage getUserDashboard(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET, HttpMethod.OPTIONS},
+                    route = "users/{userId}/dashboard",
+                    authLevel = AuthorizationLevel.ANONYMOUS)
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("userId") String userId,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Getting dashboard for user: " + userId);
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            validateToken(request);
+
+            ReadModelService readModelService = services().getReadModelService();
+            UserDashboard dashboard = readModelService.getDashboard(userId);
+
+            return createResponse(request, dashboard);
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+}
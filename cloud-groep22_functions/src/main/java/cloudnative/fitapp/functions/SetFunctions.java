@@ -1,21 +1,17 @@
 package cloudnative.fitapp.functions;
 
-import cloudnative.fitapp.security.SimplePasswordEncoder;
+import cloudnative.fitapp.cache.CacheEntity;
 import com.microsoft.azure.functions.*;
 import com.microsoft.azure.functions.annotation.*;
 import cloudnative.fitapp.domain.Set;
 import cloudnative.fitapp.service.SetService;
-import cloudnative.fitapp.service.ExerciseService;
-import cloudnative.fitapp.service.WorkoutService;
-import cloudnative.fitapp.service.UserService;
-import java.util.List;
 import java.util.Optional;
 
 
 public class SetFunctions extends BaseFunctionHandler {
 
 
-    // Get all sets - GET /api/sets
+    // Get all sets - GET /api/sets[?pageSize=&continuation=]
     @FunctionName("GetAllSets")
     public HttpResponseMessage getAllSets(
             @HttpTrigger(
@@ -35,15 +31,14 @@ public class SetFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            // Create services
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
-            SetService setService = new SetService(cosmosDBService, exerciseService);
+            SetService setService = services().getSetService();
 
-            List<Set> sets = setService.getAllSets();
-            return createResponse(request, sets);
+            Optional<Integer> pageSize = getPageSize(request);
+            if (pageSize.isPresent()) {
+                return createPageResponse(request, setService.getAllSets(pageSize.get(), getContinuation(request)));
+            }
+
+            return createListResponse(request, setService.streamAllSets());
         } catch (Exception e) {
             return handleException(request, e);
         }
@@ -71,14 +66,10 @@ public class SetFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            // Create services
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
-            SetService setService = new SetService(cosmosDBService, exerciseService);
+            SetService setService = services().getSetService();
 
-            Set set = setService.getSetById(Long.parseLong(id));
+            Long setId = Long.parseLong(id);
+            Set set = cached(CacheEntity.SET, String.valueOf(setId), Set.class, () -> setService.getSetById(setId));
 
             if (set == null) {
                 return createErrorResponse(request, HttpStatus.NOT_FOUND, "Set not found");
@@ -113,12 +104,7 @@ public class SetFunctions extends BaseFunctionHandler {
             validateToken(request);
             Set set = parseBody(request, Set.class);
 
-            // Create services
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
-            SetService setService = new SetService(cosmosDBService, exerciseService);
+            SetService setService = services().getSetService();
 
             Set newSet = setService.addSetToExercise(Long.parseLong(exerciseId), set);
             return createResponse(request, newSet);
@@ -150,12 +136,7 @@ public class SetFunctions extends BaseFunctionHandler {
             validateToken(request);
             Set set = parseBody(request, Set.class);
 
-            // Create services
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
-            SetService setService = new SetService(cosmosDBService, exerciseService);
+            SetService setService = services().getSetService();
 
             Set updatedSet = setService.updateSet(Long.parseLong(id), set);
             return createResponse(request, updatedSet);
@@ -165,7 +146,7 @@ public class SetFunctions extends BaseFunctionHandler {
     }
 
 
-    // Delete set - DELETE /api/sets/{id}
+    // Delete set - DELETE /api/sets/delete/{id}[?workoutId=&exerciseId=]
     @FunctionName("DeleteSet")
     public HttpResponseMessage deleteSet(
             @HttpTrigger(
@@ -186,18 +167,15 @@ public class SetFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            // Create services
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            WorkoutService workoutService = new WorkoutService(cosmosDBService, userService);
-            ExerciseService exerciseService = new ExerciseService(cosmosDBService, workoutService);
-            SetService setService = new SetService(cosmosDBService, exerciseService);
+            SetService setService = services().getSetService();
 
-            if (setService.getSetById(Long.parseLong(id)) == null) {
+            // Optional ?workoutId= / ?exerciseId= let the owning workout be read directly
+            String workoutId = getQueryParam(request, "workoutId").orElse(null);
+            String exerciseId = getQueryParam(request, "exerciseId").orElse(null);
+            if (!setService.deleteSet(Long.parseLong(id), workoutId, exerciseId)) {
                 return createErrorResponse(request, HttpStatus.NOT_FOUND, "Set not found");
             }
 
-            setService.deleteSet(Long.parseLong(id));
             return request.createResponseBuilder(HttpStatus.NO_CONTENT)
                     .header("Access-Control-Allow-Origin", "*")
                     .build();
@@ -0,0 +1,85 @@
+package cloudnative.fitapp.functions;
+
+import com.microsoft.azure.functions.*;
+import com.microsoft.azure.functions.annotation.*;
+import cloudnative.fitapp.service.TrainingHistoryService;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Optional;
+
+
+public class TrainingHistoryFunctions extends BaseFunctionHandler {
+
+
+    // Import workouts, exercises, sets, progress and bodyweight from NDJSON - POST /api/users/{userId}/history/import
+    @FunctionName("ImportTrainingHistory")
+    public HttpResponseMessage importTrainingHistory(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.POST, HttpMethod.OPTIONS},
+                    route = "users/{userId}/history/import",
+                    authLevel = AuthorizationLevel.ANONYMOUS)
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("userId") String userId,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Importing training history for user: " + userId);
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            validateToken(request);
+
+            String body = request.getBody()
+                    .orElseThrow(() -> new IllegalArgumentException("Request body with NDJSON records is required"));
+
+            TrainingHistoryService historyService = services().getTrainingHistoryService();
+            Map<String, Object> result = historyService.importHistory(userId, new StringReader(body));
+
+            return createResponse(request, result, HttpStatus.CREATED);
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+
+
+    // Export the user's training history as NDJSON - GET /api/users/{userId}/history/export
+    @FunctionName("ExportTrainingHistory")
+    public HttpResponseMessage exportTrainingHistory(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET, HttpMethod.OPTIONS},
+                    route = "users/{userId}/history/export",
+                    authLevel = AuthorizationLevel.ANONYMOUS)
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("userId") String userId,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Exporting training history for user: " + userId);
+
+        if (request.getHttpMethod() == HttpMethod.OPTIONS) {
+            return handleCors(request);
+        }
+
+        try {
+            validateToken(request);
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+            services().getTrainingHistoryService().exportHistory(userId, buffer);
+
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/x-ndjson")
+                    .header("Content-Disposition", "attachment; filename=\"history-" + userId + ".ndjson\"")
+                    .header("Access-Control-Allow-Origin", "*")
+                    .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                    .header("Access-Control-Allow-Headers", "Content-Type, Authorization")
+                    .body(buffer.toByteArray())
+                    .build();
+        } catch (Exception e) {
+            return handleException(request, e);
+        }
+    }
+}
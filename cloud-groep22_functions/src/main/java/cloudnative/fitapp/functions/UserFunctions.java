@@ -1,12 +1,12 @@
 package cloudnative.fitapp.functions;
 
+import cloudnative.fitapp.cache.CacheEntity;
 import cloudnative.fitapp.service.UserService;
 import com.microsoft.azure.functions.*;
 import com.microsoft.azure.functions.annotation.*;
 import cloudnative.fitapp.domain.User;
 import cloudnative.fitapp.domain.Workout;
 import cloudnative.fitapp.dto.UpdatePasswordRequest;
-import cloudnative.fitapp.security.SimplePasswordEncoder;
 
 import java.util.List;
 import java.util.Optional;
@@ -15,7 +15,7 @@ import java.util.Optional;
 public class UserFunctions extends BaseFunctionHandler {
 
 
-    // Get all users - GET /api/users
+    // Get all users - GET /api/users[?pageSize=&continuation=]
     @FunctionName("GetAllUsers")
     public HttpResponseMessage getAllUsers(
             @HttpTrigger(
@@ -35,11 +35,14 @@ public class UserFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            List<User> users = userService.getAllUsers();
+            UserService userService = services().getUserService();
 
-            return createResponse(request, users);
+            Optional<Integer> pageSize = getPageSize(request);
+            if (pageSize.isPresent()) {
+                return createPageResponse(request, userService.getAllUsers(pageSize.get(), getContinuation(request)));
+            }
+
+            return createListResponse(request, userService.streamAllUsers());
         } catch (Exception e) {
             return handleException(request, e);
         }
@@ -67,9 +70,8 @@ public class UserFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
-            User user = userService.getUserById(id);
+            UserService userService = services().getUserService();
+            User user = cached(CacheEntity.USER, id, User.class, () -> userService.getUserById(id));
 
             if (user == null) {
                 return createErrorResponse(request, HttpStatus.NOT_FOUND, "User not found");
@@ -103,8 +105,7 @@ public class UserFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
+            UserService userService = services().getUserService();
             List<Workout> workouts = userService.getAllWorkoutsForUser(id);
 
             return createResponse(request, workouts);
@@ -141,8 +142,7 @@ public class UserFunctions extends BaseFunctionHandler {
                 throw new IllegalArgumentException("Streak goal must be between 0 and 7");
             }
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
+            UserService userService = services().getUserService();
             userService.updateStreakGoal(userId, streakGoal);
 
             // Return the updated streak goal
@@ -176,8 +176,7 @@ public class UserFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
+            UserService userService = services().getUserService();
             userService.completedWorkout(userId);
 
             // Return the updated streak progress
@@ -213,8 +212,7 @@ public class UserFunctions extends BaseFunctionHandler {
 
             UpdatePasswordRequest passwordRequest = parseBody(request, UpdatePasswordRequest.class);
 
-            SimplePasswordEncoder passwordEncoder = new SimplePasswordEncoder();
-            UserService userService = new UserService(cosmosDBService, passwordEncoder);
+            UserService userService = services().getUserService();
 
             userService.updatePassword(userId,
                     passwordRequest.getCurrentPassword(),
@@ -1,14 +1,21 @@
 package cloudnative.fitapp.functions;
 
+import cloudnative.fitapp.cache.CacheEntity;
 import cloudnative.fitapp.cache.RedisCache;
 import com.microsoft.azure.functions.*;
 import com.microsoft.azure.functions.annotation.*;
 import cloudnative.fitapp.domain.Exercise;
 import cloudnative.fitapp.domain.User;
 import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.repository.UserRepository;
+import cloudnative.fitapp.repository.WorkoutRepository;
+import cloudnative.fitapp.service.UserService;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 
 public class WorkoutFunctions extends BaseFunctionHandler {
@@ -38,47 +45,45 @@ public class WorkoutFunctions extends BaseFunctionHandler {
 
             Workout workoutIn = parseBody(request, Workout.class);
 
-            // Find user to validate
-            String userQuery = String.format("SELECT * FROM c WHERE c.id = '%s'", userId);
-            List<User> users = cosmosDBService.query("users", userQuery, User.class);
-
-            if (users.isEmpty()) {
-                throw new IllegalArgumentException("User not found with id: " + userId);
-            }
+            UserRepository userRepository = services().getUserRepository();
+            WorkoutRepository workoutRepository = services().getWorkoutRepository();
 
-            User user = users.get(0);
+            // Find user to validate
+            User user = userRepository.findById(userId)
+                    .orElseThrow(() -> new IllegalArgumentException("User not found with id: " + userId));
 
             // Create workout
             Workout workout = new Workout(workoutIn.getName());
             workout.setId(String.valueOf(System.currentTimeMillis()));
             workout.setUserId(userId);
 
-            // Save workout
-            Workout savedWorkout = cosmosDBService.save("workouts", workout, userId, Workout.class);
-
-            // Update user's workout IDs
-            if (user.getWorkoutIds() == null) {
-                user.setWorkoutIds(new java.util.ArrayList<>());
-            }
-            user.getWorkoutIds().add(workout.getId());
-            cosmosDBService.update("users", user, user.getEmail(), User.class);
-
+            // Save workout and append to the user's workout IDs concurrently, they are independent writes
+            CompletableFuture<Workout> savedWorkoutFuture = workoutRepository.saveAsync(workout);
+            CompletableFuture<Optional<User>> updatedUserFuture = userRepository.updateWithRetryAsync(user,
+                    UserService.addWorkoutId(workout.getId()));
             try {
-                RedisCache cache = RedisCache.getInstance();
-                cache.invalidateUserCache(userId);
-                context.getLogger().info("Cache invalidated for user after workout creation: " + userId);
-            } catch (Exception cacheError) {
-                context.getLogger().warning("Failed to invalidate cache: " + cacheError.getMessage());
+                CompletableFuture.allOf(savedWorkoutFuture, updatedUserFuture).join();
+            } catch (CompletionException e) {
+                // Users and workouts are in different containers, so the two writes cannot share a transactional
+                // batch: undo the one that succeeded
+                context.getLogger().warning("Creating workout " + workout.getId() + " failed, compensating");
+                if (!savedWorkoutFuture.isCompletedExceptionally()) {
+                    workoutRepository.delete(workout);
+                }
+                if (!updatedUserFuture.isCompletedExceptionally()) {
+                    userRepository.updateWithRetry(user, UserService.removeWorkoutId(workout.getId()));
+                }
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
             }
 
-            return createResponse(request, savedWorkout);
+            return createResponse(request, savedWorkoutFuture.join());
 
         } catch (Exception e) {
             return handleException(request, e);
         }
     }
 
-     // Get all workouts - GET /api/workouts/all
+     // Get all workouts - GET /api/workouts/all[?pageSize=&continuation=]
     @FunctionName("GetAllWorkouts")
     public HttpResponseMessage getAllWorkouts(
             @HttpTrigger(
@@ -97,8 +102,14 @@ public class WorkoutFunctions extends BaseFunctionHandler {
 
         try {
             validateToken(request);
-            List<Workout> workouts = cosmosDBService.findAll("workouts", Workout.class);
-            return createResponse(request, workouts);
+
+            WorkoutRepository workoutRepository = services().getWorkoutRepository();
+            Optional<Integer> pageSize = getPageSize(request);
+            if (pageSize.isPresent()) {
+                return createPageResponse(request, workoutRepository.findPage(pageSize.get(), getContinuation(request)));
+            }
+
+            return createListResponse(request, workoutRepository.streamAll());
         } catch (Exception e) {
             return handleException(request, e);
         }
@@ -126,14 +137,15 @@ public class WorkoutFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            String query = String.format("SELECT * FROM c WHERE c.id = '%s'", id);
-            List<Workout> workouts = cosmosDBService.query("workouts", query, Workout.class);
+            Workout workout = cached(CacheEntity.WORKOUT, id, Workout.class,
+                    () -> services().getWorkoutRepository().findById(id)
+                            .map(services().getProgressService()::attachHistory).orElse(null));
 
-            if (workouts.isEmpty()) {
+            if (workout == null) {
                 return createErrorResponse(request, HttpStatus.NOT_FOUND, "Workout not found");
             }
 
-            return createResponse(request, workouts.get(0));
+            return createResponse(request, workout);
         } catch (Exception e) {
             return handleException(request, e);
         }
@@ -161,8 +173,10 @@ public class WorkoutFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
-            RedisCache cache = RedisCache.getInstance();
-            Object cachedWorkouts = cache.getCachedUserWorkouts(userId);
+            RedisCache cache = services().getRedisCache();
+            Supplier<List<Workout>> loader = () -> services().getProgressService()
+                    .attachHistory(userId, services().getWorkoutRepository().findByUserId(userId));
+            Object cachedWorkouts = cache.getCachedUserWorkouts(userId, loader);
 
             if (cachedWorkouts != null) {
                 context.getLogger().info("Data retrieved from cache for user workouts: " + userId);
@@ -174,10 +188,8 @@ public class WorkoutFunctions extends BaseFunctionHandler {
             }
 
             context.getLogger().info("Data not in cache for user workouts: " + userId);
-            String query = String.format("SELECT * FROM c WHERE c.userId = '%s'", userId);
-            List<Workout> workouts = cosmosDBService.query("workouts", query, Workout.class);
-
-            cache.cacheUserWorkouts(userId, workouts);
+            // Concurrent misses for this user share a single Cosmos query
+            Object workouts = cache.loadUserWorkouts(userId, loader);
 
             return request.createResponseBuilder(HttpStatus.OK)
                     .body(workouts)
@@ -213,31 +225,32 @@ public class WorkoutFunctions extends BaseFunctionHandler {
         try {
             validateToken(request);
 
+            UserRepository userRepository = services().getUserRepository();
+            WorkoutRepository workoutRepository = services().getWorkoutRepository();
+
             // Find workout first to get userId
-            String query = String.format("SELECT * FROM c WHERE c.id = '%s'", id);
-            List<Workout> workouts = cosmosDBService.query("workouts", query, Workout.class);
+            Optional<Workout> workoutOpt = workoutRepository.findById(id);
 
-            if (workouts.isEmpty()) {
+            if (workoutOpt.isEmpty()) {
                 return createErrorResponse(request, HttpStatus.NOT_FOUND, "Workout not found");
             }
 
-            Workout workout = workouts.get(0);
+            Workout workout = workoutOpt.get();
+
+            // Delete workout (and its lookup entries) while the owning user is read
+            CompletableFuture<Void> deleted = workoutRepository.deleteAsync(workout);
+            Optional<User> userOpt = await(userRepository.findByIdAsync(workout.getUserId()));
+            // Unlink only once the delete succeeded, so a failure never leaves a workout the user cannot see
+            await(deleted);
 
             // Remove from user's workout list
-            String userQuery = String.format("SELECT * FROM c WHERE c.id = '%s'", workout.getUserId());
-            List<User> users = cosmosDBService.query("users", userQuery, User.class);
-
-            if (!users.isEmpty()) {
-                User user = users.get(0);
-                if (user.getWorkoutIds() != null) {
-                    user.getWorkoutIds().remove(workout.getId());
-                    cosmosDBService.update("users", user, user.getEmail(), User.class);
+            if (userOpt.isPresent()) {
+                User user = userOpt.get();
+                if (user.getWorkoutIds() != null && user.getWorkoutIds().contains(workout.getId())) {
+                    userRepository.updateWithRetry(user, UserService.removeWorkoutId(workout.getId()));
                 }
             }
 
-            // Delete workout
-            cosmosDBService.deleteById("workouts", id, workout.getUserId());
-
             return request.createResponseBuilder(HttpStatus.NO_CONTENT)
                     .header("Access-Control-Allow-Origin", "*")
                     .build();
@@ -272,35 +285,17 @@ public class WorkoutFunctions extends BaseFunctionHandler {
             Exercise exercise = parseBody(request, Exercise.class);
 
             // Find workout in DB
-            String query = String.format("SELECT * FROM c WHERE c.id = '%s'", id);
-            List<Workout> workouts = cosmosDBService.query("workouts", query, Workout.class);
-
-            if (workouts.isEmpty()) {
-                throw new IllegalArgumentException("Workout not found with id: " + id);
-            }
-
-            Workout workout = workouts.get(0);
-            String userId = workout.getUserId();
+            WorkoutRepository workoutRepository = services().getWorkoutRepository();
+            Workout workout = workoutRepository.findById(id)
+                    .orElseThrow(() -> new IllegalArgumentException("Workout not found with id: " + id));
 
             // Create exercise with goal settings
             Exercise newExercise = new Exercise(exercise.getName(), exercise.getType(), goal);
             newExercise = workout.addExercise(newExercise);
 
-            // Update DB with updated workout
-            cosmosDBService.update("workouts", workout, workout.getUserId(), Workout.class);
-
-            try {
-                RedisCache cache = RedisCache.getInstance();
-
-                cache.invalidateWorkoutCache(id);
-                context.getLogger().info("Invalidated workout exercise cache for workout: " + id);
-
-                cache.invalidateUserCache(userId);
-                context.getLogger().info("Invalidated user workout cache for user: " + userId);
-
-            } catch (Exception cacheError) {
-                context.getLogger().warning("⚠Failed to invalidate cache: " + cacheError.getMessage());
-            }
+            // Update DB with updated workout, which also evicts its cached entries in one round trip
+            workoutRepository.update(workout);
+            services().getLookupIndexService().indexExercise(workout, newExercise);
 
             return createResponse(request, newExercise);
 
@@ -338,34 +333,20 @@ public class WorkoutFunctions extends BaseFunctionHandler {
             int rest = jsonNode.get("rest").asInt();
 
             // Find workout in DB
-            String query = String.format("SELECT * FROM c WHERE c.id = '%s'", id);
-            List<Workout> workouts = cosmosDBService.query("workouts", query, Workout.class);
+            WorkoutRepository workoutRepository = services().getWorkoutRepository();
+            Optional<Workout> workoutOpt = workoutRepository.findById(id);
 
-            if (workouts.isEmpty()) {
+            if (workoutOpt.isEmpty()) {
                 return createErrorResponse(request, HttpStatus.NOT_FOUND, "Workout not found");
             }
 
-            Workout workout = workouts.get(0);
-            String userId = workout.getUserId();
+            Workout workout = workoutOpt.get();
 
             workout.setName(name);
             workout.setRest(rest);
 
-            // Update DB with updated workout
-            Workout updatedWorkout = cosmosDBService.update("workouts", workout, workout.getUserId(), Workout.class);
-
-            try {
-                RedisCache cache = RedisCache.getInstance();
-
-                cache.invalidateWorkoutCache(id);
-                context.getLogger().info("Invalidated workout cache for updated workout: " + id);
-
-                cache.invalidateUserCache(userId);
-                context.getLogger().info("Invalidated user workout cache for user: " + userId);
-
-            } catch (Exception cacheError) {
-                context.getLogger().warning("Failed to invalidate cache: " + cacheError.getMessage());
-            }
+            // Update DB with updated workout, which also evicts its cached entries in one round trip
+            Workout updatedWorkout = workoutRepository.update(workout);
 
             return createResponse(request, updatedWorkout);
 
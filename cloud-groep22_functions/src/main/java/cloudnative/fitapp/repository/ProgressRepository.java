@@ -0,0 +1,130 @@
+package cloudnative.fitapp.repository;
+
+import cloudnative.fitapp.cache.CacheEntity;
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.ProgressEntry;
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.dto.RangeFilter;
+import cloudnative.fitapp.service.CosmosDBService;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.PartitionKey;
+import com.azure.cosmos.models.SqlParameter;
+import com.azure.cosmos.models.SqlQuerySpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+
+// Progress history, kept out of the workout documents so that recording progress writes one small new document
+// instead of rewriting a workout that grows with every entry
+public class ProgressRepository {
+
+    public static final String CONTAINER = "history";
+
+    private final CosmosDBService cosmosDBService;
+    private final RedisCache redisCache;
+
+    public ProgressRepository(CosmosDBService cosmosDBService, RedisCache redisCache) {
+        this.cosmosDBService = cosmosDBService;
+        this.redisCache = redisCache;
+    }
+
+    public ProgressEntry append(ProgressEntry entry) {
+        ProgressEntry saved = cosmosDBService.save(CONTAINER, entry, entry.getUserId(), ProgressEntry.class);
+        redisCache.evict(cacheKeysOf(entry));
+        return saved;
+    }
+
+    // Upserts with bulk execution, so entries that were already copied are overwritten; returns the ids that failed
+    public List<String> saveAll(List<ProgressEntry> entries) {
+        List<CosmosItemOperation> operations = new ArrayList<>();
+        LinkedHashSet<String> keys = new LinkedHashSet<>();
+        for (ProgressEntry entry : entries) {
+            operations.add(CosmosBulkOperations.getUpsertItemOperation(entry, new PartitionKey(entry.getUserId())));
+            keys.addAll(cacheKeysOf(entry));
+        }
+        List<String> failed = cosmosDBService.executeBulk(CONTAINER, operations);
+        redisCache.evict(new ArrayList<>(keys));
+        return failed;
+    }
+
+    // Single-partition query on the (exerciseId, date) composite index, so the cost follows the entries returned.
+    // Dates are stored as epoch milliseconds; exerciseId is in the ORDER BY only so the composite index serves it
+    public List<ProgressEntry> findByExerciseId(String userId, String exerciseId, RangeFilter filter) {
+        List<SqlParameter> parameters = new ArrayList<>();
+        parameters.add(new SqlParameter("@userId", userId));
+        parameters.add(new SqlParameter("@exerciseId", exerciseId));
+
+        StringBuilder sql = new StringBuilder("SELECT");
+        if (filter.getLimit() != null) {
+            sql.append(" TOP @limit");
+            parameters.add(new SqlParameter("@limit", filter.getLimit()));
+        }
+        sql.append(" * FROM c WHERE c.userId = @userId AND c.exerciseId = @exerciseId");
+        if (filter.getFrom() != null) {
+            sql.append(" AND c.date >= @from");
+            parameters.add(new SqlParameter("@from", filter.fromMillis()));
+        }
+        if (filter.getTo() != null) {
+            sql.append(" AND c.date < @to");
+            parameters.add(new SqlParameter("@to", filter.toMillisExclusive()));
+        }
+        String order = filter.isDescending() ? "DESC" : "ASC";
+        sql.append(" ORDER BY c.exerciseId ").append(order).append(", c.date ").append(order);
+
+        return cosmosDBService.query(CONTAINER, new SqlQuerySpec(sql.toString(), parameters), userId, ProgressEntry.class);
+    }
+
+    public List<ProgressEntry> findByUserId(String userId) {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT * FROM c WHERE c.userId = @userId ORDER BY c.date",
+                new SqlParameter("@userId", userId));
+        return cosmosDBService.query(CONTAINER, querySpec, userId, ProgressEntry.class);
+    }
+
+    // Removes the history of exercises that were deleted or changed type; returns the ids that could not be deleted
+    public List<String> deleteByExerciseIds(String userId, Collection<String> exerciseIds) {
+        if (exerciseIds.isEmpty()) {
+            return List.of();
+        }
+        SqlQuerySpec querySpec = new SqlQuerySpec(
+                "SELECT c.id, c.userId, c.exerciseId FROM c WHERE c.userId = @userId AND ARRAY_CONTAINS(@exerciseIds, c.exerciseId)",
+                new SqlParameter("@userId", userId),
+                new SqlParameter("@exerciseIds", new ArrayList<>(exerciseIds)));
+        List<ProgressEntry> entries = cosmosDBService.query(CONTAINER, querySpec, userId, ProgressEntry.class);
+
+        List<CosmosItemOperation> operations = new ArrayList<>();
+        LinkedHashSet<String> keys = new LinkedHashSet<>();
+        for (ProgressEntry entry : entries) {
+            operations.add(CosmosBulkOperations.getDeleteItemOperation(entry.getId(), new PartitionKey(userId)));
+            keys.addAll(cacheKeysOf(entry));
+        }
+        List<String> failed = cosmosDBService.executeBulk(CONTAINER, operations);
+        redisCache.evict(new ArrayList<>(keys));
+        return failed;
+    }
+
+    public Stream<ProgressEntry> streamAll() {
+        return cosmosDBService.stream(CONTAINER, new SqlQuerySpec("SELECT * FROM c"), ProgressEntry.class);
+    }
+
+    public Page<ProgressEntry> findPage(int pageSize, String continuationToken) {
+        return cosmosDBService.findPage(CONTAINER, new SqlQuerySpec("SELECT * FROM c"),
+                pageSize, continuationToken, ProgressEntry.class);
+    }
+
+    // Every cached read that attaches the history: the exercise, its workout and the user's workouts
+    public static List<String> cacheKeysOf(ProgressEntry entry) {
+        List<String> keys = new ArrayList<>();
+        keys.add(CacheEntity.PROGRESS.key(entry.getExerciseId()));
+        keys.add(CacheEntity.EXERCISE.key(entry.getExerciseId()));
+        keys.add("workouts:user:" + entry.getUserId());
+        if (entry.getWorkoutId() != null) {
+            keys.add(CacheEntity.WORKOUT.key(entry.getWorkoutId()));
+            keys.add("exercises:workout:" + entry.getWorkoutId());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,210 @@
+package cloudnative.fitapp.repository;
+
+import cloudnative.fitapp.cache.CacheEntity;
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.User;
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.service.CosmosDBService;
+import cloudnative.fitapp.service.WriteBehindBuffer;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import com.azure.cosmos.models.SqlParameter;
+import com.azure.cosmos.models.SqlQuerySpec;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+
+public class UserRepository {
+
+    private static final Logger logger = Logger.getLogger(UserRepository.class.getName());
+    private static final String CONTAINER = "users";
+
+    // User id -> email (the partition key), shared by all repositories in this worker
+    private static final Map<String, String> emailById = new ConcurrentHashMap<>();
+
+    private final CosmosDBService cosmosDBService;
+    private final RedisCache redisCache;
+    private final WriteBehindBuffer writeBehindBuffer;
+
+    public UserRepository(CosmosDBService cosmosDBService, RedisCache redisCache, WriteBehindBuffer writeBehindBuffer) {
+        this.cosmosDBService = cosmosDBService;
+        this.redisCache = redisCache;
+        this.writeBehindBuffer = writeBehindBuffer;
+    }
+
+    public Optional<User> findById(String id) {
+        String email = emailById.get(id);
+        if (email != null) {
+            Optional<User> user = writeBehindBuffer.overlay(CONTAINER, id,
+                    () -> cosmosDBService.findById(CONTAINER, id, email, User.class));
+            if (user.isPresent()) {
+                return user;
+            }
+            emailById.remove(id);
+        }
+
+        // Partition key unknown: fall back to a cross-partition query
+        logger.info("Partition key unknown for user " + id + ", querying across partitions");
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT * FROM c WHERE c.id = @id",
+                new SqlParameter("@id", id));
+        return writeBehindBuffer.overlay(CONTAINER, id,
+                () -> first(cosmosDBService.query(CONTAINER, querySpec, null, User.class)));
+    }
+
+    public CompletableFuture<Optional<User>> findByIdAsync(String id) {
+        String email = emailById.get(id);
+        if (email != null) {
+            return cosmosDBService.findByIdAsync(CONTAINER, id, email, User.class)
+                    .thenCompose(user -> user.isPresent()
+                            ? CompletableFuture.completedFuture(user)
+                            : queryByIdAsync(id));
+        }
+        return queryByIdAsync(id);
+    }
+
+    private CompletableFuture<Optional<User>> queryByIdAsync(String id) {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT * FROM c WHERE c.id = @id",
+                new SqlParameter("@id", id));
+        return cosmosDBService.queryAsync(CONTAINER, querySpec, null, User.class).thenApply(this::first);
+    }
+
+    // The email is the partition key, so this query stays within a single partition
+    public Optional<User> findByEmail(String email) {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT * FROM c WHERE c.email = @email",
+                new SqlParameter("@email", email));
+        return first(cosmosDBService.query(CONTAINER, querySpec, email, User.class));
+    }
+
+    public List<User> findAll() {
+        return cosmosDBService.findAll(CONTAINER, User.class);
+    }
+
+    public Stream<User> streamAll() {
+        return cosmosDBService.stream(CONTAINER, new SqlQuerySpec("SELECT * FROM c"), User.class);
+    }
+
+    public Page<User> findPage(int pageSize, String continuationToken) {
+        return cosmosDBService.findPage(CONTAINER, new SqlQuerySpec("SELECT * FROM c"),
+                pageSize, continuationToken, User.class);
+    }
+
+    public User save(User user) {
+        User saved = cosmosDBService.save(CONTAINER, user, user.getEmail(), User.class);
+        evict(saved != null ? saved : user);
+        return saved;
+    }
+
+    public User update(User user) {
+        User updated = cosmosDBService.update(CONTAINER, user, user.getEmail(), User.class);
+        evict(updated != null ? updated : user);
+        return updated;
+    }
+
+    public CompletableFuture<User> updateAsync(User user) {
+        // Evicting talks to Redis, so keep it off the Cosmos I/O threads
+        return cosmosDBService.updateAsync(CONTAINER, user, user.getEmail()).thenApplyAsync(updated -> {
+            evict(updated);
+            return updated;
+        });
+    }
+
+    // Re-reads and re-applies the mutation if another request changed the user in between, so no update is lost
+    public Optional<User> updateWithRetry(User user, Consumer<User> mutation) {
+        Optional<User> updated = cosmosDBService.updateWithRetry(CONTAINER, user.getId(), user.getEmail(), User.class, mutation);
+        updated.ifPresent(this::evict);
+        return updated;
+    }
+
+    public CompletableFuture<Optional<User>> updateWithRetryAsync(User user, Consumer<User> mutation) {
+        return cosmosDBService.updateWithRetryAsync(CONTAINER, user.getId(), user.getEmail(), User.class, mutation)
+                .thenApplyAsync(updated -> {
+                    updated.ifPresent(this::evict);
+                    return updated;
+                });
+    }
+
+    // Partial update without reading the user first when the partition key is already known
+    public Optional<User> patch(String id, CosmosPatchOperations operations) {
+        String email = emailById.get(id);
+        if (email == null) {
+            Optional<User> user = findById(id);
+            if (user.isEmpty()) {
+                return Optional.empty();
+            }
+            email = user.get().getEmail();
+        }
+
+        Optional<User> patched = cosmosDBService.patch(CONTAINER, id, email, operations, null, User.class);
+        patched.ifPresent(this::evict);
+        return patched;
+    }
+
+    // Queues the mutation with the write-behind buffer; false if write-behind is off and the caller must update now
+    public boolean deferUpdate(User user, Consumer<User> mutation) {
+        if (!writeBehindBuffer.isEnabled()) {
+            return false;
+        }
+        remember(user);
+        writeBehindBuffer.enqueue(CONTAINER, user.getId(), user.getEmail(), User.class, mutation,
+                written -> redisCache.evict(cacheKeysOf(written)));
+        return true;
+    }
+
+    public void delete(User user) {
+        cosmosDBService.deleteById(CONTAINER, user.getId(), user.getEmail());
+        emailById.remove(user.getId());
+        redisCache.evict(cacheKeysOf(user));
+    }
+
+    // Cached entries derived from the user document, including the login entry cached under the email
+    private static List<String> cacheKeysOf(User user) {
+        List<String> keys = new ArrayList<>();
+        if (user.getId() != null) {
+            keys.add(CacheEntity.USER.key(user.getId()));
+            keys.add(CacheEntity.BODYWEIGHT.key(user.getId()));
+        }
+        if (user.getEmail() != null) {
+            keys.add("user:email:" + user.getEmail());
+        }
+        return keys;
+    }
+
+    // Evicts a user that was just written and remembers its email; the email it was known by before is evicted
+    // as well, in case it changed
+    private void evict(User written) {
+        LinkedHashSet<String> keys = new LinkedHashSet<>(cacheKeysOf(written));
+        String previousEmail = written.getId() != null ? emailById.get(written.getId()) : null;
+        if (previousEmail != null) {
+            keys.add("user:email:" + previousEmail);
+        }
+        redisCache.evict(new ArrayList<>(keys));
+        remember(written);
+    }
+
+    // Returns the partition key for a user id if it has been seen by this worker
+    public Optional<String> partitionKeyOf(String id) {
+        return Optional.ofNullable(emailById.get(id));
+    }
+
+    private Optional<User> first(List<User> users) {
+        if (users.isEmpty()) {
+            return Optional.empty();
+        }
+        User user = users.get(0);
+        remember(user);
+        return Optional.of(user);
+    }
+
+    private void remember(User user) {
+        if (user.getId() != null && user.getEmail() != null) {
+            emailById.put(user.getId(), user.getEmail());
+        }
+    }
+}
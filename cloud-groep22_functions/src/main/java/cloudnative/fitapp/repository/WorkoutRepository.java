@@ -0,0 +1,308 @@
+package cloudnative.fitapp.repository;
+
+import cloudnative.fitapp.cache.CacheEntity;
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.LookupEntry;
+import cloudnative.fitapp.domain.Set;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.service.CosmosDBService;
+import cloudnative.fitapp.service.ExerciseStatsService;
+import cloudnative.fitapp.service.RollupService;
+import cloudnative.fitapp.service.LookupIndexService;
+import cloudnative.fitapp.service.WriteBehindBuffer;
+import com.azure.cosmos.models.CosmosBatch;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import com.azure.cosmos.models.PartitionKey;
+import com.azure.cosmos.models.SqlParameter;
+import com.azure.cosmos.models.SqlQuerySpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+
+public class WorkoutRepository {
+
+    private static final Logger logger = Logger.getLogger(WorkoutRepository.class.getName());
+    private static final String CONTAINER = "workouts";
+
+    private final CosmosDBService cosmosDBService;
+    private final RedisCache redisCache;
+    private final WriteBehindBuffer writeBehindBuffer;
+    private final LookupIndexService lookupIndexService;
+    private final ProgressRepository progressRepository;
+    private final ExerciseStatsService exerciseStatsService;
+    private final RollupService rollupService;
+
+    public WorkoutRepository(CosmosDBService cosmosDBService, RedisCache redisCache, WriteBehindBuffer writeBehindBuffer,
+                             LookupIndexService lookupIndexService, ProgressRepository progressRepository,
+                             ExerciseStatsService exerciseStatsService, RollupService rollupService) {
+        this.cosmosDBService = cosmosDBService;
+        this.redisCache = redisCache;
+        this.writeBehindBuffer = writeBehindBuffer;
+        this.lookupIndexService = lookupIndexService;
+        this.progressRepository = progressRepository;
+        this.exerciseStatsService = exerciseStatsService;
+        this.rollupService = rollupService;
+    }
+
+    // Resolves the userId partition key through the lookup index, then does a point read
+    public Optional<Workout> findById(String id) {
+        Optional<LookupEntry> entry = lookupIndexService.findWorkout(id);
+        if (entry.isPresent()) {
+            Optional<Workout> workout = findById(id, entry.get().getUserId());
+            if (workout.isPresent()) {
+                return workout;
+            }
+        }
+
+        // Partition key unknown: fall back to a cross-partition query and repair the index
+        logger.info("Partition key unknown for workout " + id + ", querying across partitions");
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT * FROM c WHERE c.id = @id",
+                new SqlParameter("@id", id));
+        Optional<Workout> workout = writeBehindBuffer.overlay(CONTAINER, id, () ->
+                cosmosDBService.query(CONTAINER, querySpec, null, Workout.class).stream().findFirst());
+        workout.ifPresent(lookupIndexService::indexWorkout);
+        return workout;
+    }
+
+    public CompletableFuture<Optional<Workout>> findByIdAsync(String id) {
+        return lookupIndexService.findAsync(LookupIndexService.TYPE_WORKOUT, id)
+                .thenCompose(entry -> entry.isPresent()
+                        ? cosmosDBService.findByIdAsync(CONTAINER, id, entry.get().getUserId(), Workout.class)
+                        : CompletableFuture.completedFuture(Optional.<Workout>empty()))
+                .thenCompose(workout -> workout.isPresent()
+                        ? CompletableFuture.completedFuture(workout)
+                        : queryByIdAsync(id));
+    }
+
+    private CompletableFuture<Optional<Workout>> queryByIdAsync(String id) {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT * FROM c WHERE c.id = @id",
+                new SqlParameter("@id", id));
+        // Repairing the index is a blocking write, so keep it off the Cosmos I/O threads
+        return cosmosDBService.queryAsync(CONTAINER, querySpec, null, Workout.class).thenApplyAsync(workouts -> {
+            if (workouts.isEmpty()) {
+                return Optional.<Workout>empty();
+            }
+            lookupIndexService.indexWorkout(workouts.get(0));
+            return Optional.of(workouts.get(0));
+        });
+    }
+
+    public Optional<Workout> findById(String id, String userId) {
+        return writeBehindBuffer.overlay(CONTAINER, id,
+                () -> cosmosDBService.findById(CONTAINER, id, userId, Workout.class));
+    }
+
+    // The userId is the partition key, so this query stays within a single partition
+    public List<Workout> findByUserId(String userId) {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT * FROM c WHERE c.userId = @userId",
+                new SqlParameter("@userId", userId));
+        return cosmosDBService.query(CONTAINER, querySpec, userId, Workout.class);
+    }
+
+    // The workouts holding an exercise or set with this id. Cross-partition, but the filter runs server-side,
+    // so only matching documents are returned instead of every workout in the container
+    public List<Workout> findByExerciseId(Long exerciseId) {
+        SqlQuerySpec querySpec = new SqlQuerySpec(
+                "SELECT * FROM c WHERE EXISTS (SELECT VALUE e FROM e IN c.exercises WHERE e.id = @exerciseId)",
+                new SqlParameter("@exerciseId", exerciseId));
+        return cosmosDBService.query(CONTAINER, querySpec, null, Workout.class);
+    }
+
+    public List<Workout> findBySetId(Long setId) {
+        SqlQuerySpec querySpec = new SqlQuerySpec(
+                "SELECT * FROM c WHERE EXISTS (SELECT VALUE s FROM e IN c.exercises JOIN s IN e.sets WHERE s.id = @setId)",
+                new SqlParameter("@setId", setId));
+        return cosmosDBService.query(CONTAINER, querySpec, null, Workout.class);
+    }
+
+    public List<Workout> findAll() {
+        return cosmosDBService.findAll(CONTAINER, Workout.class);
+    }
+
+    public Stream<Workout> streamAll() {
+        return cosmosDBService.stream(CONTAINER, new SqlQuerySpec("SELECT * FROM c"), Workout.class);
+    }
+
+    public Page<Workout> findPage(int pageSize, String continuationToken) {
+        return cosmosDBService.findPage(CONTAINER, new SqlQuerySpec("SELECT * FROM c"),
+                pageSize, continuationToken, Workout.class);
+    }
+
+    public Workout save(Workout workout) {
+        Workout saved = cosmosDBService.save(CONTAINER, workout, workout.getUserId(), Workout.class);
+        lookupIndexService.indexWorkout(workout);
+        redisCache.evict(cacheKeysOf(workout));
+        return saved;
+    }
+
+    public CompletableFuture<Workout> saveAsync(Workout workout) {
+        return cosmosDBService.saveAsync(CONTAINER, workout, workout.getUserId()).thenApplyAsync(saved -> {
+            lookupIndexService.indexWorkout(workout);
+            redisCache.evict(cacheKeysOf(workout));
+            return saved;
+        });
+    }
+
+    public Workout update(Workout workout) {
+        Workout updated = cosmosDBService.update(CONTAINER, workout, workout.getUserId(), Workout.class);
+        redisCache.evict(cacheKeysOf(workout));
+        return updated;
+    }
+
+    // Creates many workouts with bulk execution and indexes the ones that were written; returns the ids that failed
+    public List<String> saveAll(List<Workout> workouts) {
+        List<CosmosItemOperation> operations = new ArrayList<>();
+        for (Workout workout : workouts) {
+            operations.add(CosmosBulkOperations.getCreateItemOperation(workout, new PartitionKey(workout.getUserId())));
+        }
+        List<String> failed = cosmosDBService.executeBulk(CONTAINER, operations);
+
+        Collection<String> failedIds = new HashSet<>(failed);
+        List<Workout> saved = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (Workout workout : workouts) {
+            if (!failedIds.contains(workout.getId())) {
+                saved.add(workout);
+                keys.addAll(cacheKeysOf(workout));
+            }
+        }
+        if (!saved.isEmpty()) {
+            lookupIndexService.indexWorkouts(saved);
+            redisCache.evict(keys);
+        }
+        return failed;
+    }
+
+    // A user's workouts share the userId partition, so they are replaced together in one transactional batch
+    // (per MAX_BATCH_OPERATIONS workouts) instead of one round-trip each
+    public void updateAll(String userId, List<Workout> workouts) {
+        for (int from = 0; from < workouts.size(); from += CosmosDBService.MAX_BATCH_OPERATIONS) {
+            List<Workout> chunk = workouts.subList(from, Math.min(from + CosmosDBService.MAX_BATCH_OPERATIONS, workouts.size()));
+            CosmosBatch batch = CosmosBatch.createCosmosBatch(new PartitionKey(userId));
+            for (Workout workout : chunk) {
+                if (!userId.equals(workout.getUserId())) {
+                    throw new IllegalArgumentException("Workout " + workout.getId() + " does not belong to user " + userId);
+                }
+                batch.replaceItemOperation(workout.getId(), workout);
+            }
+            cosmosDBService.executeBatch(CONTAINER, batch);
+        }
+        workouts.forEach(workout -> redisCache.evict(cacheKeysOf(workout)));
+    }
+
+    // Re-reads and re-applies the mutation if another request changed the workout in between, so no update is lost
+    public Optional<Workout> updateWithRetry(Workout workout, Consumer<Workout> mutation) {
+        Optional<Workout> updated = cosmosDBService.updateWithRetry(CONTAINER, workout.getId(), workout.getUserId(),
+                Workout.class, mutation);
+        updated.ifPresent(written -> redisCache.evict(cacheKeysOf(written)));
+        return updated;
+    }
+
+    // Partial update of a workout that was just read; empty if it is gone or the filter predicate no longer matches
+    public Optional<Workout> patch(Workout workout, CosmosPatchOperations operations, String filterPredicate) {
+        Optional<Workout> patched = cosmosDBService.patch(CONTAINER, workout.getId(), workout.getUserId(),
+                operations, filterPredicate, Workout.class);
+        if (patched.isPresent()) {
+            redisCache.evict(cacheKeysOf(workout));
+        }
+        return patched;
+    }
+
+    // Filter predicate that only lets a patch through while the exercise is still at this position in the array
+    public static String exerciseAt(Workout workout, Exercise exercise) {
+        return "FROM c WHERE c.exercises[" + workout.getExercises().indexOf(exercise) + "].id = " + exercise.getId();
+    }
+
+    public static String setAt(Workout workout, Exercise exercise, Set set) {
+        return exerciseAt(workout, exercise) + " AND c.exercises[" + workout.getExercises().indexOf(exercise)
+                + "].sets[" + exercise.getSets().indexOf(set) + "].id = " + set.getId();
+    }
+
+    public static String exercisePath(Workout workout, Exercise exercise) {
+        return "/exercises/" + workout.getExercises().indexOf(exercise);
+    }
+
+    public static String setPath(Workout workout, Exercise exercise, Set set) {
+        return exercisePath(workout, exercise) + "/sets/" + exercise.getSets().indexOf(set);
+    }
+
+    // Queues the mutation with the write-behind buffer; false if write-behind is off and the caller must update now
+    public boolean deferUpdate(Workout workout, Consumer<Workout> mutation) {
+        if (!writeBehindBuffer.isEnabled()) {
+            return false;
+        }
+        writeBehindBuffer.enqueue(CONTAINER, workout.getId(), workout.getUserId(), Workout.class, mutation,
+                written -> redisCache.evict(cacheKeysOf(written)));
+        return true;
+    }
+
+    public void delete(Workout workout) {
+        cosmosDBService.deleteById(CONTAINER, workout.getId(), workout.getUserId());
+        lookupIndexService.removeWorkout(workout);
+        removeHistory(workout);
+        redisCache.evict(cacheKeysOf(workout));
+    }
+
+    public CompletableFuture<Void> deleteAsync(Workout workout) {
+        return cosmosDBService.deleteByIdAsync(CONTAINER, workout.getId(), workout.getUserId())
+                .thenRunAsync(() -> {
+                    lookupIndexService.removeWorkout(workout);
+                    removeHistory(workout);
+                    redisCache.evict(cacheKeysOf(workout));
+                });
+    }
+
+    // The progress history, stats and rollups of the workout's exercises go with it; leftovers are only logged, the workout is gone
+    private void removeHistory(Workout workout) {
+        if (workout.getExercises() == null || workout.getExercises().isEmpty()) {
+            return;
+        }
+        List<String> exerciseIds = workout.getExercises().stream().map(e -> String.valueOf(e.getId())).toList();
+        exerciseIds.forEach(exerciseStatsService::delete);
+        exerciseIds.forEach(id -> rollupService.deleteSeries(workout.getUserId(), RollupService.progressSeries(id)));
+        try {
+            progressRepository.deleteByExerciseIds(workout.getUserId(), exerciseIds);
+        } catch (Exception e) {
+            logger.warning("Failed to remove progress history of workout " + workout.getId() + ": " + e.getMessage());
+        }
+    }
+
+    // Every cached entry that is derived from this workout document, including its embedded exercises and sets
+    public static List<String> cacheKeysOf(Workout workout) {
+        List<String> keys = new ArrayList<>();
+        keys.add(CacheEntity.WORKOUT.key(workout.getId()));
+        keys.add("exercises:workout:" + workout.getId());
+        keys.add("workouts:user:" + workout.getUserId());
+
+        if (workout.getExercises() != null) {
+            for (Exercise exercise : workout.getExercises()) {
+                keys.addAll(cacheKeysOf(exercise));
+            }
+        }
+        return keys;
+    }
+
+    public static List<String> cacheKeysOf(Exercise exercise) {
+        List<String> keys = new ArrayList<>();
+        keys.add(CacheEntity.EXERCISE.key(String.valueOf(exercise.getId())));
+        keys.add(CacheEntity.PROGRESS.key(String.valueOf(exercise.getId())));
+
+        if (exercise.getSets() != null) {
+            for (Set set : exercise.getSets()) {
+                keys.add(CacheEntity.SET.key(String.valueOf(set.getId())));
+            }
+        }
+        return keys;
+    }
+}
@@ -3,7 +3,6 @@ package cloudnative.fitapp.service;
 import cloudnative.fitapp.security.JwtUtil;
 import cloudnative.fitapp.domain.User;
 import cloudnative.fitapp.security.SimplePasswordEncoder;
-import java.util.List;
 
 
 public class AuthService {
@@ -26,9 +25,8 @@ public class AuthService {
             throw new RuntimeException("Email and password are required");
         }
 
-        String query = String.format("SELECT * FROM c WHERE c.email = '%s'", email);
-        List<User> users = cosmosDBService.query("users", query, User.class);
-        User user = users.isEmpty() ? null : users.get(0);
+        // Single-partition lookup: email is the users partition key
+        User user = userService.getUserByEmail(email);
 
         if (user == null) {
             throw new RuntimeException("User with email " + email + " not found");
@@ -52,9 +50,7 @@ public class AuthService {
             throw new RuntimeException("Name can only contain letters and spaces");
         }
 
-        String query = String.format("SELECT * FROM c WHERE c.email = '%s'", email);
-        List<User> existingUsers = cosmosDBService.query("users", query, User.class);
-        if (!existingUsers.isEmpty()) {
+        if (userService.getUserByEmail(email) != null) {
             throw new RuntimeException("Email is already in use");
         }
 
@@ -1,66 +1,132 @@
 package cloudnative.fitapp.service;
 
 import cloudnative.fitapp.domain.Bodyweight;
+import cloudnative.fitapp.domain.RollupBucket;
 import cloudnative.fitapp.domain.User;
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.dto.RangeFilter;
+import cloudnative.fitapp.enums.RollupGranularity;
+import cloudnative.fitapp.repository.UserRepository;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import com.azure.cosmos.models.SqlParameter;
+import com.azure.cosmos.models.SqlQuerySpec;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 
 public class BodyweightService {
 
+    // dd-MM-yyyy rearranged to yyyyMMdd, which compares in date order
+    private static final String SORTABLE_DATE =
+            "CONCAT(SUBSTRING(b.date, 6, 4), SUBSTRING(b.date, 3, 2), SUBSTRING(b.date, 0, 2))";
+
     private final CosmosDBService cosmosDBService;
+    private final UserRepository userRepository;
+    private final RollupService rollupService;
 
-    public BodyweightService(CosmosDBService cosmosDBService) {
+    public BodyweightService(CosmosDBService cosmosDBService, UserRepository userRepository,
+                             RollupService rollupService) {
         this.cosmosDBService = cosmosDBService;
+        this.userRepository = userRepository;
+        this.rollupService = rollupService;
     }
 
-    public List<Bodyweight> getAllBodyweight() {
-        List<Bodyweight> allBodyweights = new ArrayList<>();
-        List<User> users = cosmosDBService.findAll("users", User.class);
-        
-        for (User user : users) {
-            if (user.getBodyweightList() != null) {
-                for (Bodyweight bw : user.getBodyweightList()) {
-                    bw.setUser(user);
-                    allBodyweights.add(bw);
-                }
-            }
-        }
-        return allBodyweights;
+    public Stream<Bodyweight> streamAllBodyweight() {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT VALUE b FROM c JOIN b IN c.bodyweightList");
+        return cosmosDBService.stream("users", querySpec, Bodyweight.class);
+    }
+
+    public Page<Bodyweight> getAllBodyweight(int pageSize, String continuationToken) {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT VALUE b FROM c JOIN b IN c.bodyweightList");
+        return cosmosDBService.findPage("users", querySpec, pageSize, continuationToken, Bodyweight.class);
     }
 
     public List<Bodyweight> getBodyweightByUserId(Long id) {
-        String query = String.format("SELECT * FROM c WHERE c.id = '%s'", id);
-        List<User> users = cosmosDBService.query("users", query, User.class);
-        
-        if (!users.isEmpty() && users.get(0).getBodyweightList() != null) {
-            List<Bodyweight> bodyweights = users.get(0).getBodyweightList();
+        Optional<User> user = userRepository.findById(String.valueOf(id));
+
+        if (user.isPresent() && user.get().getBodyweightList() != null) {
+            List<Bodyweight> bodyweights = user.get().getBodyweightList();
             for (Bodyweight bw : bodyweights) {
-                bw.setUser(users.get(0));
+                bw.setUser(user.get());
             }
             return bodyweights;
         }
         return new ArrayList<>();
     }
 
-    public Bodyweight addBodyweight(Long userId, Bodyweight bodyweight) {
-        String query = String.format("SELECT * FROM c WHERE c.id = '%s'", userId);
-        List<User> users = cosmosDBService.query("users", query, User.class);
-        
-        if (users.isEmpty()) {
-            throw new RuntimeException("User not found");
+    // The entries live in the user document, so the range is filtered by the query and only the matching entries
+    // are returned. Their dd-MM-yyyy dates do not sort as strings and are compared as yyyyMMdd; ordering and the
+    // limit are applied in memory, since a query can only order by a stored property
+    public List<Bodyweight> getBodyweightByUserId(Long id, RangeFilter filter) {
+        String userId = String.valueOf(id);
+        List<SqlParameter> parameters = new ArrayList<>();
+        parameters.add(new SqlParameter("@userId", userId));
+
+        StringBuilder sql = new StringBuilder("SELECT VALUE b FROM c JOIN b IN c.bodyweightList WHERE c.id = @userId");
+        if (filter.getFrom() != null) {
+            sql.append(" AND ").append(SORTABLE_DATE).append(" >= @from");
+            parameters.add(new SqlParameter("@from", filter.getFrom().format(DateTimeFormatter.BASIC_ISO_DATE)));
+        }
+        if (filter.getTo() != null) {
+            sql.append(" AND ").append(SORTABLE_DATE).append(" <= @to");
+            parameters.add(new SqlParameter("@to", filter.getTo().format(DateTimeFormatter.BASIC_ISO_DATE)));
         }
-        
-        User user = users.get(0);
+
+        // Single-partition when this worker knows the user's email, otherwise fanned out on the id
+        List<Bodyweight> bodyweights = new ArrayList<>(cosmosDBService.query("users", new SqlQuerySpec(sql.toString(), parameters),
+                userRepository.partitionKeyOf(userId).orElse(null), Bodyweight.class));
+        bodyweights.sort(Comparator.comparing(Bodyweight::getDate, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return filter.apply(bodyweights, Bodyweight::getDate);
+    }
+
+    public List<RollupBucket> getBodyweightRollups(Long userId, RollupGranularity granularity, LocalDate from, LocalDate to) {
+        return rollupService.getRollups(String.valueOf(userId), RollupService.bodyweightSeries(), granularity, from, to);
+    }
+
+    public Map<String, Object> getBodyweightSeries(Long userId, LocalDate from, LocalDate to, int points) {
+        return rollupService.getSeries(String.valueOf(userId), RollupService.bodyweightSeries(), from, to, points);
+    }
+
+    public Bodyweight addBodyweight(Long userId, Bodyweight bodyweight) {
+        User user = userRepository.findById(String.valueOf(userId))
+                .orElseThrow(() -> new RuntimeException("User not found"));
+
         bodyweight.setUser(user);
         bodyweight.setId(String.valueOf(System.currentTimeMillis() + (int)(Math.random() * 1000)));
-        
-        if (user.getBodyweightList() == null) {
-            user.setBodyweightList(new ArrayList<>());
+
+        boolean hadEntries = user.getBodyweightList() != null && !user.getBodyweightList().isEmpty();
+        Consumer<User> append = u -> {
+            if (u.getBodyweightList() == null) {
+                u.setBodyweightList(new ArrayList<>());
+            }
+            u.getBodyweightList().add(bodyweight);
+        };
+        append.accept(user);
+
+        if (userRepository.deferUpdate(user, append)) {
+            rollupService.recordBodyweight(user.getId(), List.of(bodyweight));
+            return bodyweight;
+        }
+
+        // Append only the new entry; the list is also serialized under its "bodyweight" alias, so both are kept in step.
+        // An empty or missing list is written whole, since an append needs an existing array
+        CosmosPatchOperations operations = CosmosPatchOperations.create();
+        if (hadEntries) {
+            operations.add("/bodyweightList/-", bodyweight).add("/bodyweight/-", bodyweight);
+        } else {
+            operations.set("/bodyweightList", user.getBodyweightList()).set("/bodyweight", user.getBodyweightList());
+        }
+        if (userRepository.patch(user.getId(), operations).isEmpty()) {
+            throw new RuntimeException("User not found");
         }
-        user.getBodyweightList().add(bodyweight);
-        
-        cosmosDBService.update("users", user, user.getEmail(), User.class);
+        rollupService.recordBodyweight(user.getId(), List.of(bodyweight));
         return bodyweight;
     }
 }
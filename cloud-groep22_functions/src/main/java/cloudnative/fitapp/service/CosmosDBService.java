@@ -3,20 +3,42 @@ package cloudnative.fitapp.service;
 import com.azure.cosmos.*;
 import com.azure.cosmos.models.*;
 import com.azure.cosmos.util.CosmosPagedIterable;
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.dto.Versioned;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 public class CosmosDBService {
 
     private static final Logger logger = Logger.getLogger(CosmosDBService.class.getName());
     private static CosmosDBService instance;
+    private static final int MAX_CONFLICT_RETRIES = 10;
+    private static final long CONFLICT_BACKOFF_MILLIS = 10;
+    // Service limit on the number of operations in one transactional batch
+    public static final int MAX_BATCH_OPERATIONS = 100;
+    // Bulk operations handed to the SDK at a time, which bounds how much is in flight against the container
+    private static final int BULK_CHUNK_SIZE = 500;
+    private static final int MAX_THROTTLE_RETRIES = 8;
     private final CosmosClient cosmosClient;
     private final CosmosDatabase database;
+    private final CosmosAsyncClient cosmosAsyncClient;
+    private final CosmosAsyncDatabase asyncDatabase;
     private final ObjectMapper objectMapper;
 
     private CosmosDBService() {
@@ -34,20 +56,33 @@ public class CosmosDBService {
             throw new RuntimeException(errorMsg);
         }
 
-        this.cosmosClient = new CosmosClientBuilder()
+        CosmosClientBuilder clientBuilder = new CosmosClientBuilder()
                 .endpoint(endpoint)
                 .key(key)
-                .consistencyLevel(ConsistencyLevel.SESSION)
-                .buildClient();
+                .consistencyLevel(ConsistencyLevel.SESSION);
 
+        this.cosmosClient = clientBuilder.buildClient();
         this.database = cosmosClient.getDatabase(databaseName);
 
+        // Non-blocking client for handlers that issue independent round-trips concurrently
+        this.cosmosAsyncClient = clientBuilder.buildAsyncClient();
+        this.asyncDatabase = cosmosAsyncClient.getDatabase(databaseName);
+
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule());
 
         logger.info("Cosmos DB Service initialized successfully");
     }
 
+    // Not connected to any account: for test doubles that override the data access methods they use
+    protected CosmosDBService(ObjectMapper objectMapper) {
+        this.cosmosClient = null;
+        this.database = null;
+        this.cosmosAsyncClient = null;
+        this.asyncDatabase = null;
+        this.objectMapper = objectMapper;
+    }
+
     public static synchronized CosmosDBService getInstance() {
         if (instance == null) {
             instance = new CosmosDBService();
@@ -65,7 +100,7 @@ public class CosmosDBService {
             logger.info("Item to save: " + objectMapper.writeValueAsString(item));
 
             CosmosItemResponse<T> response = container.createItem(item, new PartitionKey(partitionKey), new CosmosItemRequestOptions());
-            logger.info("Save response status: " + response.getStatusCode());
+            logger.info("Save response status: " + response.getStatusCode() + ", RU: " + response.getRequestCharge());
 
             T savedItem = response.getItem();
             logger.info("Response.getItem() returned: " + (savedItem != null ? "success" : "null"));
@@ -114,7 +149,7 @@ public class CosmosDBService {
             logger.info("Updating item with ID: " + itemId);
 
             CosmosItemResponse<T> response = container.replaceItem(item, itemId, new PartitionKey(partitionKey), new CosmosItemRequestOptions());
-            logger.info("Update response status: " + response.getStatusCode());
+            logger.info("Update response status: " + response.getStatusCode() + ", RU: " + response.getRequestCharge());
 
             T updatedItem = response.getItem();
 
@@ -131,6 +166,160 @@ public class CosmosDBService {
         }
     }
 
+    // Partial update: only the operations are sent, not the whole document. Empty if the document does not exist
+    // or the filter predicate (e.g. "FROM c WHERE c.exercises[2].id = 42") no longer matches it
+    public <T> Optional<T> patch(String containerName, String id, String partitionKey, CosmosPatchOperations operations,
+                                 String filterPredicate, Class<T> clazz) {
+        try {
+            CosmosContainer container = database.getContainer(containerName);
+            CosmosPatchItemRequestOptions options = new CosmosPatchItemRequestOptions();
+            if (filterPredicate != null) {
+                options.setFilterPredicate(filterPredicate);
+            }
+            CosmosItemResponse<T> response = container.patchItem(id, new PartitionKey(partitionKey), operations, options, clazz);
+            logger.info("Patch response status: " + response.getStatusCode() + ", RU: " + response.getRequestCharge());
+            return Optional.ofNullable(response.getItem());
+        } catch (CosmosException e) {
+            if (e.getStatusCode() == 404 || e.getStatusCode() == 412) {
+                logger.info("Patch not applied to " + id + " in container " + containerName + ": " + e.getStatusCode());
+                return Optional.empty();
+            }
+            logger.severe("CosmosException during patch: " + e.getMessage());
+            throw new RuntimeException("Error patching item in Cosmos DB: " + e.getMessage(), e);
+        }
+    }
+
+    // Read-modify-write with optimistic concurrency: the replace only succeeds if nobody else wrote the document
+    // since it was read; otherwise it is re-read and the mutation is applied again. Empty if the document does not exist
+    public <T> Optional<T> updateWithRetry(String containerName, String id, String partitionKey, Class<T> clazz,
+                                           Consumer<T> mutation) {
+        for (int attempt = 1; attempt <= MAX_CONFLICT_RETRIES; attempt++) {
+            Optional<Versioned<T>> current = findVersionedById(containerName, id, partitionKey, clazz);
+            if (current.isEmpty()) {
+                return Optional.empty();
+            }
+
+            T item = current.get().getItem();
+            mutation.accept(item);
+            if (replaceIfMatch(containerName, item, partitionKey, current.get().getETag())) {
+                return Optional.of(item);
+            }
+            logger.info("Concurrent update of " + id + " in container " + containerName + ", retry " + attempt);
+            backOff(attempt);
+        }
+        throw new RuntimeException("Error updating item in Cosmos DB: " + id + " kept changing, gave up after "
+                + MAX_CONFLICT_RETRIES + " attempts");
+    }
+
+    // updateWithRetry for a document that may not exist yet: it is created from initial with the mutation applied,
+    // and if another writer creates it first, the mutation is applied to theirs instead
+    public <T> T updateOrCreate(String containerName, String id, String partitionKey, Class<T> clazz,
+                                Supplier<T> initial, Consumer<T> mutation) {
+        for (int attempt = 1; attempt <= MAX_CONFLICT_RETRIES; attempt++) {
+            Optional<T> updated = updateWithRetry(containerName, id, partitionKey, clazz, mutation);
+            if (updated.isPresent()) {
+                return updated.get();
+            }
+
+            T item = initial.get();
+            mutation.accept(item);
+            try {
+                CosmosContainer container = database.getContainer(containerName);
+                container.createItem(item, new PartitionKey(partitionKey), new CosmosItemRequestOptions());
+                return item;
+            } catch (CosmosException e) {
+                if (e.getStatusCode() != 409) {
+                    logger.severe("CosmosException during create: " + e.getMessage());
+                    throw new RuntimeException("Error saving item to Cosmos DB: " + e.getMessage(), e);
+                }
+                logger.info("Concurrent create of " + id + " in container " + containerName + ", retry " + attempt);
+            }
+        }
+        throw new RuntimeException("Error saving item to Cosmos DB: " + id + " kept changing, gave up after "
+                + MAX_CONFLICT_RETRIES + " attempts");
+    }
+
+    public <T> CompletableFuture<Optional<T>> updateWithRetryAsync(String containerName, String id, String partitionKey,
+                                                                   Class<T> clazz, Consumer<T> mutation) {
+        CosmosAsyncContainer container = asyncDatabase.getContainer(containerName);
+        PartitionKey key = new PartitionKey(partitionKey);
+        return Mono.defer(() -> container.readItem(id, key, clazz).flatMap(read -> {
+                    T item = read.getItem();
+                    mutation.accept(item);
+                    CosmosItemRequestOptions options = new CosmosItemRequestOptions().setIfMatchETag(read.getETag());
+                    return container.replaceItem(item, id, key, options)
+                            .map(response -> Optional.of(response.getItem() != null ? response.getItem() : item));
+                }))
+                .retryWhen(Retry.backoff(MAX_CONFLICT_RETRIES, Duration.ofMillis(CONFLICT_BACKOFF_MILLIS))
+                        .filter(e -> e instanceof CosmosException ce && ce.getStatusCode() == 412))
+                .onErrorResume(CosmosException.class, e -> e.getStatusCode() == 404
+                        ? Mono.just(Optional.<T>empty())
+                        : Mono.<Optional<T>>error(new RuntimeException("Error updating item in Cosmos DB: " + e.getMessage(), e)))
+                .onErrorMap(Exceptions::isRetryExhausted, e -> new RuntimeException("Error updating item in Cosmos DB: "
+                        + id + " kept changing, gave up after " + MAX_CONFLICT_RETRIES + " attempts", e))
+                .toFuture();
+    }
+
+    // Jittered exponential backoff so conflicting writers do not retry in lockstep
+    private static void backOff(int attempt) {
+        long max = CONFLICT_BACKOFF_MILLIS << Math.min(attempt, 6);
+        sleep(ThreadLocalRandom.current().nextLong(max / 2, max + 1));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while retrying", e);
+        }
+    }
+
+    // Point read that also returns the document's ETag, for an optimistic write back with replaceIfMatch
+    public <T> Optional<Versioned<T>> findVersionedById(String containerName, String id, String partitionKey, Class<T> clazz) {
+        try {
+            CosmosContainer container = database.getContainer(containerName);
+            CosmosItemResponse<T> response = container.readItem(id, new PartitionKey(partitionKey), clazz);
+            if (response.getItem() == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new Versioned<>(response.getItem(), response.getETag()));
+        } catch (CosmosException e) {
+            if (e.getStatusCode() == 404) {
+                return Optional.empty();
+            }
+            logger.severe("Error reading item from Cosmos DB: " + e.getMessage());
+            throw new RuntimeException("Error reading item from Cosmos DB", e);
+        }
+    }
+
+    // Replaces the item only if it is unchanged since it was read; false means another writer got there first
+    public <T> boolean replaceIfMatch(String containerName, T item, String partitionKey, String eTag) {
+        try {
+            CosmosContainer container = database.getContainer(containerName);
+            CosmosItemRequestOptions options = new CosmosItemRequestOptions().setIfMatchETag(eTag);
+            container.replaceItem(item, getItemId(item), new PartitionKey(partitionKey), options);
+            return true;
+        } catch (CosmosException e) {
+            if (e.getStatusCode() == 412) {
+                logger.info("ETag mismatch on replace in container: " + containerName);
+                return false;
+            }
+            logger.severe("CosmosException during conditional replace: " + e.getMessage());
+            throw new RuntimeException("Error updating item in Cosmos DB: " + e.getMessage(), e);
+        }
+    }
+
+    public <T> void upsert(String containerName, T item, String partitionKey) {
+        try {
+            CosmosContainer container = database.getContainer(containerName);
+            container.upsertItem(item, new PartitionKey(partitionKey), new CosmosItemRequestOptions());
+        } catch (CosmosException e) {
+            logger.severe("CosmosException during upsert: " + e.getMessage());
+            throw new RuntimeException("Error upserting item in Cosmos DB: " + e.getMessage(), e);
+        }
+    }
+
     public <T> Optional<T> findById(String containerName, String id, String partitionKey, Class<T> clazz) {
         try {
             logger.info("Finding item by ID: " + id + " in container: " + containerName);
@@ -181,6 +370,56 @@ public class CosmosDBService {
         }
     }
 
+    // Lazily streams query results; pages are fetched from Cosmos only as the stream is consumed
+    public <T> Stream<T> stream(String containerName, SqlQuerySpec querySpec, Class<T> clazz) {
+        logger.info("Streaming query on container " + containerName + ": " + querySpec.getQueryText());
+        CosmosContainer container = database.getContainer(containerName);
+        return container.queryItems(querySpec, new CosmosQueryRequestOptions(), clazz).stream();
+    }
+
+    // Reads a single page of a query; pass the returned continuation token back in to get the next page
+    public <T> Page<T> findPage(String containerName, SqlQuerySpec querySpec, int pageSize, String continuationToken, Class<T> clazz) {
+        try {
+            logger.info("Reading page of " + pageSize + " from container " + containerName + ": " + querySpec.getQueryText());
+            CosmosContainer container = database.getContainer(containerName);
+            CosmosPagedIterable<T> items = container.queryItems(querySpec, new CosmosQueryRequestOptions(), clazz);
+
+            Iterator<FeedResponse<T>> pages = items.iterableByPage(continuationToken, pageSize).iterator();
+            if (!pages.hasNext()) {
+                return new Page<>(new ArrayList<>(), null);
+            }
+
+            FeedResponse<T> page = pages.next();
+            logger.info("Page returned " + page.getResults().size() + " items");
+            return new Page<>(page.getResults(), page.getContinuationToken());
+        } catch (CosmosException e) {
+            logger.severe("Error reading page from Cosmos DB: " + e.getMessage());
+            throw new RuntimeException("Error reading page from Cosmos DB", e);
+        }
+    }
+
+    // Parameterized query; a non-null partition key scopes it to a single partition instead of fanning out
+    public <T> List<T> query(String containerName, SqlQuerySpec querySpec, String partitionKey, Class<T> clazz) {
+        try {
+            logger.info("Executing query on container " + containerName + ": " + querySpec.getQueryText()
+                    + (partitionKey != null ? " (partition " + partitionKey + ")" : ""));
+            CosmosContainer container = database.getContainer(containerName);
+
+            CosmosQueryRequestOptions options = new CosmosQueryRequestOptions();
+            if (partitionKey != null) {
+                options.setPartitionKey(new PartitionKey(partitionKey));
+            }
+            CosmosPagedIterable<T> items = container.queryItems(querySpec, options, clazz);
+
+            List<T> result = items.stream().collect(Collectors.toList());
+            logger.info("Query returned " + result.size() + " items");
+            return result;
+        } catch (CosmosException e) {
+            logger.severe("Error querying Cosmos DB: " + e.getMessage());
+            throw new RuntimeException("Error querying Cosmos DB", e);
+        }
+    }
+
     public void deleteById(String containerName, String id, String partitionKey) {
         try {
             CosmosContainer container = database.getContainer(containerName);
@@ -204,6 +443,124 @@ public class CosmosDBService {
         }
     }
 
+    // Transactional batch: every operation targets the same partition of one container, and either all of them
+    // are applied or none are
+    public CosmosBatchResponse executeBatch(String containerName, CosmosBatch batch) {
+        try {
+            CosmosContainer container = database.getContainer(containerName);
+            CosmosBatchResponse response = container.executeCosmosBatch(batch);
+            logger.info("Batch of " + batch.getOperations().size() + " operations in " + containerName
+                    + ": status " + response.getStatusCode() + ", RU: " + response.getRequestCharge());
+            if (!response.isSuccessStatusCode()) {
+                throw new RuntimeException("Batch rolled back in " + containerName + ": " + response.getStatusCode()
+                        + " " + response.getErrorMessage());
+            }
+            return response;
+        } catch (CosmosException e) {
+            logger.severe("CosmosException during batch: " + e.getMessage());
+            throw new RuntimeException("Error executing batch in Cosmos DB: " + e.getMessage(), e);
+        }
+    }
+
+    // Bulk: independent operations that may span partitions, grouped per partition and dispatched by the SDK.
+    // Not transactional; returns the ids of the operations that failed. Deleting an item that is already gone counts as done.
+    // Operations are submitted in chunks; throttled (429) operations are resubmitted after the server's retry-after
+    public List<String> executeBulk(String containerName, List<CosmosItemOperation> operations) {
+        CosmosContainer container = database.getContainer(containerName);
+        List<String> failed = new ArrayList<>();
+
+        for (int from = 0; from < operations.size(); from += BULK_CHUNK_SIZE) {
+            List<CosmosItemOperation> pending = operations.subList(from, Math.min(from + BULK_CHUNK_SIZE, operations.size()));
+            for (int attempt = 1; !pending.isEmpty(); attempt++) {
+                List<CosmosItemOperation> throttled = new ArrayList<>();
+                long retryAfterMillis = 0;
+
+                for (CosmosBulkOperationResponse<Object> response : container.executeBulkOperations(pending)) {
+                    CosmosBulkItemResponse item = response.getResponse();
+                    int status = item != null ? item.getStatusCode()
+                            : response.getException() instanceof CosmosException e ? e.getStatusCode() : 0;
+                    boolean alreadyDeleted = status == 404
+                            && response.getOperation().getOperationType() == CosmosItemOperationType.DELETE;
+
+                    if (status == 429) {
+                        throttled.add(response.getOperation());
+                        if (item != null && item.getRetryAfterDuration() != null) {
+                            retryAfterMillis = Math.max(retryAfterMillis, item.getRetryAfterDuration().toMillis());
+                        }
+                    } else if (item == null || !(item.isSuccessStatusCode() || alreadyDeleted)) {
+                        failed.add(response.getOperation().getId());
+                    }
+                }
+
+                if (!throttled.isEmpty() && attempt > MAX_THROTTLE_RETRIES) {
+                    throttled.forEach(operation -> failed.add(operation.getId()));
+                    break;
+                }
+                if (!throttled.isEmpty()) {
+                    logger.info(throttled.size() + " bulk operations throttled in " + containerName + ", retry " + attempt);
+                    sleep(Math.max(retryAfterMillis, CONFLICT_BACKOFF_MILLIS << Math.min(attempt, 6)));
+                }
+                pending = throttled;
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            logger.warning(failed.size() + " of " + operations.size() + " bulk operations failed in " + containerName);
+        }
+        return failed;
+    }
+
+    // Async API: same semantics as the blocking methods above, but the calling thread is not held during the round-trip
+
+    public <T> CompletableFuture<T> saveAsync(String containerName, T item, String partitionKey) {
+        CosmosAsyncContainer container = asyncDatabase.getContainer(containerName);
+        return container.createItem(item, new PartitionKey(partitionKey), new CosmosItemRequestOptions())
+                .map(response -> response.getItem() != null ? response.getItem() : item)
+                .onErrorMap(CosmosException.class, e -> new RuntimeException("Error saving item to Cosmos DB: " + e.getMessage(), e))
+                .toFuture();
+    }
+
+    public <T> CompletableFuture<T> updateAsync(String containerName, T item, String partitionKey) {
+        CosmosAsyncContainer container = asyncDatabase.getContainer(containerName);
+        return container.replaceItem(item, getItemId(item), new PartitionKey(partitionKey), new CosmosItemRequestOptions())
+                .map(response -> response.getItem() != null ? response.getItem() : item)
+                .onErrorMap(CosmosException.class, e -> new RuntimeException("Error updating item in Cosmos DB: " + e.getMessage(), e))
+                .toFuture();
+    }
+
+    public <T> CompletableFuture<Optional<T>> findByIdAsync(String containerName, String id, String partitionKey, Class<T> clazz) {
+        CosmosAsyncContainer container = asyncDatabase.getContainer(containerName);
+        return container.readItem(id, new PartitionKey(partitionKey), clazz)
+                .map(response -> Optional.ofNullable(response.getItem()))
+                .onErrorResume(CosmosException.class, e -> e.getStatusCode() == 404
+                        ? Mono.just(Optional.<T>empty())
+                        : Mono.<Optional<T>>error(new RuntimeException("Error reading item from Cosmos DB", e)))
+                .toFuture();
+    }
+
+    public <T> CompletableFuture<List<T>> queryAsync(String containerName, SqlQuerySpec querySpec, String partitionKey, Class<T> clazz) {
+        CosmosAsyncContainer container = asyncDatabase.getContainer(containerName);
+
+        CosmosQueryRequestOptions options = new CosmosQueryRequestOptions();
+        if (partitionKey != null) {
+            options.setPartitionKey(new PartitionKey(partitionKey));
+        }
+        return container.queryItems(querySpec, options, clazz)
+                .collectList()
+                .onErrorMap(CosmosException.class, e -> new RuntimeException("Error querying Cosmos DB", e))
+                .toFuture();
+    }
+
+    public CompletableFuture<Void> deleteByIdAsync(String containerName, String id, String partitionKey) {
+        CosmosAsyncContainer container = asyncDatabase.getContainer(containerName);
+        return container.deleteItem(id, new PartitionKey(partitionKey), new CosmosItemRequestOptions())
+                .then()
+                .onErrorResume(CosmosException.class, e -> e.getStatusCode() == 404
+                        ? Mono.<Void>empty()
+                        : Mono.<Void>error(new RuntimeException("Error deleting item from Cosmos DB", e)))
+                .toFuture();
+    }
+
     private String getItemId(Object item) {
         try {
             var field = item.getClass().getDeclaredField("id");
@@ -218,6 +575,9 @@ public class CosmosDBService {
         if (cosmosClient != null) {
             cosmosClient.close();
         }
+        if (cosmosAsyncClient != null) {
+            cosmosAsyncClient.close();
+        }
     }
 
     public void ensureContainersExist() {
@@ -234,9 +594,77 @@ public class CosmosDBService {
             database.createContainerIfNotExists(workoutsContainer, ThroughputProperties.createManualThroughput(400));
             logger.info("Workouts container ready");
 
+            // Create lookups container (workout/exercise/set ID -> owning workout) if it doesn't exist
+            CosmosContainerProperties lookupsContainer = new CosmosContainerProperties("lookups", "/id");
+            database.createContainerIfNotExists(lookupsContainer, ThroughputProperties.createManualThroughput(400));
+            logger.info("Lookups container ready");
+
+            // Create history container (progress entries, one document each) if it doesn't exist.
+            // Per-exercise date range queries are served in either order by the (exerciseId, date) composite indexes
+            CosmosContainerProperties historyContainer = new CosmosContainerProperties("history", "/userId");
+            CosmosContainerResponse history = database.createContainerIfNotExists(historyContainer,
+                    ThroughputProperties.createManualThroughput(400));
+            ensureCompositeIndexes(history.getProperties(), List.of(
+                    List.of(compositePath("/exerciseId", CompositePathSortOrder.ASCENDING),
+                            compositePath("/date", CompositePathSortOrder.ASCENDING)),
+                    List.of(compositePath("/exerciseId", CompositePathSortOrder.DESCENDING),
+                            compositePath("/date", CompositePathSortOrder.DESCENDING))));
+            logger.info("History container ready");
+
+            // Create rollups container (day/week/month buckets of the chart series) if it doesn't exist
+            CosmosContainerProperties rollupsContainer = new CosmosContainerProperties("rollups", "/userId");
+            database.createContainerIfNotExists(rollupsContainer, ThroughputProperties.createManualThroughput(400));
+            logger.info("Rollups container ready");
+
+            // Create readmodels container (one precomputed dashboard per user) if it doesn't exist
+            CosmosContainerProperties readModelsContainer = new CosmosContainerProperties("readmodels", "/id");
+            database.createContainerIfNotExists(readModelsContainer, ThroughputProperties.createManualThroughput(400));
+            logger.info("Readmodels container ready");
+
+            // Create leases container (change feed checkpoints of the read model projection) if it doesn't exist
+            CosmosContainerProperties leasesContainer = new CosmosContainerProperties("leases", "/id");
+            database.createContainerIfNotExists(leasesContainer, ThroughputProperties.createManualThroughput(400));
+            logger.info("Leases container ready");
+
         } catch (Exception e) {
             logger.severe("Error ensuring containers exist: " + e.getMessage());
             e.printStackTrace();
         }
     }
+
+    // createContainerIfNotExists leaves the indexing policy of an existing container alone, so missing composite
+    // indexes are added here. The service builds them online; queries keep working meanwhile
+    private void ensureCompositeIndexes(CosmosContainerProperties properties, List<List<CompositePath>> compositeIndexes) {
+        IndexingPolicy policy = properties.getIndexingPolicy();
+        List<String> existing = describe(policy.getCompositeIndexes());
+        List<List<CompositePath>> merged = new ArrayList<>(policy.getCompositeIndexes());
+        for (List<CompositePath> compositeIndex : compositeIndexes) {
+            if (!existing.containsAll(describe(List.of(compositeIndex)))) {
+                merged.add(compositeIndex);
+            }
+        }
+        if (merged.size() == policy.getCompositeIndexes().size()) {
+            return;
+        }
+
+        policy.setCompositeIndexes(merged);
+        database.getContainer(properties.getId()).replace(properties);
+        logger.info("Added composite indexes to container " + properties.getId());
+    }
+
+    private static CompositePath compositePath(String path, CompositePathSortOrder order) {
+        CompositePath compositePath = new CompositePath();
+        compositePath.setPath(path);
+        compositePath.setOrder(order);
+        return compositePath;
+    }
+
+    private static List<String> describe(List<List<CompositePath>> compositeIndexes) {
+        List<String> descriptions = new ArrayList<>();
+        for (List<CompositePath> compositeIndex : compositeIndexes) {
+            descriptions.add(compositeIndex.stream().map(path -> path.getPath() + " " + path.getOrder())
+                    .collect(Collectors.joining(", ")));
+        }
+        return descriptions;
+    }
 }
\ No newline at end of file
@@ -1,87 +1,128 @@
 package cloudnative.fitapp.service;
 
+import cloudnative.fitapp.cache.CacheEntity;
+import cloudnative.fitapp.cache.RedisCache;
 import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.LookupEntry;
 import cloudnative.fitapp.domain.Progress;
+import cloudnative.fitapp.domain.ProgressEntry;
 import cloudnative.fitapp.domain.Set;
 import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.dto.Page;
 import cloudnative.fitapp.enums.WorkoutType;
+import cloudnative.fitapp.repository.ProgressRepository;
+import cloudnative.fitapp.repository.WorkoutRepository;
+import com.azure.cosmos.models.SqlQuerySpec;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 
 public class ExerciseService {
 
+    private static final Logger logger = Logger.getLogger(ExerciseService.class.getName());
     private final CosmosDBService cosmosDBService;
     private final WorkoutService workoutService;
+    private final LookupIndexService lookupIndexService;
+    private final WorkoutRepository workoutRepository;
+    private final ProgressRepository progressRepository;
+    private final ExerciseStatsService exerciseStatsService;
+    private final RollupService rollupService;
+    private final RedisCache redisCache;
 
-    public ExerciseService(CosmosDBService cosmosDBService, WorkoutService workoutService) {
+    public ExerciseService(CosmosDBService cosmosDBService, WorkoutService workoutService,
+                           LookupIndexService lookupIndexService, WorkoutRepository workoutRepository,
+                           ProgressRepository progressRepository, ExerciseStatsService exerciseStatsService,
+                           RollupService rollupService, RedisCache redisCache) {
         this.cosmosDBService = cosmosDBService;
         this.workoutService = workoutService;
+        this.lookupIndexService = lookupIndexService;
+        this.workoutRepository = workoutRepository;
+        this.progressRepository = progressRepository;
+        this.exerciseStatsService = exerciseStatsService;
+        this.rollupService = rollupService;
+        this.redisCache = redisCache;
     }
 
-    public List<Exercise> getAllExercises() {
-        List<Workout> workouts = cosmosDBService.findAll("workouts", Workout.class);
-        List<Exercise> allExercises = new ArrayList<>();
-        
-        for (Workout workout : workouts) {
-            if (workout.getExercises() != null) {
-                for (Exercise exercise : workout.getExercises()) {
-                    exercise.setWorkout(workout);
-                    allExercises.add(exercise);
-                }
-            }
-        }
-        return allExercises;
+    public Stream<Exercise> streamAllExercises() {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT VALUE e FROM c JOIN e IN c.exercises");
+        return cosmosDBService.stream("workouts", querySpec, Exercise.class);
+    }
+
+    // Pages over the exercises themselves (not the workout documents) by flattening them server-side
+    public Page<Exercise> getAllExercises(int pageSize, String continuationToken) {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT VALUE e FROM c JOIN e IN c.exercises");
+        return cosmosDBService.findPage("workouts", querySpec, pageSize, continuationToken, Exercise.class);
     }
 
     public Exercise getExerciseById(Long id) {
         String exerciseId = String.valueOf(id);
-        List<Workout> workouts = cosmosDBService.findAll("workouts", Workout.class);
-        
-        for (Workout workout : workouts) {
-            if (workout.getExercises() != null) {
-                for (Exercise exercise : workout.getExercises()) {
-                    if (exerciseId.equals(exercise.getId()) || 
-                        String.valueOf(exercise.getId()).equals(exerciseId)) {
-                        exercise.setWorkout(workout);
-                        return exercise;
-                    }
-                }
+
+        // Resolve the owning workout through the lookup index and do a single point read
+        Optional<LookupEntry> entry = lookupIndexService.findExercise(exerciseId);
+        if (entry.isPresent()) {
+            Exercise exercise = workoutRepository.findById(entry.get().getWorkoutId(), entry.get().getUserId())
+                    .map(workout -> findExerciseInWorkout(workout, exerciseId))
+                    .orElse(null);
+            if (exercise != null) {
+                return exercise;
+            }
+            logger.warning("Stale lookup entry for exercise: " + exerciseId);
+        }
+
+        // Not indexed yet: query for the workout that contains it and repair the index
+        for (Workout workout : workoutRepository.findByExerciseId(id)) {
+            Exercise exercise = findExerciseInWorkout(workout, exerciseId);
+            if (exercise != null) {
+                lookupIndexService.indexExercise(workout, exercise);
+                return exercise;
             }
         }
         throw new RuntimeException("Exercise not found with id: " + id);
     }
 
+    static Exercise findExerciseInWorkout(Workout workout, String exerciseId) {
+        if (workout.getExercises() != null) {
+            for (Exercise exercise : workout.getExercises()) {
+                if (String.valueOf(exercise.getId()).equals(exerciseId)) {
+                    exercise.setWorkout(workout);
+                    return exercise;
+                }
+            }
+        }
+        return null;
+    }
+
     public List<Exercise> getExercisesByWorkoutId(Long workoutId) {
-        String query = String.format("SELECT * FROM c WHERE c.id = '%s'", workoutId);
-        List<Workout> workouts = cosmosDBService.query("workouts", query, Workout.class);
-        
-        if (workouts.isEmpty()) {
-            throw new RuntimeException("Workout not found");
+        Workout workout = workoutRepository.findById(String.valueOf(workoutId))
+                .orElseThrow(() -> new RuntimeException("Workout not found"));
+
+        if (workout.getExercises() == null) {
+            return new ArrayList<>();
         }
-        
-        return workouts.get(0).getExercises();
+        workout.getExercises().forEach(exercise -> exercise.setWorkout(workout));
+        return workout.getExercises();
     }
 
     public Exercise createExercise(Exercise exercise, Long workoutId) {
-        String query = String.format("SELECT * FROM c WHERE c.id = '%s'", workoutId);
-        List<Workout> workouts = cosmosDBService.query("workouts", query, Workout.class);
-        
-        if (workouts.isEmpty()) {
-            throw new RuntimeException("Workout not found with id: " + workoutId);
-        }
-        
-        Workout workout = workouts.get(0);
-        exercise.setWorkout(workout);
+        Workout workout = workoutRepository.findById(String.valueOf(workoutId))
+                .orElseThrow(() -> new RuntimeException("Workout not found with id: " + workoutId));
+
         exercise.setId(String.valueOf(System.currentTimeMillis() + (int)(Math.random() * 1000)));
 
-        if (workout.getExercises() == null) {
-            workout.setExercises(new ArrayList<>());
-        }
-        workout.getExercises().add(exercise);
+        Workout updated = workoutRepository.updateWithRetry(workout, w -> {
+            if (w.getExercises() == null) {
+                w.setExercises(new ArrayList<>());
+            }
+            w.getExercises().add(exercise);
+        }).orElseThrow(() -> new RuntimeException("Workout not found with id: " + workoutId));
 
-        cosmosDBService.update("workouts", workout, workout.getUserId(), Workout.class);
+        exercise.setWorkout(updated);
+        lookupIndexService.indexExercise(updated, exercise);
         return exercise;
     }
 
@@ -92,23 +133,22 @@ public class ExerciseService {
     }
 
     public String deleteExerciseFromWorkout(Long workoutId, Long exerciseId) {
-        String query = String.format("SELECT * FROM c WHERE c.id = '%s'", workoutId);
-        List<Workout> workouts = cosmosDBService.query("workouts", query, Workout.class);
-        
-        if (workouts.isEmpty()) {
-            throw new RuntimeException("Workout not found with id: " + workoutId);
-        }
-        
-        Workout workout = workouts.get(0);
-        String exerciseIdStr = String.valueOf(exerciseId);
-        boolean removed = workout.getExercises().removeIf(e ->
-                exerciseIdStr.equals(e.getId()) || String.valueOf(e.getId()).equals(exerciseIdStr));
+        Workout workout = workoutRepository.findById(String.valueOf(workoutId))
+                .orElseThrow(() -> new RuntimeException("Workout not found with id: " + workoutId));
 
-        if (!removed) {
+        Exercise removed = findExerciseInWorkout(workout, String.valueOf(exerciseId));
+
+        if (removed == null) {
             throw new RuntimeException("Exercise not found in workout");
         }
+        workout.getExercises().remove(removed);
 
-        cosmosDBService.update("workouts", workout, workout.getUserId(), Workout.class);
+        workoutRepository.update(workout);
+        lookupIndexService.removeExercise(removed);
+        progressRepository.deleteByExerciseIds(workout.getUserId(), List.of(String.valueOf(removed.getId())));
+        exerciseStatsService.delete(String.valueOf(removed.getId()));
+        rollupService.deleteSeries(workout.getUserId(), RollupService.progressSeries(String.valueOf(removed.getId())));
+        redisCache.evict(WorkoutRepository.cacheKeysOf(removed));
         return "Exercise successfully deleted from workout";
     }
 
@@ -116,7 +156,8 @@ public class ExerciseService {
         Exercise exercise = getExerciseById(id);
         Workout workout = exercise.getWorkout();
 
-        if (exercise.getType() != newValuesExercise.getType()) {
+        boolean typeChanged = exercise.getType() != newValuesExercise.getType();
+        if (typeChanged) {
             exercise.clearProgress();
         }
 
@@ -139,7 +180,12 @@ public class ExerciseService {
         exercise.setAutoIncreaseCurrentWeight(newValuesExercise.getAutoIncreaseCurrentWeight());
         exercise.setAutoIncreaseCurrentDuration(newValuesExercise.getAutoIncreaseCurrentDuration());
 
+        List<String> replacedSetKeys = new ArrayList<>();
         if (newValuesExercise.getSets() != null) {
+            for (Set oldSet : exercise.getSets()) {
+                lookupIndexService.removeSet(String.valueOf(oldSet.getId()));
+                replacedSetKeys.add(CacheEntity.SET.key(String.valueOf(oldSet.getId())));
+            }
             exercise.setSets(new ArrayList<>());
 
             for (Set set : newValuesExercise.getSets()) {
@@ -150,36 +196,84 @@ public class ExerciseService {
             }
         }
 
-        cosmosDBService.update("workouts", workout, workout.getUserId(), Workout.class);
+        workoutRepository.update(workout);
+        lookupIndexService.indexExercise(workout, exercise);
+        if (typeChanged) {
+            progressRepository.deleteByExerciseIds(workout.getUserId(), List.of(String.valueOf(exercise.getId())));
+            exerciseStatsService.delete(String.valueOf(exercise.getId()));
+            rollupService.deleteSeries(workout.getUserId(), RollupService.progressSeries(String.valueOf(exercise.getId())));
+        } else if (newValuesExercise.getSets() != null) {
+            exerciseStatsService.recordSets(workout, exercise);
+        }
+        redisCache.evict(replacedSetKeys);
         return exercise;
     }
 
     public Exercise autoIncrease(Long id) {
-        Exercise exercise = getExerciseById(id);
+        Exercise exercise = updateInWorkout(getExerciseById(id), ExerciseService::increase);
+        recordProgress(exercise, new Date());
+        return exercise;
+    }
+
+    public Exercise autoDecrease(Long id) {
+        return updateInWorkout(getExerciseById(id), ExerciseService::decrease);
+    }
+
+    // Applies the change to the exercise and writes its workout, now or through the write-behind buffer
+    private Exercise updateInWorkout(Exercise exercise, Consumer<Exercise> change) {
+        String exerciseId = String.valueOf(exercise.getId());
+        Consumer<Workout> mutation = workout -> {
+            Exercise target = findExerciseInWorkout(workout, exerciseId);
+            if (target != null) {
+                change.accept(target);
+            }
+        };
+
+        Workout workout = exercise.getWorkout();
+        if (workoutRepository.deferUpdate(workout, mutation)) {
+            change.accept(exercise);
+            return exercise;
+        }
+
+        // The new value depends on the current one (a step, a factor, a floor), so it is computed on the document
+        // that is replaced, under its ETag: a concurrent change makes the replace fail and the change is redone
+        Exercise updated = workoutRepository.updateWithRetry(workout, mutation)
+                .map(written -> findExerciseInWorkout(written, exerciseId))
+                .orElse(null);
+        if (updated == null) {
+            throw new RuntimeException("Exercise not found with id: " + exerciseId);
+        }
+        return updated;
+    }
 
+    private static void increase(Exercise exercise) {
         if (exercise.getType() == WorkoutType.WEIGHTS) {
             double currentWeight = exercise.getAutoIncreaseCurrentWeight();
             double newWeight = currentWeight + exercise.getAutoIncreaseWeightStep();
             exercise.setAutoIncreaseCurrentWeight(newWeight);
-
-            Progress progress = new Progress(newWeight, new Date());
-            exercise.addProgress(progress);
         } else if (exercise.getType() == WorkoutType.DURATION) {
             int currentDuration = exercise.getAutoIncreaseCurrentDuration();
             int newDuration = (int)(currentDuration * exercise.getAutoIncreaseFactor());
             exercise.setAutoIncreaseCurrentDuration(newDuration);
-
-            Progress progress = new Progress(newDuration, new Date());
-            exercise.addProgress(progress);
         }
-
-        cosmosDBService.update("workouts", exercise.getWorkout(), exercise.getWorkout().getUserId(), Workout.class);
-        return exercise;
     }
 
-    public Exercise autoDecrease(Long id) {
-        Exercise exercise = getExerciseById(id);
+    // Progress is appended to the history container as its own document, so the workout does not grow with it
+    private void recordProgress(Exercise exercise, Date date) {
+        Progress progress;
+        if (exercise.getType() == WorkoutType.WEIGHTS) {
+            progress = new Progress(exercise.getAutoIncreaseCurrentWeight(), date);
+        } else if (exercise.getType() == WorkoutType.DURATION) {
+            progress = new Progress(exercise.getAutoIncreaseCurrentDuration(), date);
+        } else {
+            return;
+        }
+        progressRepository.append(new ProgressEntry(exercise.getWorkout(), exercise, progress));
+        exerciseStatsService.recordProgress(exercise.getWorkout(), exercise, List.of(progress));
+        rollupService.recordProgress(exercise.getWorkout().getUserId(), String.valueOf(exercise.getId()), List.of(progress));
+    }
 
+    private static void decrease(Exercise exercise) {
         if (exercise.getType() == WorkoutType.WEIGHTS) {
             double currentWeight = exercise.getAutoIncreaseCurrentWeight();
             double newWeight = Math.max(exercise.getAutoIncreaseStartWeight(),
@@ -191,15 +285,11 @@ public class ExerciseService {
                     (int)(currentDuration / exercise.getAutoIncreaseFactor()));
             exercise.setAutoIncreaseCurrentDuration(newDuration);
         }
-
-        cosmosDBService.update("workouts", exercise.getWorkout(), exercise.getWorkout().getUserId(), Workout.class);
-        return exercise;
     }
 
     public List<Exercise> getExercisesByUserId(Long userId) {
-        String query = String.format("SELECT * FROM c WHERE c.userId = '%s'", userId);
-        List<Workout> workouts = cosmosDBService.query("workouts", query, Workout.class);
-        
+        List<Workout> workouts = workoutRepository.findByUserId(String.valueOf(userId));
+
         List<Exercise> exercises = new ArrayList<>();
         for (Workout workout : workouts) {
             if (workout.getExercises() != null) {
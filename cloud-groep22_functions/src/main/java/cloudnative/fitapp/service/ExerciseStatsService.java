@@ -0,0 +1,268 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.ExerciseStats;
+import cloudnative.fitapp.domain.Progress;
+import cloudnative.fitapp.domain.Set;
+import cloudnative.fitapp.domain.Workout;
+import com.azure.cosmos.models.SqlParameter;
+import com.azure.cosmos.models.SqlQuerySpec;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+
+// Maintains ExerciseStats incrementally: each write folds the new entries into the stored aggregates with one
+// conditional replace, so the cost does not depend on how much history the exercise has. Progress entries are a log
+// and only ever added; sets are the plan and can change, so each set's contribution is kept by id and replaced on edit
+public class ExerciseStatsService {
+
+    private static final Logger logger = Logger.getLogger(ExerciseStatsService.class.getName());
+
+    private static final String CONTAINER = ReadModelService.CONTAINER;
+    private static final int MAX_WEEKS = 52;
+    private static final int ROLLING_WEEKS = 4;
+
+    private final CosmosDBService cosmosDBService;
+
+    public ExerciseStatsService(CosmosDBService cosmosDBService) {
+        this.cosmosDBService = cosmosDBService;
+    }
+
+    public Optional<ExerciseStats> getStats(String exerciseId) {
+        String key = ExerciseStats.key(exerciseId);
+        return cosmosDBService.findById(CONTAINER, key, key, ExerciseStats.class);
+    }
+
+    // Cross-partition, since the stats are partitioned by their own id for point reads by exercise
+    public List<ExerciseStats> getStatsByUserId(String userId) {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT * FROM c WHERE c.type = @type AND c.userId = @userId",
+                new SqlParameter("@type", ExerciseStats.TYPE),
+                new SqlParameter("@userId", userId));
+        return cosmosDBService.query(CONTAINER, querySpec, null, ExerciseStats.class);
+    }
+
+    // Progress entries were done at the exercise's current reps and sets
+    public void recordProgress(Workout workout, Exercise exercise, List<Progress> progressList) {
+        if (progressList.isEmpty()) {
+            return;
+        }
+        List<Sample> samples = new ArrayList<>();
+        for (Progress progress : progressList) {
+            samples.add(new Sample(progress.getWeight(), exercise.getAutoIncreaseCurrentReps(),
+                    exercise.getAutoIncreaseCurrentSets(), progress.getDuration(), progress.getDate()));
+        }
+        record(workout, exercise, stats -> samples.forEach(sample -> apply(stats, sample)));
+    }
+
+    // Idempotent: recording the same set again changes nothing, an edited set replaces what it counted before
+    public void recordSet(Workout workout, Exercise exercise, Set set) {
+        record(workout, exercise, stats -> putSet(stats, set));
+    }
+
+    // After the sets of an exercise were replaced as a whole: sets that are gone are taken out, the rest recorded
+    public void recordSets(Workout workout, Exercise exercise) {
+        Map<String, Set> current = new HashMap<>();
+        for (Set set : exercise.getSets()) {
+            current.put(String.valueOf(set.getId()), set);
+        }
+        record(workout, exercise, stats -> {
+            for (String setId : new ArrayList<>(stats.getSets().keySet())) {
+                if (!current.containsKey(setId)) {
+                    takeOut(stats, stats.getSets().remove(setId));
+                }
+            }
+            current.values().forEach(set -> putSet(stats, set));
+        });
+    }
+
+    public void removeSet(Exercise exercise, String setId) {
+        String key = ExerciseStats.key(String.valueOf(exercise.getId()));
+        try {
+            cosmosDBService.updateWithRetry(CONTAINER, key, key, ExerciseStats.class, stats -> {
+                ExerciseStats.SetContribution contribution = stats.getSets().remove(setId);
+                if (contribution != null) {
+                    takeOut(stats, contribution);
+                }
+            });
+        } catch (Exception e) {
+            logger.warning("Failed to update stats of exercise " + exercise.getId() + ": " + e.getMessage());
+        }
+    }
+
+    // Stats are derived data: a failed write is logged and never fails the request that recorded the entry
+    public void delete(String exerciseId) {
+        String key = ExerciseStats.key(exerciseId);
+        try {
+            cosmosDBService.deleteById(CONTAINER, key, key);
+        } catch (Exception e) {
+            logger.warning("Failed to delete stats of exercise " + exerciseId + ": " + e.getMessage());
+        }
+    }
+
+    private void record(Workout workout, Exercise exercise, Consumer<ExerciseStats> fold) {
+        String exerciseId = String.valueOf(exercise.getId());
+        String key = ExerciseStats.key(exerciseId);
+        try {
+            cosmosDBService.updateOrCreate(CONTAINER, key, key, ExerciseStats.class,
+                    () -> new ExerciseStats(exerciseId, workout.getUserId()),
+                    fold);
+        } catch (Exception e) {
+            logger.warning("Failed to update stats of exercise " + exerciseId + ": " + e.getMessage());
+        }
+    }
+
+    private static void putSet(ExerciseStats stats, Set set) {
+        String setId = String.valueOf(set.getId());
+        double weight = set.getWeight();
+        ExerciseStats.SetContribution previous = stats.getSets().get(setId);
+        if (previous != null && previous.sameValues(weight, set.getReps(), set.getDuration())) {
+            return;
+        }
+
+        Date date = previous != null ? previous.getDate() : new Date();
+        if (previous != null) {
+            takeOut(stats, previous);
+        }
+        double volume = apply(stats, new Sample(weight, set.getReps(), 1, set.getDuration(), date));
+        stats.getSets().put(setId, new ExerciseStats.SetContribution(weight, set.getReps(), set.getDuration(), date, volume));
+    }
+
+    // Undoes the counts and the week volume of a set. Maxima and best 1RMs stay, they are the best ever reached
+    private static void takeOut(ExerciseStats stats, ExerciseStats.SetContribution contribution) {
+        stats.setSamples(Math.max(0, stats.getSamples() - 1));
+        LocalDate weekStart = weekStart(contribution.getDate() != null ? contribution.getDate() : new Date());
+        stats.getWeeks().stream()
+                .filter(week -> weekStart.equals(week.getWeekStart()))
+                .findFirst()
+                .ifPresent(week -> {
+                    week.setVolume(Math.max(0, week.getVolume() - contribution.getVolume()));
+                    week.setSamples(Math.max(0, week.getSamples() - 1));
+                });
+    }
+
+    // Returns the volume the sample added
+    private static double apply(ExerciseStats stats, Sample sample) {
+        Date date = sample.date != null ? sample.date : new Date();
+        stats.setSamples(stats.getSamples() + 1);
+        if (stats.getLastSampleDate() == null || date.after(stats.getLastSampleDate())) {
+            stats.setLastSampleDate(date);
+        }
+
+        Double epley = null;
+        double volume = 0;
+        if (sample.weight != null && sample.weight > 0) {
+            if (stats.getMaxWeight() == null || sample.weight > stats.getMaxWeight()) {
+                stats.setMaxWeight(sample.weight);
+                stats.setMaxWeightDate(date);
+            }
+            epley = epley(sample.weight, sample.reps);
+            if (epley != null && (stats.getBestEpley1RM() == null || epley > stats.getBestEpley1RM())) {
+                stats.setBestEpley1RM(epley);
+                stats.setBestEpley1RMDate(date);
+            }
+            Double brzycki = brzycki(sample.weight, sample.reps);
+            if (brzycki != null && (stats.getBestBrzycki1RM() == null || brzycki > stats.getBestBrzycki1RM())) {
+                stats.setBestBrzycki1RM(brzycki);
+                stats.setBestBrzycki1RMDate(date);
+            }
+            volume = sample.weight * Math.max(sample.reps, 0) * Math.max(sample.sets, 1);
+            if (volume > 0 && (stats.getBestVolume() == null || volume > stats.getBestVolume())) {
+                stats.setBestVolume(volume);
+                stats.setBestVolumeDate(date);
+            }
+        }
+        if (sample.duration != null && sample.duration > 0
+                && (stats.getMaxDuration() == null || sample.duration > stats.getMaxDuration())) {
+            stats.setMaxDuration(sample.duration);
+            stats.setMaxDurationDate(date);
+        }
+
+        addToWeek(stats, weekStart(date), volume, epley);
+        stats.setRollingBest1RM(rollingBest(stats));
+        return volume;
+    }
+
+    private static void addToWeek(ExerciseStats stats, LocalDate weekStart, double volume, Double best1RM) {
+        List<ExerciseStats.WeekStats> weeks = stats.getWeeks();
+        ExerciseStats.WeekStats week = weeks.stream()
+                .filter(w -> weekStart.equals(w.getWeekStart())).findFirst().orElse(null);
+        if (week == null) {
+            // Older than every week that is kept: it only counts towards the records
+            if (weeks.size() >= MAX_WEEKS && weekStart.isBefore(weeks.get(0).getWeekStart())) {
+                return;
+            }
+            week = new ExerciseStats.WeekStats(weekStart);
+            weeks.add(week);
+            weeks.sort(Comparator.comparing(ExerciseStats.WeekStats::getWeekStart));
+            while (weeks.size() > MAX_WEEKS) {
+                weeks.remove(0);
+            }
+        }
+        week.setVolume(week.getVolume() + volume);
+        week.setSamples(week.getSamples() + 1);
+        if (best1RM != null && (week.getBest1RM() == null || best1RM > week.getBest1RM())) {
+            week.setBest1RM(best1RM);
+        }
+    }
+
+    private static Double rollingBest(ExerciseStats stats) {
+        List<ExerciseStats.WeekStats> weeks = stats.getWeeks();
+        if (weeks.isEmpty()) {
+            return null;
+        }
+        LocalDate from = weeks.get(weeks.size() - 1).getWeekStart().minusWeeks(ROLLING_WEEKS - 1);
+        return weeks.stream()
+                .filter(week -> !week.getWeekStart().isBefore(from) && week.getBest1RM() != null)
+                .map(ExerciseStats.WeekStats::getBest1RM)
+                .max(Double::compare)
+                .orElse(null);
+    }
+
+    // Epley: weight x (1 + reps / 30)
+    public static Double epley(double weight, int reps) {
+        if (weight <= 0 || reps <= 0) {
+            return null;
+        }
+        return reps == 1 ? weight : weight * (1 + reps / 30.0);
+    }
+
+    // Brzycki: weight x 36 / (37 - reps), only meaningful well below 37 reps
+    public static Double brzycki(double weight, int reps) {
+        if (weight <= 0 || reps <= 0 || reps >= 37) {
+            return null;
+        }
+        return weight * 36 / (37 - reps);
+    }
+
+    private static LocalDate weekStart(Date date) {
+        return date.toInstant().atZone(ZoneOffset.UTC).toLocalDate()
+                .with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+
+    private static class Sample {
+        private final Double weight;
+        private final int reps;
+        private final int sets;
+        private final Integer duration;
+        private final Date date;
+
+        Sample(Double weight, int reps, int sets, Integer duration, Date date) {
+            this.weight = weight;
+            this.reps = reps;
+            this.sets = sets;
+            this.duration = duration;
+            this.date = date;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.LookupEntry;
+import cloudnative.fitapp.domain.Set;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.dto.Page;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.PartitionKey;
+import com.azure.cosmos.models.SqlQuerySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+
+public class LookupIndexService {
+
+    private static final Logger logger = Logger.getLogger(LookupIndexService.class.getName());
+
+    public static final String CONTAINER = "lookups";
+    public static final String TYPE_WORKOUT = "workout";
+    public static final String TYPE_EXERCISE = "exercise";
+    public static final String TYPE_SET = "set";
+
+    // Workouts read per page during a rebuild
+    private static final int REBUILD_PAGE_SIZE = 500;
+
+    private final CosmosDBService cosmosDBService;
+
+    public LookupIndexService(CosmosDBService cosmosDBService) {
+        this.cosmosDBService = cosmosDBService;
+    }
+
+    // Point read on the lookups container, which is partitioned by its own id
+    public Optional<LookupEntry> find(String type, String entityId) {
+        String key = LookupEntry.key(type, entityId);
+        try {
+            return cosmosDBService.findById(CONTAINER, key, key, LookupEntry.class);
+        } catch (Exception e) {
+            logger.warning("Failed to read lookup entry " + key + ": " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public CompletableFuture<Optional<LookupEntry>> findAsync(String type, String entityId) {
+        String key = LookupEntry.key(type, entityId);
+        return cosmosDBService.findByIdAsync(CONTAINER, key, key, LookupEntry.class)
+                .exceptionally(e -> {
+                    logger.warning("Failed to read lookup entry " + key + ": " + e.getMessage());
+                    return Optional.empty();
+                });
+    }
+
+    public Optional<LookupEntry> findWorkout(String workoutId) {
+        return find(TYPE_WORKOUT, workoutId);
+    }
+
+    public Optional<LookupEntry> findExercise(String exerciseId) {
+        return find(TYPE_EXERCISE, exerciseId);
+    }
+
+    public Optional<LookupEntry> findSet(String setId) {
+        return find(TYPE_SET, setId);
+    }
+
+    // Index an exercise and all of its sets
+    public void indexExercise(Workout workout, Exercise exercise) {
+        List<LookupEntry> entries = new ArrayList<>();
+        addExerciseEntries(entries, workout, exercise);
+        putAll(entries);
+    }
+
+    public void indexSet(Workout workout, Exercise exercise, Set set) {
+        put(setEntry(workout, exercise, set));
+    }
+
+    // Index a workout (id -> userId partition key) together with its exercises and sets
+    public void indexWorkout(Workout workout) {
+        indexWorkouts(List.of(workout));
+    }
+
+    // Several workouts in one bulk call, e.g. after an import
+    public void indexWorkouts(List<Workout> workouts) {
+        List<LookupEntry> entries = new ArrayList<>();
+        for (Workout workout : workouts) {
+            entries.add(new LookupEntry(TYPE_WORKOUT, workout.getId(), null, workout.getId(), workout.getUserId()));
+
+            if (workout.getExercises() != null) {
+                for (Exercise exercise : workout.getExercises()) {
+                    addExerciseEntries(entries, workout, exercise);
+                }
+            }
+        }
+        putAll(entries);
+    }
+
+    public void removeExercise(Exercise exercise) {
+        List<String> keys = new ArrayList<>();
+        addExerciseKeys(keys, exercise);
+        removeAll(keys);
+    }
+
+    public void removeSet(String setId) {
+        remove(TYPE_SET, setId);
+    }
+
+    public void removeWorkout(Workout workout) {
+        List<String> keys = new ArrayList<>();
+        keys.add(LookupEntry.key(TYPE_WORKOUT, workout.getId()));
+
+        if (workout.getExercises() != null) {
+            for (Exercise exercise : workout.getExercises()) {
+                addExerciseKeys(keys, exercise);
+            }
+        }
+        removeAll(keys);
+    }
+
+    private static void addExerciseEntries(List<LookupEntry> entries, Workout workout, Exercise exercise) {
+        String exerciseId = String.valueOf(exercise.getId());
+        entries.add(new LookupEntry(TYPE_EXERCISE, exerciseId, exerciseId, workout.getId(), workout.getUserId()));
+
+        if (exercise.getSets() != null) {
+            for (Set set : exercise.getSets()) {
+                entries.add(setEntry(workout, exercise, set));
+            }
+        }
+    }
+
+    private static void addExerciseKeys(List<String> keys, Exercise exercise) {
+        keys.add(LookupEntry.key(TYPE_EXERCISE, String.valueOf(exercise.getId())));
+
+        if (exercise.getSets() != null) {
+            for (Set set : exercise.getSets()) {
+                keys.add(LookupEntry.key(TYPE_SET, String.valueOf(set.getId())));
+            }
+        }
+    }
+
+    private static LookupEntry setEntry(Workout workout, Exercise exercise, Set set) {
+        return new LookupEntry(TYPE_SET, String.valueOf(set.getId()), String.valueOf(exercise.getId()),
+                workout.getId(), workout.getUserId());
+    }
+
+    // Rebuild the index from the workouts container, used for data written before the index existed.
+    // Reads one page at a time and indexes it with one bulk call, so memory does not grow with the container
+    public int rebuild() {
+        logger.info("Rebuilding lookup index");
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT * FROM c");
+
+        int indexed = 0;
+        String continuationToken = null;
+        do {
+            Page<Workout> page = cosmosDBService.findPage("workouts", querySpec, REBUILD_PAGE_SIZE, continuationToken, Workout.class);
+            indexWorkouts(page.getItems());
+            indexed += page.getItems().size();
+            continuationToken = page.getContinuationToken();
+        } while (continuationToken != null);
+
+        logger.info("Rebuilt lookup index for " + indexed + " workouts");
+        return indexed;
+    }
+
+    // Index writes never fail the request: a missing or stale entry is repaired on the next lookup
+    private void put(LookupEntry entry) {
+        try {
+            cosmosDBService.upsert(CONTAINER, entry, entry.getId());
+        } catch (Exception e) {
+            logger.warning("Failed to write lookup entry " + entry.getId() + ": " + e.getMessage());
+        }
+    }
+
+    // Every entry is its own partition, so several entries are written with one bulk call instead of a round-trip each
+    private void putAll(List<LookupEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (entries.size() == 1) {
+            put(entries.get(0));
+            return;
+        }
+        List<CosmosItemOperation> operations = new ArrayList<>();
+        for (LookupEntry entry : entries) {
+            operations.add(CosmosBulkOperations.getUpsertItemOperation(entry, new PartitionKey(entry.getId())));
+        }
+        bulk(operations);
+    }
+
+    private void removeAll(List<String> keys) {
+        List<CosmosItemOperation> operations = new ArrayList<>();
+        for (String key : keys) {
+            operations.add(CosmosBulkOperations.getDeleteItemOperation(key, new PartitionKey(key)));
+        }
+        bulk(operations);
+    }
+
+    private void bulk(List<CosmosItemOperation> operations) {
+        try {
+            cosmosDBService.executeBulk(CONTAINER, operations);
+        } catch (Exception e) {
+            logger.warning("Failed to write " + operations.size() + " lookup entries: " + e.getMessage());
+        }
+    }
+
+    private void remove(String type, String entityId) {
+        String key = LookupEntry.key(type, entityId);
+        try {
+            cosmosDBService.deleteById(CONTAINER, key, key);
+        } catch (Exception e) {
+            logger.warning("Failed to delete lookup entry " + key + ": " + e.getMessage());
+        }
+    }
+}
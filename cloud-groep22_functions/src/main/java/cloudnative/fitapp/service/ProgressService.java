@@ -1,51 +1,293 @@
 package cloudnative.fitapp.service;
 
 import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.LookupEntry;
 import cloudnative.fitapp.domain.Progress;
+import cloudnative.fitapp.domain.ProgressEntry;
+import cloudnative.fitapp.domain.RollupBucket;
 import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.dto.RangeFilter;
+import cloudnative.fitapp.enums.RollupGranularity;
+import cloudnative.fitapp.repository.ProgressRepository;
+import cloudnative.fitapp.repository.WorkoutRepository;
+import com.azure.cosmos.models.SqlQuerySpec;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
+// Progress lives in the history container. Workouts written before the split still embed their progress
+// until migrateEmbeddedProgress() has moved it, so reads merge both
 public class ProgressService {
 
+    private static final Logger logger = Logger.getLogger(ProgressService.class.getName());
+
+    // Continuation token prefixes of getAllProgress
+    private static final String HISTORY_PAGES = "history:";
+    private static final String EMBEDDED_PAGES = "embedded:";
+
     private final CosmosDBService cosmosDBService;
+    private final LookupIndexService lookupIndexService;
+    private final WorkoutRepository workoutRepository;
+    private final ProgressRepository progressRepository;
+    private final ExerciseStatsService exerciseStatsService;
+    private final RollupService rollupService;
 
-    public ProgressService(CosmosDBService cosmosDBService) {
+    public ProgressService(CosmosDBService cosmosDBService, LookupIndexService lookupIndexService,
+                           WorkoutRepository workoutRepository, ProgressRepository progressRepository,
+                           ExerciseStatsService exerciseStatsService, RollupService rollupService) {
         this.cosmosDBService = cosmosDBService;
+        this.lookupIndexService = lookupIndexService;
+        this.workoutRepository = workoutRepository;
+        this.progressRepository = progressRepository;
+        this.exerciseStatsService = exerciseStatsService;
+        this.rollupService = rollupService;
     }
 
-    public List<Progress> getAllProgress() {
-        List<Progress> allProgress = new ArrayList<>();
-        List<Workout> workouts = cosmosDBService.findAll("workouts", Workout.class);
-        
-        for (Workout workout : workouts) {
-            if (workout.getExercises() != null) {
-                for (Exercise exercise : workout.getExercises()) {
-                    if (exercise.getProgressList() != null) {
-                        allProgress.addAll(exercise.getProgressList());
-                    }
-                }
-            }
+    public Stream<Progress> streamAllProgress() {
+        return Stream.concat(progressRepository.streamAll().map(ProgressEntry::toProgress),
+                cosmosDBService.stream("workouts", embeddedProgressQuery(), Progress.class));
+    }
+
+    // The same entries as streamAllProgress: the history container first, then the entries still embedded in
+    // workouts that were not migrated yet. The continuation token says which of the two the next page reads from
+    public Page<Progress> getAllProgress(int pageSize, String continuationToken) {
+        if (continuationToken != null && continuationToken.startsWith(EMBEDDED_PAGES)) {
+            String token = continuationToken.substring(EMBEDDED_PAGES.length());
+            Page<Progress> page = cosmosDBService.findPage("workouts", embeddedProgressQuery(), pageSize,
+                    token.isEmpty() ? null : token, Progress.class);
+            String next = page.getContinuationToken() != null ? EMBEDDED_PAGES + page.getContinuationToken() : null;
+            return new Page<>(page.getItems(), next);
         }
-        return allProgress;
+
+        // Tokens without a prefix were handed out before the embedded pages existed and point into the history
+        String token = continuationToken != null && continuationToken.startsWith(HISTORY_PAGES)
+                ? continuationToken.substring(HISTORY_PAGES.length()) : continuationToken;
+        Page<ProgressEntry> page = progressRepository.findPage(pageSize, token);
+        String next = page.getContinuationToken() != null ? HISTORY_PAGES + page.getContinuationToken() : EMBEDDED_PAGES;
+        return new Page<>(page.getItems().stream().map(ProgressEntry::toProgress).toList(), next);
+    }
+
+    private static SqlQuerySpec embeddedProgressQuery() {
+        return new SqlQuerySpec("SELECT VALUE p FROM c JOIN e IN c.exercises JOIN p IN e.progressList");
     }
 
     public List<Progress> getProgressByExerciseId(Long id) {
+        return getProgressByExerciseId(id, RangeFilter.none());
+    }
+
+    // The history entries are filtered by the query; embedded entries of a workout that was not migrated yet
+    // are filtered in memory and merged in
+    public List<Progress> getProgressByExerciseId(Long id, RangeFilter filter) {
         String exerciseId = String.valueOf(id);
-        List<Workout> workouts = cosmosDBService.findAll("workouts", Workout.class);
-        
+
+        Optional<LookupEntry> entry = lookupIndexService.findExercise(exerciseId);
+        if (entry.isPresent()) {
+            Optional<Workout> workout = workoutRepository.findById(entry.get().getWorkoutId(), entry.get().getUserId());
+            Exercise exercise = workout.map(w -> ExerciseService.findExerciseInWorkout(w, exerciseId)).orElse(null);
+            if (exercise != null) {
+                return filter.apply(merge(exercise.getProgressList(),
+                        progressRepository.findByExerciseId(entry.get().getUserId(), exerciseId, filter)), ProgressService::dayOf);
+            }
+        }
+
+        // Not indexed yet: query for the workout that contains it and repair the index
+        for (Workout workout : workoutRepository.findByExerciseId(id)) {
+            Exercise exercise = ExerciseService.findExerciseInWorkout(workout, exerciseId);
+            if (exercise != null) {
+                lookupIndexService.indexExercise(workout, exercise);
+                return filter.apply(merge(exercise.getProgressList(),
+                        progressRepository.findByExerciseId(workout.getUserId(), exerciseId, filter)), ProgressService::dayOf);
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    public List<RollupBucket> getProgressRollups(Long exerciseId, RollupGranularity granularity, LocalDate from, LocalDate to) {
+        return rollupService.getRollups(userIdOfExercise(exerciseId), RollupService.progressSeries(String.valueOf(exerciseId)),
+                granularity, from, to);
+    }
+
+    public Map<String, Object> getProgressSeries(Long exerciseId, LocalDate from, LocalDate to, int points) {
+        return rollupService.getSeries(userIdOfExercise(exerciseId), RollupService.progressSeries(String.valueOf(exerciseId)),
+                from, to, points);
+    }
+
+    // The rollups are partitioned by user, which the lookup index knows for every indexed exercise
+    private String userIdOfExercise(Long id) {
+        Optional<LookupEntry> entry = lookupIndexService.findExercise(String.valueOf(id));
+        if (entry.isPresent()) {
+            return entry.get().getUserId();
+        }
+        return workoutRepository.findByExerciseId(id).stream().findFirst().map(Workout::getUserId)
+                .orElseThrow(() -> new IllegalArgumentException("Exercise not found with id: " + id));
+    }
+
+    // Fills in the progress of every exercise with one single-partition query, for responses that still carry
+    // progress inside the workouts. The workouts must not be written back afterwards
+    public List<Workout> attachHistory(String userId, List<Workout> workouts) {
+        Map<String, List<ProgressEntry>> history = historyByExercise(userId);
         for (Workout workout : workouts) {
             if (workout.getExercises() != null) {
+                workout.getExercises().forEach(exercise -> attach(exercise, history));
+            }
+        }
+        return workouts;
+    }
+
+    public List<Exercise> attachExerciseHistory(String userId, List<Exercise> exercises) {
+        Map<String, List<ProgressEntry>> history = historyByExercise(userId);
+        exercises.forEach(exercise -> attach(exercise, history));
+        return exercises;
+    }
+
+    public Workout attachHistory(Workout workout) {
+        attachHistory(workout.getUserId(), List.of(workout));
+        return workout;
+    }
+
+    // Exercises read from one workout, which knows the user
+    public List<Exercise> attachExerciseHistory(List<Exercise> exercises) {
+        if (exercises.isEmpty()) {
+            return exercises;
+        }
+        return attachExerciseHistory(exercises.get(0).getWorkout().getUserId(), exercises);
+    }
+
+    // A single exercise only needs its own entries, served by the (exerciseId, date) index
+    public Exercise attachExerciseHistory(Exercise exercise) {
+        String exerciseId = String.valueOf(exercise.getId());
+        List<ProgressEntry> entries = progressRepository.findByExerciseId(exercise.getWorkout().getUserId(),
+                exerciseId, RangeFilter.none());
+        attach(exercise, Map.of(exerciseId, entries));
+        return exercise;
+    }
+
+    // Copies the progress embedded in workout documents to the history container and then removes it from them.
+    // Safe to re-run: entries are upserted under ids derived from the progress id, and a workout keeps its
+    // embedded entries until all of them were copied
+    public Map<String, Object> migrateEmbeddedProgress() {
+        long start = System.currentTimeMillis();
+        SqlQuerySpec querySpec = new SqlQuerySpec(
+                "SELECT * FROM c WHERE EXISTS (SELECT VALUE e FROM e IN c.exercises WHERE ARRAY_LENGTH(e.progressList) > 0)");
+
+        int workouts = 0;
+        int entries = 0;
+        int failedWorkouts = 0;
+        try (Stream<Workout> stream = cosmosDBService.stream("workouts", querySpec, Workout.class)) {
+            Iterator<Workout> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                Workout workout = iterator.next();
+                List<ProgressEntry> copies = new ArrayList<>();
                 for (Exercise exercise : workout.getExercises()) {
-                    if (exerciseId.equals(exercise.getId()) || 
-                        String.valueOf(exercise.getId()).equals(exerciseId)) {
-                        return exercise.getProgressList() != null ? 
-                               exercise.getProgressList() : new ArrayList<>();
+                    if (exercise.getProgressList() != null) {
+                        exercise.getProgressList().forEach(progress -> copies.add(new ProgressEntry(workout, exercise, progress)));
                     }
                 }
+
+                List<String> failed = progressRepository.saveAll(copies);
+                if (!failed.isEmpty()) {
+                    logger.warning("Progress migration: " + failed.size() + " entries of workout " + workout.getId()
+                            + " could not be copied, keeping them embedded");
+                    failedWorkouts++;
+                    continue;
+                }
+
+                Collection<String> copied = copies.stream().map(ProgressEntry::getId).collect(Collectors.toCollection(HashSet::new));
+                workoutRepository.updateWithRetry(workout, w -> w.getExercises().forEach(exercise -> {
+                    if (exercise.getProgressList() != null) {
+                        String exerciseId = String.valueOf(exercise.getId());
+                        exercise.getProgressList().removeIf(p -> copied.contains(ProgressEntry.key(exerciseId, p.getStringId())));
+                    }
+                }));
+                // Only once they left the workout, so a re-run never counts the same entries twice
+                for (Exercise exercise : workout.getExercises()) {
+                    if (exercise.getProgressList() != null) {
+                        exerciseStatsService.recordProgress(workout, exercise, exercise.getProgressList());
+                        rollupService.recordProgress(workout.getUserId(), String.valueOf(exercise.getId()), exercise.getProgressList());
+                    }
+                }
+                workouts++;
+                entries += copies.size();
             }
         }
-        return new ArrayList<>();
+
+        long millis = System.currentTimeMillis() - start;
+        logger.info("Progress migration: moved " + entries + " entries out of " + workouts + " workouts in " + millis + " ms");
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("migratedWorkouts", workouts);
+        result.put("migratedEntries", entries);
+        result.put("failedWorkouts", failedWorkouts);
+        result.put("millis", millis);
+        return result;
+    }
+
+    // Rebuilds the rollups of every exercise of the user from the history container, e.g. after bucket writes
+    // failed. Entries still embedded in workouts get their buckets when they are migrated
+    public Map<String, Object> rebuildProgressRollups(String userId) {
+        long start = System.currentTimeMillis();
+        Map<String, List<ProgressEntry>> history = historyByExercise(userId);
+
+        int entries = 0;
+        int failedBuckets = 0;
+        for (Map.Entry<String, List<ProgressEntry>> exercise : history.entrySet()) {
+            List<Progress> progressList = exercise.getValue().stream().map(ProgressEntry::toProgress).toList();
+            failedBuckets += rollupService.rebuildProgress(userId, exercise.getKey(), progressList).size();
+            entries += progressList.size();
+        }
+
+        long millis = System.currentTimeMillis() - start;
+        logger.info("Rebuilt the rollups of " + history.size() + " exercises of user " + userId + " from " + entries
+                + " entries in " + millis + " ms, " + failedBuckets + " buckets failed");
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("exercises", history.size());
+        result.put("entries", entries);
+        result.put("failedBuckets", failedBuckets);
+        result.put("millis", millis);
+        return result;
+    }
+
+    private Map<String, List<ProgressEntry>> historyByExercise(String userId) {
+        return progressRepository.findByUserId(userId).stream()
+                .collect(Collectors.groupingBy(ProgressEntry::getExerciseId));
+    }
+
+    private static void attach(Exercise exercise, Map<String, List<ProgressEntry>> history) {
+        exercise.setProgressList(merge(exercise.getProgressList(),
+                history.getOrDefault(String.valueOf(exercise.getId()), List.of())));
+    }
+
+    private static LocalDate dayOf(Progress progress) {
+        return progress.getDate() != null ? progress.getDate().toInstant().atZone(ZoneOffset.UTC).toLocalDate() : null;
+    }
+
+    // Embedded entries of a workout that was not migrated yet plus the history entries, oldest first
+    private static List<Progress> merge(List<Progress> embedded, List<ProgressEntry> history) {
+        Map<String, Progress> merged = new LinkedHashMap<>();
+        if (embedded != null) {
+            embedded.forEach(progress -> merged.put(progress.getStringId(), progress));
+        }
+        for (ProgressEntry entry : history) {
+            Progress progress = entry.toProgress();
+            merged.putIfAbsent(progress.getStringId(), progress);
+        }
+
+        List<Progress> progressList = new ArrayList<>(merged.values());
+        progressList.sort(Comparator.comparing(Progress::getDate, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return progressList;
     }
 }
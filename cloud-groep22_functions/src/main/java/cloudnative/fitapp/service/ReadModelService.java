@@ -0,0 +1,207 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.domain.Bodyweight;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.User;
+import cloudnative.fitapp.domain.UserDashboard;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.repository.UserRepository;
+import cloudnative.fitapp.repository.WorkoutRepository;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+// Projects the change feeds of the users and workouts containers into one UserDashboard per user.
+// Idempotent: every part of a dashboard is rebuilt as a whole from the latest version of its source document,
+// and a version older than the one a part was built from is skipped, so a failed batch can be retried and the
+// feed replayed from the beginning
+public class ReadModelService {
+
+    private static final Logger logger = Logger.getLogger(ReadModelService.class.getName());
+
+    public static final String CONTAINER = "readmodels";
+    private static final int BODYWEIGHT_TREND_DAYS = 30;
+
+    private final CosmosDBService cosmosDBService;
+    private final UserRepository userRepository;
+    private final WorkoutRepository workoutRepository;
+    private final ObjectMapper objectMapper;
+
+    public ReadModelService(CosmosDBService cosmosDBService, UserRepository userRepository,
+                            WorkoutRepository workoutRepository) {
+        this.cosmosDBService = cosmosDBService;
+        this.userRepository = userRepository;
+        this.workoutRepository = workoutRepository;
+
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    // Point read of the precomputed dashboard
+    public UserDashboard getDashboard(String userId) {
+        Optional<UserDashboard> dashboard = cosmosDBService.findById(CONTAINER, userId, userId, UserDashboard.class);
+        if (dashboard.isPresent()) {
+            return dashboard.get();
+        }
+
+        // Not projected yet (the feed has not caught up): build it from the source documents once.
+        // Version 0 lets any change that arrives from the feed later replace these parts
+        logger.info("No dashboard for user " + userId + " yet, building it from the source containers");
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new IllegalArgumentException("User not found with id: " + userId));
+        List<Workout> workouts = workoutRepository.findByUserId(userId);
+        Map<String, Boolean> gone = new HashMap<>();
+        return cosmosDBService.updateOrCreate(CONTAINER, userId, userId, UserDashboard.class,
+                () -> new UserDashboard(userId), d -> {
+                    applyUser(d, user, 0);
+                    workouts.forEach(workout -> applyWorkout(d, workout, 0));
+                    retainLinkedWorkouts(d, gone);
+                });
+    }
+
+    // One change feed batch of the workouts container; one conditional write per user in the batch
+    public void projectWorkoutChanges(List<String> documents) {
+        Map<String, List<Change<Workout>>> byUser = parse(documents, Workout.class, Workout::getUserId);
+        byUser.forEach((userId, changes) -> {
+            Map<String, Boolean> gone = new HashMap<>();
+            cosmosDBService.updateOrCreate(CONTAINER, userId, userId, UserDashboard.class,
+                    () -> new UserDashboard(userId), d -> {
+                        changes.forEach(change -> applyWorkout(d, change.document, change.ts));
+                        retainLinkedWorkouts(d, gone);
+                    });
+        });
+        logger.info("Projected " + documents.size() + " workout changes for " + byUser.size() + " users");
+    }
+
+    // One change feed batch of the users container
+    public void projectUserChanges(List<String> documents) {
+        Map<String, List<Change<User>>> byUser = parse(documents, User.class, User::getId);
+        byUser.forEach((userId, changes) -> {
+            Map<String, Boolean> gone = new HashMap<>();
+            cosmosDBService.updateOrCreate(CONTAINER, userId, userId, UserDashboard.class,
+                    () -> new UserDashboard(userId), d -> {
+                        changes.forEach(change -> applyUser(d, change.document, change.ts));
+                        retainLinkedWorkouts(d, gone);
+                    });
+        });
+        logger.info("Projected " + documents.size() + " user changes");
+    }
+
+    private static void applyWorkout(UserDashboard dashboard, Workout workout, long ts) {
+        UserDashboard.WorkoutSummary current = dashboard.getWorkouts().get(workout.getId());
+        if (current != null && current.getSourceTs() > ts) {
+            return;
+        }
+
+        UserDashboard.WorkoutSummary summary = new UserDashboard.WorkoutSummary();
+        summary.setId(workout.getId());
+        summary.setName(workout.getName());
+        summary.setRest(workout.getRest());
+        summary.setSourceTs(ts);
+
+        dashboard.getLatestWeights().values().removeIf(latest -> workout.getId().equals(latest.getWorkoutId()));
+        if (workout.getExercises() != null) {
+            for (Exercise exercise : workout.getExercises()) {
+                summary.setExerciseCount(summary.getExerciseCount() + 1);
+                summary.setSetCount(summary.getSetCount() + (exercise.getSets() != null ? exercise.getSets().size() : 0));
+
+                UserDashboard.ExerciseLatest latest = new UserDashboard.ExerciseLatest();
+                latest.setExerciseId(String.valueOf(exercise.getId()));
+                latest.setWorkoutId(workout.getId());
+                latest.setName(exercise.getName());
+                latest.setType(exercise.getType() != null ? exercise.getType().name() : null);
+                latest.setWeight(exercise.getAutoIncreaseCurrentWeight());
+                latest.setDuration(exercise.getAutoIncreaseCurrentDuration());
+                dashboard.getLatestWeights().put(latest.getExerciseId(), latest);
+            }
+        }
+        dashboard.getWorkouts().put(workout.getId(), summary);
+    }
+
+    private static void applyUser(UserDashboard dashboard, User user, long ts) {
+        if (dashboard.getUserTs() > ts) {
+            return;
+        }
+        dashboard.setUserTs(ts);
+        dashboard.setName(user.getName());
+        dashboard.setEmail(user.getEmail());
+        dashboard.setWorkoutIds(user.getWorkoutIds() != null ? new ArrayList<>(user.getWorkoutIds()) : new ArrayList<>());
+        dashboard.setStreakGoal(user.getStreakGoal());
+        dashboard.setStreakProgress(user.getStreakProgress());
+        dashboard.setStreak(user.getStreak());
+
+        List<Bodyweight> entries = user.getBodyweightList() != null ? new ArrayList<>(user.getBodyweightList()) : new ArrayList<>();
+        entries.removeIf(entry -> entry.getDate() == null || entry.getBodyWeight() == null);
+        entries.sort(Comparator.comparing(Bodyweight::getDate));
+        dashboard.setBodyweightEntries(entries.size());
+        if (entries.isEmpty()) {
+            dashboard.setLatestBodyweight(null);
+            dashboard.setLatestBodyweightDate(null);
+            dashboard.setBodyweightChange30Days(null);
+            return;
+        }
+
+        Bodyweight latest = entries.get(entries.size() - 1);
+        LocalDate windowStart = latest.getDate().minusDays(BODYWEIGHT_TREND_DAYS);
+        Bodyweight oldest = entries.stream().filter(entry -> !entry.getDate().isBefore(windowStart)).findFirst().orElse(latest);
+        dashboard.setLatestBodyweight(latest.getBodyWeight());
+        dashboard.setLatestBodyweightDate(latest.getDate());
+        dashboard.setBodyweightChange30Days(oldest != latest ? latest.getBodyWeight() - oldest.getBodyWeight() : null);
+    }
+
+    // The change feed does not report deletes. A deleted workout is unlinked from its user afterwards, so a
+    // workout that the newest user version no longer links, and that did not change since, is probably gone.
+    // _ts only counts seconds and the two feeds are not ordered against each other, so a point read confirms it
+    // before the summary is dropped. The answers are kept in gone, so a retried write does not read again
+    private void retainLinkedWorkouts(UserDashboard dashboard, Map<String, Boolean> gone) {
+        Collection<String> linked = new HashSet<>(dashboard.getWorkoutIds());
+        dashboard.getWorkouts().values().removeIf(summary -> !linked.contains(summary.getId())
+                && summary.getSourceTs() < dashboard.getUserTs()
+                && gone.computeIfAbsent(summary.getId(), id -> workoutRepository.findById(id, dashboard.getId()).isEmpty()));
+        dashboard.getLatestWeights().values().removeIf(latest -> !dashboard.getWorkouts().containsKey(latest.getWorkoutId()));
+    }
+
+    private <T> Map<String, List<Change<T>>> parse(List<String> documents, Class<T> clazz, Function<T, String> userIdOf) {
+        Map<String, List<Change<T>>> byUser = new LinkedHashMap<>();
+        for (String json : documents) {
+            try {
+                JsonNode node = objectMapper.readTree(json);
+                T document = objectMapper.treeToValue(node, clazz);
+                String userId = userIdOf.apply(document);
+                if (userId == null) {
+                    logger.warning("Skipping " + clazz.getSimpleName() + " change without a user id");
+                    continue;
+                }
+                byUser.computeIfAbsent(userId, k -> new ArrayList<>()).add(new Change<>(document, node.path("_ts").asLong()));
+            } catch (IOException e) {
+                logger.warning("Skipping unreadable " + clazz.getSimpleName() + " change: " + e.getMessage());
+            }
+        }
+        return byUser;
+    }
+
+    private static class Change<T> {
+        private final T document;
+        private final long ts;
+
+        Change(T document, long ts) {
+            this.document = document;
+            this.ts = ts;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.domain.Bodyweight;
+import cloudnative.fitapp.domain.Progress;
+import cloudnative.fitapp.domain.RollupBucket;
+import cloudnative.fitapp.dto.SeriesPoint;
+import cloudnative.fitapp.enums.RollupGranularity;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.PartitionKey;
+import com.azure.cosmos.models.SqlParameter;
+import com.azure.cosmos.models.SqlQuerySpec;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+
+// Day, week and month buckets of the progress and bodyweight series, updated incrementally as entries are
+// recorded. Chart reads return at most one bucket per period in the range, or a series downsampled to a
+// requested number of points, however long the history is
+public class RollupService {
+
+    private static final Logger logger = Logger.getLogger(RollupService.class.getName());
+
+    public static final String CONTAINER = "rollups";
+    public static final int MAX_BUCKETS = 1000;
+    public static final int DEFAULT_POINTS = 100;
+
+    private final CosmosDBService cosmosDBService;
+
+    public RollupService(CosmosDBService cosmosDBService) {
+        this.cosmosDBService = cosmosDBService;
+    }
+
+    public static String progressSeries(String exerciseId) {
+        return "progress:" + exerciseId;
+    }
+
+    public static String bodyweightSeries() {
+        return "bodyweight";
+    }
+
+    public void recordProgress(String userId, String exerciseId, List<Progress> progressList) {
+        record(userId, progressSeries(exerciseId), progressPoints(progressList));
+    }
+
+    // Recomputes a progress series from all of its entries, e.g. after bucket writes failed: the buckets are built
+    // in memory and upserted in one bulk call, and buckets that no longer hold any entry are deleted. Entries
+    // recorded while it runs can be lost from their bucket, so it is meant for a series that is not being written.
+    // Returns the ids of the buckets that could not be written or deleted
+    public List<String> rebuildProgress(String userId, String exerciseId, List<Progress> progressList) {
+        String series = progressSeries(exerciseId);
+        Map<String, RollupBucket> buckets = new LinkedHashMap<>();
+        for (Point point : progressPoints(progressList)) {
+            for (RollupGranularity granularity : RollupGranularity.values()) {
+                String bucketStart = granularity.bucketStart(point.date).toString();
+                buckets.computeIfAbsent(RollupBucket.key(series, granularity, bucketStart),
+                        key -> new RollupBucket(userId, series, granularity, bucketStart)).add(point.value, point.time);
+            }
+        }
+
+        List<CosmosItemOperation> operations = new ArrayList<>();
+        for (RollupBucket stored : bucketsOf(userId, series)) {
+            if (!buckets.containsKey(stored.getId())) {
+                operations.add(CosmosBulkOperations.getDeleteItemOperation(stored.getId(), new PartitionKey(userId)));
+            }
+        }
+        for (RollupBucket bucket : buckets.values()) {
+            operations.add(CosmosBulkOperations.getUpsertItemOperation(bucket, new PartitionKey(userId)));
+        }
+        return cosmosDBService.executeBulk(CONTAINER, operations);
+    }
+
+    // Weight entries count by weight, duration entries by duration
+    private static List<Point> progressPoints(List<Progress> progressList) {
+        List<Point> points = new ArrayList<>();
+        for (Progress progress : progressList) {
+            Double value = progress.getWeight() != null ? progress.getWeight()
+                    : progress.getDuration() != null ? Double.valueOf(progress.getDuration()) : null;
+            if (value != null && progress.getDate() != null) {
+                points.add(new Point(progress.getDate().toInstant().atZone(ZoneOffset.UTC).toLocalDate(), value,
+                        progress.getDate().getTime()));
+            }
+        }
+        return points;
+    }
+
+    public void recordBodyweight(String userId, List<Bodyweight> bodyweights) {
+        List<Point> points = new ArrayList<>();
+        for (Bodyweight bodyweight : bodyweights) {
+            if (bodyweight.getBodyWeight() != null && bodyweight.getDate() != null) {
+                points.add(new Point(bodyweight.getDate(), bodyweight.getBodyWeight(),
+                        bodyweight.getDate().atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli()));
+            }
+        }
+        record(userId, bodyweightSeries(), points);
+    }
+
+    // Single-partition range query, oldest first
+    public List<RollupBucket> getRollups(String userId, String series, RollupGranularity granularity,
+                                         LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+        if (granularity.bucketsBetween(from, to) > MAX_BUCKETS) {
+            throw new IllegalArgumentException("Range spans more than " + MAX_BUCKETS + " "
+                    + granularity.name().toLowerCase() + " buckets, use a coarser granularity or a shorter range");
+        }
+        SqlQuerySpec querySpec = new SqlQuerySpec(
+                "SELECT * FROM c WHERE c.userId = @userId AND c.series = @series AND c.granularity = @granularity"
+                        + " AND c.bucketStart >= @from AND c.bucketStart <= @to ORDER BY c.bucketStart",
+                new SqlParameter("@userId", userId),
+                new SqlParameter("@series", series),
+                new SqlParameter("@granularity", granularity.name()),
+                new SqlParameter("@from", granularity.bucketStart(from).toString()),
+                new SqlParameter("@to", to.toString()));
+        return cosmosDBService.query(CONTAINER, querySpec, userId, RollupBucket.class);
+    }
+
+    // The bucket averages at the finest granularity that keeps the range within MAX_BUCKETS, reduced to at most
+    // the requested number of points with Largest-Triangle-Three-Buckets, which keeps the visible peaks and dips
+    public Map<String, Object> getSeries(String userId, String series, LocalDate from, LocalDate to, int points) {
+        if (points < 3 || points > MAX_BUCKETS) {
+            throw new IllegalArgumentException("points must be between 3 and " + MAX_BUCKETS);
+        }
+        RollupGranularity granularity = RollupGranularity.DAY;
+        for (RollupGranularity candidate : RollupGranularity.values()) {
+            granularity = candidate;
+            if (candidate.bucketsBetween(from, to) <= MAX_BUCKETS) {
+                break;
+            }
+        }
+
+        List<SeriesPoint> data = new ArrayList<>();
+        for (RollupBucket bucket : getRollups(userId, series, granularity, from, to)) {
+            data.add(new SeriesPoint(LocalDate.parse(bucket.getBucketStart()), bucket.getAvg()));
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("granularity", granularity);
+        result.put("points", lttb(data, points));
+        return result;
+    }
+
+    // Removes every bucket of a series, e.g. of an exercise that was deleted
+    public void deleteSeries(String userId, String series) {
+        try {
+            List<CosmosItemOperation> operations = new ArrayList<>();
+            for (RollupBucket bucket : bucketsOf(userId, series)) {
+                operations.add(CosmosBulkOperations.getDeleteItemOperation(bucket.getId(), new PartitionKey(userId)));
+            }
+            cosmosDBService.executeBulk(CONTAINER, operations);
+        } catch (Exception e) {
+            logger.warning("Failed to delete rollups of " + series + ": " + e.getMessage());
+        }
+    }
+
+    // Ids of every bucket of a series
+    private List<RollupBucket> bucketsOf(String userId, String series) {
+        SqlQuerySpec querySpec = new SqlQuerySpec(
+                "SELECT c.id FROM c WHERE c.userId = @userId AND c.series = @series",
+                new SqlParameter("@userId", userId),
+                new SqlParameter("@series", series));
+        return cosmosDBService.query(CONTAINER, querySpec, userId, RollupBucket.class);
+    }
+
+    // One conditional write per touched bucket. Rollups are derived data: a failed write is logged and never
+    // fails the request that recorded the entry. The bucket stays off until the series is rebuilt from the
+    // history (POST /api/admin/users/{userId}/rollups/rebuild)
+    private void record(String userId, String series, List<Point> points) {
+        if (points.isEmpty()) {
+            return;
+        }
+        Map<String, List<Point>> byBucket = new LinkedHashMap<>();
+        Map<String, RollupBucket> templates = new LinkedHashMap<>();
+        for (Point point : points) {
+            for (RollupGranularity granularity : RollupGranularity.values()) {
+                String bucketStart = granularity.bucketStart(point.date).toString();
+                String key = RollupBucket.key(series, granularity, bucketStart);
+                byBucket.computeIfAbsent(key, k -> new ArrayList<>()).add(point);
+                templates.putIfAbsent(key, new RollupBucket(userId, series, granularity, bucketStart));
+            }
+        }
+
+        byBucket.forEach((key, bucketPoints) -> {
+            RollupBucket template = templates.get(key);
+            try {
+                cosmosDBService.updateOrCreate(CONTAINER, key, userId, RollupBucket.class,
+                        () -> new RollupBucket(userId, series, template.getGranularity(), template.getBucketStart()),
+                        bucket -> bucketPoints.forEach(point -> bucket.add(point.value, point.time)));
+            } catch (Exception e) {
+                logger.warning("Failed to update rollup " + key + ", rebuild the rollups of user " + userId + ": "
+                        + e.getMessage());
+            }
+        });
+    }
+
+    // Largest-Triangle-Three-Buckets (Steinarsson, 2013): keeps the first and last point and, from each of the
+    // threshold - 2 buckets in between, the point that forms the largest triangle with the previously kept point
+    // and the average of the next bucket
+    static List<SeriesPoint> lttb(List<SeriesPoint> data, int threshold) {
+        int size = data.size();
+        if (threshold >= size) {
+            return data;
+        }
+
+        List<SeriesPoint> sampled = new ArrayList<>(threshold);
+        double every = (double) (size - 2) / (threshold - 2);
+        int a = 0;
+        sampled.add(data.get(a));
+
+        for (int i = 0; i < threshold - 2; i++) {
+            int avgStart = (int) Math.floor((i + 1) * every) + 1;
+            int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, size);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = avgStart; j < avgEnd; j++) {
+                avgX += x(data.get(j));
+                avgY += data.get(j).getValue();
+            }
+            avgX /= Math.max(avgEnd - avgStart, 1);
+            avgY /= Math.max(avgEnd - avgStart, 1);
+
+            int rangeStart = (int) Math.floor(i * every) + 1;
+            int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+            double pointAX = x(data.get(a));
+            double pointAY = data.get(a).getValue();
+
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                double area = Math.abs((pointAX - avgX) * (data.get(j).getValue() - pointAY)
+                        - (pointAX - x(data.get(j))) * (avgY - pointAY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+            sampled.add(data.get(next));
+            a = next;
+        }
+
+        sampled.add(data.get(size - 1));
+        return sampled;
+    }
+
+    private static double x(SeriesPoint point) {
+        return point.getDate().toEpochDay();
+    }
+
+    private static class Point {
+        private final LocalDate date;
+        private final double value;
+        private final long time;
+
+        Point(LocalDate date, double value, long time) {
+            this.date = date;
+            this.value = value;
+            this.time = time;
+        }
+    }
+}
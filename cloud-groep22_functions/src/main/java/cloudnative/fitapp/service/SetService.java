@@ -1,94 +1,213 @@
 package cloudnative.fitapp.service;
 
+import cloudnative.fitapp.cache.CacheEntity;
+import cloudnative.fitapp.cache.RedisCache;
 import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.LookupEntry;
 import cloudnative.fitapp.domain.Set;
 import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.repository.WorkoutRepository;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import com.azure.cosmos.models.SqlQuerySpec;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 
 public class SetService {
 
+    private static final Logger logger = Logger.getLogger(SetService.class.getName());
     private final CosmosDBService cosmosDBService;
     private final ExerciseService exerciseService;
+    private final LookupIndexService lookupIndexService;
+    private final WorkoutRepository workoutRepository;
+    private final ExerciseStatsService exerciseStatsService;
+    private final RedisCache redisCache;
 
-    public SetService(CosmosDBService cosmosDBService, ExerciseService exerciseService) {
+    public SetService(CosmosDBService cosmosDBService, ExerciseService exerciseService,
+                      LookupIndexService lookupIndexService, WorkoutRepository workoutRepository,
+                      ExerciseStatsService exerciseStatsService, RedisCache redisCache) {
         this.cosmosDBService = cosmosDBService;
         this.exerciseService = exerciseService;
+        this.lookupIndexService = lookupIndexService;
+        this.workoutRepository = workoutRepository;
+        this.exerciseStatsService = exerciseStatsService;
+        this.redisCache = redisCache;
     }
 
-    public List<Set> getAllSets() {
-        List<Set> allSets = new ArrayList<>();
-        List<Workout> workouts = cosmosDBService.findAll("workouts", Workout.class);
-        
-        for (Workout workout : workouts) {
-            if (workout.getExercises() != null) {
-                for (Exercise exercise : workout.getExercises()) {
-                    if (exercise.getSets() != null) {
-                        allSets.addAll(exercise.getSets());
-                    }
-                }
-            }
-        }
-        return allSets;
+    public Stream<Set> streamAllSets() {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT VALUE s FROM c JOIN e IN c.exercises JOIN s IN e.sets");
+        return cosmosDBService.stream("workouts", querySpec, Set.class);
+    }
+
+    public Page<Set> getAllSets(int pageSize, String continuationToken) {
+        SqlQuerySpec querySpec = new SqlQuerySpec("SELECT VALUE s FROM c JOIN e IN c.exercises JOIN s IN e.sets");
+        return cosmosDBService.findPage("workouts", querySpec, pageSize, continuationToken, Set.class);
     }
 
     public Set getSetById(Long id) {
-        String setId = String.valueOf(id);
-        List<Workout> workouts = cosmosDBService.findAll("workouts", Workout.class);
-        
-        for (Workout workout : workouts) {
-            if (workout.getExercises() != null) {
-                for (Exercise exercise : workout.getExercises()) {
-                    if (exercise.getSets() != null) {
-                        for (Set set : exercise.getSets()) {
-                            if (setId.equals(set.getId()) || 
-                                String.valueOf(set.getId()).equals(setId)) {
-                                set.setExercise(exercise);
-                                return set;
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return null;
+        return locateSet(id, null, null);
     }
 
     public Set addSetToExercise(Long exerciseId, Set set) {
         Exercise exercise = exerciseService.getExerciseById(exerciseId);
+        Workout workout = exercise.getWorkout();
+        boolean hadSets = exercise.getSets() != null && !exercise.getSets().isEmpty();
         Set newSet = exercise.addSet(set);
-        cosmosDBService.update("workouts", exercise.getWorkout(), exercise.getWorkout().getUserId(), Workout.class);
+
+        // Append just the new set. An append needs an existing array, and writing the whole list would overwrite
+        // a concurrent first set, so the first set goes through the ETag-checked read-modify-write instead
+        String path = WorkoutRepository.exercisePath(workout, exercise) + "/sets/-";
+        if (!hadSets || workoutRepository.patch(workout, CosmosPatchOperations.create().add(path, newSet),
+                WorkoutRepository.exerciseAt(workout, exercise)).isEmpty()) {
+            // No sets yet, or the exercises were reordered since the read: append to the current document
+            String id = String.valueOf(exercise.getId());
+            workoutRepository.updateWithRetry(workout, w -> {
+                Exercise target = ExerciseService.findExerciseInWorkout(w, id);
+                if (target != null) {
+                    if (target.getSets() == null) {
+                        target.setSets(new ArrayList<>());
+                    }
+                    target.getSets().add(newSet);
+                }
+            });
+        }
+        lookupIndexService.indexSet(workout, exercise, newSet);
+        exerciseStatsService.recordSet(workout, exercise, newSet);
         return newSet;
     }
 
-    public void deleteSet(Long id) {
+    public boolean deleteSet(Long id) {
+        return deleteSet(id, null, null);
+    }
+
+    // Only the workout that holds the set is touched, whatever the number of workouts in the container.
+    // workoutId/exerciseId are optional hints from the caller, checked against the document before use
+    public boolean deleteSet(Long id, String workoutId, String exerciseId) {
         String setId = String.valueOf(id);
-        List<Workout> workouts = cosmosDBService.findAll("workouts", Workout.class);
-        
-        for (Workout workout : workouts) {
-            if (workout.getExercises() != null) {
-                for (Exercise exercise : workout.getExercises()) {
-                    if (exercise.getSets() != null) {
-                        exercise.getSets().removeIf(s ->
-                                setId.equals(s.getId()) ||
-                                        String.valueOf(s.getId()).equals(setId)
-                        );
-                    }
-                }
-            }
-            cosmosDBService.update("workouts", workout, workout.getUserId(), Workout.class);
+        Set set = locateSet(id, workoutId, exerciseId);
+        if (set == null) {
+            return false;
+        }
+
+        // Remove just that array element, guarded so a concurrent reorder cannot remove a different set
+        Exercise exercise = set.getExercise();
+        Workout workout = exercise.getWorkout();
+        String path = WorkoutRepository.setPath(workout, exercise, set);
+        String predicate = WorkoutRepository.setAt(workout, exercise, set);
+        removeSetFromWorkout(workout, setId);
+        if (workoutRepository.patch(workout, CosmosPatchOperations.create().remove(path), predicate).isEmpty()) {
+            workoutRepository.updateWithRetry(workout, w -> removeSetFromWorkout(w, setId));
         }
+        lookupIndexService.removeSet(setId);
+        exerciseStatsService.removeSet(exercise, setId);
+        redisCache.evict(List.of(CacheEntity.SET.key(setId)));
+        return true;
     }
 
     public Set updateSet(Long id, Set newValuesSet) {
         Set set = getSetById(id);
         if (set != null) {
-            set.updateValuesSet(newValuesSet.getReps(), newValuesSet.getWeight(),
-                    newValuesSet.getDuration(), newValuesSet.getExercise());
             Exercise exercise = set.getExercise();
-            cosmosDBService.update("workouts", exercise.getWorkout(), exercise.getWorkout().getUserId(), Workout.class);
+            Workout workout = exercise.getWorkout();
+            set.updateValuesSet(newValuesSet.getReps(), newValuesSet.getWeight(),
+                    newValuesSet.getDuration(), exercise);
+
+            String path = WorkoutRepository.setPath(workout, exercise, set);
+            CosmosPatchOperations operations = CosmosPatchOperations.create()
+                    .set(path + "/reps", set.getReps())
+                    .set(path + "/weight", set.getWeight())
+                    .set(path + "/duration", set.getDuration());
+            if (workoutRepository.patch(workout, operations, WorkoutRepository.setAt(workout, exercise, set)).isEmpty()) {
+                String setId = String.valueOf(set.getId());
+                workoutRepository.updateWithRetry(workout, w -> {
+                    Set target = findSetInWorkout(w, setId);
+                    if (target != null) {
+                        target.updateValuesSet(set.getReps(), set.getWeight(), set.getDuration(), target.getExercise());
+                    }
+                });
+            }
+            exerciseStatsService.recordSet(workout, exercise, set);
         }
         return set;
     }
+
+    // Finds the set with one point read of its workout: from the caller's workout or exercise hint, else the
+    // lookup index. Only when neither knows the set does a query look for it, filtered server-side
+    private Set locateSet(Long id, String workoutId, String exerciseId) {
+        String setId = String.valueOf(id);
+
+        if (workoutId != null) {
+            Set set = workoutRepository.findById(workoutId).map(workout -> findSetInWorkout(workout, setId)).orElse(null);
+            if (set != null) {
+                return set;
+            }
+        }
+        if (exerciseId != null) {
+            Set set = findInEntry(lookupIndexService.findExercise(exerciseId), setId);
+            if (set != null) {
+                return set;
+            }
+        }
+
+        Optional<LookupEntry> entry = lookupIndexService.findSet(setId);
+        Set set = findInEntry(entry, setId);
+        if (set != null) {
+            return set;
+        }
+        if (entry.isPresent()) {
+            logger.warning("Stale lookup entry for set: " + setId);
+        }
+
+        // Not indexed yet: query for the workout that contains it and repair the index
+        for (Workout workout : workoutRepository.findBySetId(id)) {
+            set = findSetInWorkout(workout, setId);
+            if (set != null) {
+                lookupIndexService.indexSet(workout, set.getExercise(), set);
+                return set;
+            }
+        }
+        return null;
+    }
+
+    private Set findInEntry(Optional<LookupEntry> entry, String setId) {
+        if (entry.isEmpty()) {
+            return null;
+        }
+        return workoutRepository.findById(entry.get().getWorkoutId(), entry.get().getUserId())
+                .map(workout -> findSetInWorkout(workout, setId))
+                .orElse(null);
+    }
+
+    private static Set findSetInWorkout(Workout workout, String setId) {
+        if (workout.getExercises() != null) {
+            for (Exercise exercise : workout.getExercises()) {
+                if (exercise.getSets() != null) {
+                    for (Set set : exercise.getSets()) {
+                        if (String.valueOf(set.getId()).equals(setId)) {
+                            exercise.setWorkout(workout);
+                            set.setExercise(exercise);
+                            return set;
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean removeSetFromWorkout(Workout workout, String setId) {
+        boolean removed = false;
+        if (workout.getExercises() != null) {
+            for (Exercise exercise : workout.getExercises()) {
+                if (exercise.getSets() != null) {
+                    removed |= exercise.getSets().removeIf(s -> String.valueOf(s.getId()).equals(setId));
+                }
+            }
+        }
+        return removed;
+    }
 }
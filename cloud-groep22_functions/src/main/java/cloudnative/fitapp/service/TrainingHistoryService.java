@@ -0,0 +1,326 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.domain.Bodyweight;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.Progress;
+import cloudnative.fitapp.domain.ProgressEntry;
+import cloudnative.fitapp.domain.Set;
+import cloudnative.fitapp.domain.User;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.repository.ProgressRepository;
+import cloudnative.fitapp.repository.UserRepository;
+import cloudnative.fitapp.repository.WorkoutRepository;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+// Imports and exports a user's training history as NDJSON: one record per line, parents before children.
+//   {"record":"workout","id":"w1","name":"Push","rest":60}
+//   {"record":"exercise","id":"e1","workoutId":"w1","name":"Bench press","type":"WEIGHTS",...}
+//   {"record":"set","exerciseId":"e1","reps":8,"weight":60,"duration":0}
+//   {"record":"progress","exerciseId":"e1","weight":60.0,"date":"2024-01-31T18:00:00.000+00:00"}
+//   {"record":"bodyweight","bodyWeight":80.5,"date":"31-01-2024"}
+// Ids in the file only link records to each other; imported entities get new ids so they never collide.
+// Records are written in chunks of workouts as they are read, so a workout's exercises, sets and progress must come
+// before IMPORT_CHUNK_WORKOUTS more workouts start, as they do in an export.
+public class TrainingHistoryService {
+
+    private static final Logger logger = Logger.getLogger(TrainingHistoryService.class.getName());
+
+    public static final int MAX_IMPORT_ROWS = 200_000;
+    // Workouts parsed before their records are written, with their exercises, sets and progress
+    public static final int IMPORT_CHUNK_WORKOUTS = 100;
+    // The user document holds every bodyweight entry, each about 75 bytes of JSON, so this keeps it far below
+    // Cosmos DB's 2 MB item limit
+    public static final int MAX_BODYWEIGHTS = 10_000;
+
+    private static final String RECORD = "record";
+    private static final String WORKOUT_ID = "workoutId";
+    private static final String EXERCISE_ID = "exerciseId";
+
+    // Imported ids are unique within this worker and far from the millisecond ids the app generates itself
+    private static final AtomicLong nextId = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    private final ObjectMapper objectMapper;
+    private final UserRepository userRepository;
+    private final WorkoutRepository workoutRepository;
+    private final ProgressRepository progressRepository;
+    private final ProgressService progressService;
+    private final ExerciseStatsService exerciseStatsService;
+    private final RollupService rollupService;
+
+    public TrainingHistoryService(UserRepository userRepository, WorkoutRepository workoutRepository,
+                                  ProgressRepository progressRepository, ProgressService progressService,
+                                  ExerciseStatsService exerciseStatsService, RollupService rollupService) {
+        this.userRepository = userRepository;
+        this.workoutRepository = workoutRepository;
+        this.progressRepository = progressRepository;
+        this.progressService = progressService;
+        this.exerciseStatsService = exerciseStatsService;
+        this.rollupService = rollupService;
+
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    }
+
+    // Parses the records one line at a time and writes them a chunk of IMPORT_CHUNK_WORKOUTS workouts at a time:
+    // the workouts and their progress entries with bulk execution, then the chunk's stats and rollups. Only the
+    // current chunk is held in memory. The bodyweight entries and workout links follow with a single update of
+    // the user document, which is rejected before it is written if it would hold more than MAX_BODYWEIGHTS entries
+    public Map<String, Object> importHistory(String userId, Reader ndjson) {
+        long start = System.currentTimeMillis();
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new IllegalArgumentException("User not found with id: " + userId));
+
+        int existingBodyweights = user.getBodyweightList() != null ? user.getBodyweightList().size() : 0;
+        ImportChunk chunk = new ImportChunk();
+        List<String> savedIds = new ArrayList<>();
+        List<Bodyweight> bodyweights = new ArrayList<>();
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        int failedWorkouts = 0;
+        int failedProgress = 0;
+        int rows = 0;
+
+        try (MappingIterator<JsonNode> records = objectMapper.readerFor(JsonNode.class).readValues(ndjson)) {
+            while (records.hasNextValue()) {
+                ObjectNode node = asRecord(records.nextValue(), ++rows);
+                if (rows > MAX_IMPORT_ROWS) {
+                    throw new IllegalArgumentException("Import is limited to " + MAX_IMPORT_ROWS + " rows");
+                }
+
+                String type = node.remove(RECORD).asText();
+                switch (type) {
+                    case "workout" -> {
+                        if (chunk.workouts.size() == IMPORT_CHUNK_WORKOUTS) {
+                            flush(userId, chunk, savedIds);
+                            failedWorkouts += chunk.failedWorkouts;
+                            failedProgress += chunk.failedProgress;
+                            chunk = new ImportChunk();
+                        }
+                        String fileId = node.path("id").asText();
+                        Workout workout = objectMapper.treeToValue(withoutId(node), Workout.class);
+                        workout.setId(newId());
+                        workout.setUserId(userId);
+                        workout.setExercises(new ArrayList<>());
+                        chunk.workouts.put(fileId, workout);
+                    }
+                    case "exercise" -> {
+                        Workout workout = parent(chunk.workouts, node.remove(WORKOUT_ID), rows, "workout");
+                        String fileId = node.path("id").asText();
+                        Exercise exercise = objectMapper.treeToValue(withoutId(node), Exercise.class);
+                        exercise.setId(newId());
+                        exercise.setSets(new ArrayList<>());
+                        exercise.setProgressList(new ArrayList<>());
+                        exercise.setOrderIndex(workout.getExercises().size());
+                        exercise.setWorkout(workout);
+                        workout.getExercises().add(exercise);
+                        chunk.exercises.put(fileId, exercise);
+                    }
+                    case "set" -> {
+                        Exercise exercise = parent(chunk.exercises, node.remove(EXERCISE_ID), rows, "exercise");
+                        Set set = objectMapper.treeToValue(withoutId(node), Set.class);
+                        set.setId(newId());
+                        exercise.getSets().add(set);
+                    }
+                    case "progress" -> {
+                        Exercise exercise = parent(chunk.exercises, node.remove(EXERCISE_ID), rows, "exercise");
+                        Progress progress = objectMapper.treeToValue(withoutId(node), Progress.class);
+                        progress.setId(newId());
+                        chunk.progressEntries.add(new ProgressEntry(exercise.getWorkout(), exercise, progress));
+                    }
+                    case "bodyweight" -> {
+                        Bodyweight bodyweight = objectMapper.treeToValue(withoutId(node), Bodyweight.class);
+                        if (existingBodyweights + bodyweights.size() >= MAX_BODYWEIGHTS) {
+                            throw new IllegalArgumentException("Line " + rows + ": a user can have at most "
+                                    + MAX_BODYWEIGHTS + " bodyweight entries");
+                        }
+                        bodyweight.setId(newId());
+                        bodyweights.add(bodyweight);
+                    }
+                    default -> throw new IllegalArgumentException("Line " + rows + ": unknown record type '" + type + "'");
+                }
+                counts.merge(type, 1, Integer::sum);
+            }
+            flush(userId, chunk, savedIds);
+            failedWorkouts += chunk.failedWorkouts;
+            failedProgress += chunk.failedProgress;
+        } catch (IOException e) {
+            throw rejected(user, savedIds, "Line " + rows + ": " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw rejected(user, savedIds, e.getMessage());
+        }
+
+        if (!savedIds.isEmpty() || !bodyweights.isEmpty()) {
+            userRepository.updateWithRetry(user, u -> {
+                savedIds.forEach(id -> UserService.addWorkoutId(id).accept(u));
+                if (u.getBodyweightList() == null) {
+                    u.setBodyweightList(new ArrayList<>());
+                }
+                u.getBodyweightList().addAll(bodyweights);
+            });
+            rollupService.recordBodyweight(userId, bodyweights);
+        }
+
+        long millis = Math.max(System.currentTimeMillis() - start, 1);
+        logger.info("Imported " + rows + " rows for user " + userId + " in " + millis + " ms");
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rows", rows);
+        result.put("records", counts);
+        result.put("failedWorkouts", failedWorkouts);
+        result.put("failedProgress", failedProgress);
+        result.put("millis", millis);
+        result.put("rowsPerSecond", rows * 1000L / millis);
+        return result;
+    }
+
+    // Writes one chunk and adds the ids of the workouts that were saved; progress of a workout that failed is skipped
+    private void flush(String userId, ImportChunk chunk, List<String> savedIds) {
+        if (chunk.workouts.isEmpty()) {
+            return;
+        }
+        List<Workout> toSave = new ArrayList<>(chunk.workouts.values());
+        Collection<String> failedIds = new HashSet<>(workoutRepository.saveAll(toSave));
+        toSave.stream().map(Workout::getId).filter(id -> !failedIds.contains(id)).forEach(savedIds::add);
+
+        List<ProgressEntry> toAppend = chunk.progressEntries.stream()
+                .filter(entry -> !failedIds.contains(entry.getWorkoutId())).toList();
+        Collection<String> failedProgressIds = new HashSet<>(toAppend.isEmpty() ? List.of() : progressRepository.saveAll(toAppend));
+
+        // Fold the chunk's progress into the stats and rollups with one write per exercise and bucket
+        Map<String, List<Progress>> appended = toAppend.stream()
+                .filter(entry -> !failedProgressIds.contains(entry.getId()))
+                .collect(Collectors.groupingBy(ProgressEntry::getExerciseId,
+                        Collectors.mapping(ProgressEntry::toProgress, Collectors.toList())));
+        for (Exercise exercise : chunk.exercises.values()) {
+            List<Progress> progressList = appended.get(String.valueOf(exercise.getId()));
+            if (progressList != null) {
+                exerciseStatsService.recordProgress(exercise.getWorkout(), exercise, progressList);
+                rollupService.recordProgress(userId, String.valueOf(exercise.getId()), progressList);
+            }
+        }
+
+        chunk.failedWorkouts = failedIds.size();
+        chunk.failedProgress = failedProgressIds.size();
+    }
+
+    // Chunks before the bad line are already written: link their workouts to the user so they are not orphaned,
+    // and say so in the error
+    private IllegalArgumentException rejected(User user, List<String> savedIds, String message) {
+        if (savedIds.isEmpty()) {
+            return new IllegalArgumentException(message);
+        }
+        userRepository.updateWithRetry(user, u -> savedIds.forEach(id -> UserService.addWorkoutId(id).accept(u)));
+        logger.warning("Import for user " + user.getId() + " stopped after " + savedIds.size() + " workouts: " + message);
+        return new IllegalArgumentException(message + " (the " + savedIds.size() + " workouts before it were imported)");
+    }
+
+    // Writes the user's history in the import format, one workout document at a time
+    public void exportHistory(String userId, OutputStream out) {
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new IllegalArgumentException("User not found with id: " + userId));
+
+        try (SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(out)) {
+            for (Workout workout : progressService.attachHistory(userId, workoutRepository.findByUserId(userId))) {
+                ObjectNode workoutNode = objectMapper.valueToTree(workout);
+                workoutNode.remove("exercises");
+                writeRecord(writer, "workout", null, null, workoutNode);
+
+                if (workout.getExercises() == null) {
+                    continue;
+                }
+                for (Exercise exercise : workout.getExercises()) {
+                    String exerciseId = String.valueOf(exercise.getId());
+                    ObjectNode exerciseNode = objectMapper.valueToTree(exercise);
+                    exerciseNode.remove("sets");
+                    exerciseNode.remove("progressList");
+                    writeRecord(writer, "exercise", WORKOUT_ID, workout.getId(), exerciseNode);
+
+                    if (exercise.getSets() != null) {
+                        for (Set set : exercise.getSets()) {
+                            writeRecord(writer, "set", EXERCISE_ID, exerciseId, objectMapper.valueToTree(set));
+                        }
+                    }
+                    if (exercise.getProgressList() != null) {
+                        for (Progress progress : exercise.getProgressList()) {
+                            writeRecord(writer, "progress", EXERCISE_ID, exerciseId, objectMapper.valueToTree(progress));
+                        }
+                    }
+                }
+            }
+
+            if (user.getBodyweightList() != null) {
+                for (Bodyweight bodyweight : user.getBodyweightList()) {
+                    writeRecord(writer, "bodyweight", null, null, objectMapper.valueToTree(bodyweight));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error exporting history: " + e.getMessage(), e);
+        }
+    }
+
+    private void writeRecord(SequenceWriter writer, String type, String parentField, String parentId,
+                             ObjectNode fields) throws IOException {
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put(RECORD, type);
+        if (parentField != null) {
+            record.put(parentField, parentId);
+        }
+        record.setAll(fields);
+        writer.write(record);
+    }
+
+    private static ObjectNode asRecord(JsonNode node, int line) {
+        if (!node.isObject() || !node.hasNonNull(RECORD)) {
+            throw new IllegalArgumentException("Line " + line + ": expected an object with a \"record\" field");
+        }
+        return (ObjectNode) node;
+    }
+
+    private static <T> T parent(Map<String, T> parents, JsonNode fileId, int line, String type) {
+        T parent = fileId != null ? parents.get(fileId.asText()) : null;
+        if (parent == null) {
+            throw new IllegalArgumentException("Line " + line + ": unknown " + type + " id " + fileId
+                    + " (a record must follow its parent, within " + IMPORT_CHUNK_WORKOUTS + " workouts)");
+        }
+        return parent;
+    }
+
+    private static ObjectNode withoutId(ObjectNode node) {
+        node.remove("id");
+        return node;
+    }
+
+    private static String newId() {
+        return String.valueOf(nextId.getAndIncrement());
+    }
+
+    // The records of the workouts being parsed, and what writing them failed on
+    private static class ImportChunk {
+        private final Map<String, Workout> workouts = new LinkedHashMap<>();
+        private final Map<String, Exercise> exercises = new HashMap<>();
+        private final List<ProgressEntry> progressEntries = new ArrayList<>();
+        private int failedWorkouts;
+        private int failedProgress;
+    }
+}
@@ -2,9 +2,16 @@ package cloudnative.fitapp.service;
 
 import cloudnative.fitapp.domain.User;
 import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.repository.UserRepository;
+import cloudnative.fitapp.repository.WorkoutRepository;
 import cloudnative.fitapp.security.SimplePasswordEncoder;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 
 public class UserService {
@@ -12,10 +19,18 @@ public class UserService {
     private static final Logger logger = Logger.getLogger(UserService.class.getName());
     private final CosmosDBService cosmosDBService;
     private final SimplePasswordEncoder passwordEncoder;
+    private final UserRepository userRepository;
+    private final WorkoutRepository workoutRepository;
+    private final WriteBehindBuffer writeBehindBuffer;
 
-    public UserService(CosmosDBService cosmosDBService, SimplePasswordEncoder passwordEncoder) {
+    public UserService(CosmosDBService cosmosDBService, SimplePasswordEncoder passwordEncoder,
+                       UserRepository userRepository, WorkoutRepository workoutRepository,
+                       WriteBehindBuffer writeBehindBuffer) {
         this.cosmosDBService = cosmosDBService;
         this.passwordEncoder = passwordEncoder;
+        this.userRepository = userRepository;
+        this.workoutRepository = workoutRepository;
+        this.writeBehindBuffer = writeBehindBuffer;
     }
 
     public User createUser(String name, String email, String password) {
@@ -23,13 +38,7 @@ public class UserService {
             logger.info("Creating user with email: " + email);
 
             // Check if user already exists
-            String query = String.format("SELECT * FROM c WHERE c.email = '%s'", email);
-            logger.info("Checking for existing user with query: " + query);
-
-            List<User> existingUsers = cosmosDBService.query("users", query, User.class);
-            logger.info("Existing users found: " + existingUsers.size());
-
-            if (!existingUsers.isEmpty()) {
+            if (userRepository.findByEmail(email).isPresent()) {
                 logger.warning("User already exists with email: " + email);
                 throw new IllegalArgumentException("Email is already in use");
             }
@@ -38,7 +47,7 @@ public class UserService {
             newUser.setId(String.valueOf(System.currentTimeMillis()));
             logger.info("Created user object with ID: " + newUser.getId());
 
-            User savedUser = cosmosDBService.save("users", newUser, email, User.class);
+            User savedUser = userRepository.save(newUser);
             logger.info("Saved user to database: " + (savedUser != null ? savedUser.getId() : "null"));
 
             return savedUser;
@@ -51,9 +60,7 @@ public class UserService {
 
     public User getUserById(String id) {
         try {
-            String query = String.format("SELECT * FROM c WHERE c.id = '%s'", id);
-            List<User> users = cosmosDBService.query("users", query, User.class);
-            return users.isEmpty() ? null : users.get(0);
+            return userRepository.findById(id).orElse(null);
         } catch (Exception e) {
             logger.severe("Error getting user by ID: " + e.getMessage());
             return null;
@@ -62,9 +69,7 @@ public class UserService {
 
     public User getUserByEmail(String email) {
         try {
-            String query = String.format("SELECT * FROM c WHERE c.email = '%s'", email);
-            List<User> users = cosmosDBService.query("users", query, User.class);
-            return users.isEmpty() ? null : users.get(0);
+            return userRepository.findByEmail(email).orElse(null);
         } catch (Exception e) {
             logger.severe("Error getting user by email: " + e.getMessage());
             return null;
@@ -74,7 +79,7 @@ public class UserService {
     public boolean deleteUser(String id) {
         User user = getUserById(id);
         if (user != null) {
-            cosmosDBService.deleteById("users", id, user.getEmail());
+            userRepository.delete(user);
             return true;
         }
         return false;
@@ -86,17 +91,24 @@ public class UserService {
             throw new RuntimeException("User not found with ID: " + userId);
         }
 
-        String query = String.format("SELECT * FROM c WHERE c.userId = '%s'", userId);
-        return cosmosDBService.query("workouts", query, Workout.class);
+        return workoutRepository.findByUserId(userId);
     }
 
     public void completedWorkout(String userId) {
+        if (!writeBehindBuffer.isEnabled()) {
+            // Server-side increment: no read of the user document once its partition key is known
+            userRepository.patch(userId, CosmosPatchOperations.create().increment("/streakProgress", 1))
+                    .orElseThrow(() -> new RuntimeException("User not found with ID: " + userId));
+            return;
+        }
+
         User user = getUserById(userId);
         if (user == null) {
             throw new RuntimeException("User not found with ID: " + userId);
         }
-        user.setStreakProgress(user.getStreakProgress() + 1);
-        cosmosDBService.update("users", user, user.getEmail(), User.class);
+        Consumer<User> increment = u -> u.setStreakProgress(u.getStreakProgress() + 1);
+        increment.accept(user);
+        userRepository.deferUpdate(user, increment);
     }
 
     public void updateStreakGoal(String userId, Integer streakGoal) {
@@ -108,7 +120,7 @@ public class UserService {
             throw new RuntimeException("Streak goal must be between 0 and 7");
         }
         user.setStreakGoal(streakGoal);
-        cosmosDBService.update("users", user, user.getEmail(), User.class);
+        userRepository.update(user);
     }
 
     public void updatePassword(String userId, String currentPassword, String newPassword) {
@@ -124,33 +136,63 @@ public class UserService {
             throw new RuntimeException("New password must be at least 8 characters long");
         }
         user.setPassword(passwordEncoder.encode(newPassword));
-        cosmosDBService.update("users", user, user.getEmail(), User.class);
+        userRepository.update(user);
     }
 
     public List<User> getAllUsers() {
-        return cosmosDBService.findAll("users", User.class);
+        return userRepository.findAll();
+    }
+
+    public Stream<User> streamAllUsers() {
+        return userRepository.streamAll();
+    }
+
+    public Page<User> getAllUsers(int pageSize, String continuationToken) {
+        return userRepository.findPage(pageSize, continuationToken);
     }
 
     public User updateUser(String email, User updatedUser) {
-        List<User> existingUsers = cosmosDBService.query("users",
-                String.format("SELECT * FROM c WHERE c.email = '%s'", email), User.class);
+        User existingUser = userRepository.findByEmail(email)
+                .orElseThrow(() -> new RuntimeException("User not found with email: " + email));
 
-        if (existingUsers.isEmpty()) {
-            throw new RuntimeException("User not found with email: " + email);
-        }
+        return userRepository.updateWithRetry(existingUser, user -> {
+            user.setName(updatedUser.getName());
+            if (updatedUser.getPassword() != null) {
+                user.setPassword(updatedUser.getPassword());
+            }
+            if (updatedUser.getStreakGoal() != null) {
+                user.setStreakGoal(updatedUser.getStreakGoal());
+            }
+            if (updatedUser.getStreakProgress() != null) {
+                user.setStreakProgress(updatedUser.getStreakProgress());
+            }
+        }).orElseThrow(() -> new RuntimeException("User not found with email: " + email));
+    }
 
-        User existingUser = existingUsers.get(0);
-        existingUser.setName(updatedUser.getName());
-        if (updatedUser.getPassword() != null) {
-            existingUser.setPassword(updatedUser.getPassword());
-        }
-        if (updatedUser.getStreakGoal() != null) {
-            existingUser.setStreakGoal(updatedUser.getStreakGoal());
-        }
-        if (updatedUser.getStreakProgress() != null) {
-            existingUser.setStreakProgress(updatedUser.getStreakProgress());
-        }
+    public void addWorkoutId(User user, String workoutId) {
+        userRepository.updateWithRetry(user, addWorkoutId(workoutId));
+    }
+
+    public void removeWorkoutId(User user, String workoutId) {
+        userRepository.updateWithRetry(user, removeWorkoutId(workoutId));
+    }
+
+    public static Consumer<User> addWorkoutId(String workoutId) {
+        return user -> {
+            if (user.getWorkoutIds() == null) {
+                user.setWorkoutIds(new ArrayList<>());
+            }
+            if (!user.getWorkoutIds().contains(workoutId)) {
+                user.getWorkoutIds().add(workoutId);
+            }
+        };
+    }
 
-        return cosmosDBService.update("users", existingUser, existingUser.getEmail(), User.class);
+    public static Consumer<User> removeWorkoutId(String workoutId) {
+        return user -> {
+            if (user.getWorkoutIds() != null) {
+                user.getWorkoutIds().remove(workoutId);
+            }
+        };
     }
 }
\ No newline at end of file
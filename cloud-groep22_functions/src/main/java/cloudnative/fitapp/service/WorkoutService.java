@@ -3,7 +3,8 @@ package cloudnative.fitapp.service;
 import cloudnative.fitapp.domain.Exercise;
 import cloudnative.fitapp.domain.User;
 import cloudnative.fitapp.domain.Workout;
-import java.util.ArrayList;
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.repository.WorkoutRepository;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,10 +13,15 @@ public class WorkoutService {
 
     private final CosmosDBService cosmosDBService;
     private final UserService userService;
+    private final LookupIndexService lookupIndexService;
+    private final WorkoutRepository workoutRepository;
 
-    public WorkoutService(CosmosDBService cosmosDBService, UserService userService) {
+    public WorkoutService(CosmosDBService cosmosDBService, UserService userService,
+                          LookupIndexService lookupIndexService, WorkoutRepository workoutRepository) {
         this.cosmosDBService = cosmosDBService;
         this.userService = userService;
+        this.lookupIndexService = lookupIndexService;
+        this.workoutRepository = workoutRepository;
     }
 
     public Workout createWorkout(String workoutName, String userId) {
@@ -29,27 +35,30 @@ public class WorkoutService {
             workout.setId(String.valueOf(System.currentTimeMillis()));
             workout.setUserId(userId);
 
-            // Update user's workout IDs
-            if (user.getWorkoutIds() == null) {
-                user.setWorkoutIds(new ArrayList<>());
+            Workout saved = workoutRepository.save(workout);
+            try {
+                userService.addWorkoutId(user, workout.getId());
+            } catch (RuntimeException e) {
+                // The user is in another container, so both writes cannot share a transaction: undo the save
+                workoutRepository.delete(workout);
+                throw e;
             }
-            user.getWorkoutIds().add(workout.getId());
-            userService.updateUser(user.getEmail(), user);
-
-            return cosmosDBService.save("workouts", workout, userId, Workout.class);
+            return saved;
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage());
         }
     }
 
     public List<Workout> getAllWorkouts() {
-        return cosmosDBService.findAll("workouts", Workout.class);
+        return workoutRepository.findAll();
+    }
+
+    public Page<Workout> getAllWorkouts(int pageSize, String continuationToken) {
+        return workoutRepository.findPage(pageSize, continuationToken);
     }
 
     public Optional<Workout> getWorkoutById(String id) {
-        String query = String.format("SELECT * FROM c WHERE c.id = '%s'", id);
-        List<Workout> workouts = cosmosDBService.query("workouts", query, Workout.class);
-        return workouts.isEmpty() ? Optional.empty() : Optional.of(workouts.get(0));
+        return workoutRepository.findById(id);
     }
 
     public void deleteWorkout(String id) {
@@ -59,12 +68,11 @@ public class WorkoutService {
 
             // Remove workout ID from user
             User user = userService.getUserById(workout.getUserId());
+            // Delete first: if it fails the user still links to a workout that exists
+            workoutRepository.delete(workout);
             if (user != null && user.getWorkoutIds() != null) {
-                user.getWorkoutIds().remove(workout.getId());
-                userService.updateUser(user.getEmail(), user);
+                userService.removeWorkoutId(user, workout.getId());
             }
-
-            cosmosDBService.deleteById("workouts", id, workout.getUserId());
         }
     }
 
@@ -78,7 +86,7 @@ public class WorkoutService {
         workout.setName(workoutName);
         workout.setRest(rest);
 
-        return cosmosDBService.update("workouts", workout, workout.getUserId(), Workout.class);
+        return workoutRepository.update(workout);
     }
 
     public Exercise addExerciseToWorkout(String workoutId, Exercise exercise, String goal) {
@@ -88,12 +96,12 @@ public class WorkoutService {
         Exercise newExercise = new Exercise(exercise.getName(), exercise.getType(), goal);
         newExercise = workout.addExercise(newExercise);
 
-        cosmosDBService.update("workouts", workout, workout.getUserId(), Workout.class);
+        workoutRepository.update(workout);
+        lookupIndexService.indexExercise(workout, newExercise);
         return newExercise;
     }
 
     public List<Workout> getWorkoutsByUserId(String userId) {
-        String query = String.format("SELECT * FROM c WHERE c.userId = '%s'", userId);
-        return cosmosDBService.query("workouts", query, Workout.class);
+        return workoutRepository.findByUserId(userId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,257 @@
+package cloudnative.fitapp.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// Coalesces small updates to the same document (streak progress, bodyweight entries, auto-increase steps)
+// into one read + conditional replace per document per window, instead of a full replace per request.
+//
+// Durability contract, opt-in through FITAPP_WRITE_BEHIND_ENABLED=true:
+// - a queued update is acknowledged to the caller before it is written; it is persisted within the flush
+//   window, on shutdown, or as soon as MAX_PENDING updates are queued for the document
+// - if the worker dies without a clean shutdown, updates queued on it are lost
+// - reads through the repositories on the same worker see queued updates, including those of a batch that is
+//   being written (the read waits for that write); other workers and cached reads only see them after the flush
+// - the write back is an ETag conditional replace (CosmosDBService.updateWithRetry), so concurrent writers are
+//   never overwritten; on a conflict the document is re-read and the queued updates are re-applied
+public class WriteBehindBuffer {
+
+    private static final Logger logger = Logger.getLogger(WriteBehindBuffer.class.getName());
+
+    private static final long FLUSH_WINDOW_MILLIS = 2000;
+    private static final int MAX_PENDING = 50;
+    // How long a read waits for an in-flight flush of the same document before reading without it
+    private static final long AWAIT_FLUSH_MILLIS = 10000;
+
+    private final CosmosDBService cosmosDBService;
+    private final boolean enabled;
+    private final long flushWindowMillis;
+    private final ConcurrentHashMap<String, Batch<?>> pending = new ConcurrentHashMap<>();
+    // Batches taken out of pending whose write has not been acknowledged yet
+    private final ConcurrentHashMap<String, Batch<?>> inFlight = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public WriteBehindBuffer(CosmosDBService cosmosDBService, boolean enabled, long flushWindowMillis) {
+        this.cosmosDBService = cosmosDBService;
+        this.enabled = enabled;
+        this.flushWindowMillis = flushWindowMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // The buffer of this worker, configured through FITAPP_WRITE_BEHIND_ENABLED; built once by the ApplicationContext
+    public static WriteBehindBuffer fromEnvironment(CosmosDBService cosmosDBService) {
+        boolean enabled = "true".equalsIgnoreCase(System.getenv("FITAPP_WRITE_BEHIND_ENABLED"));
+        WriteBehindBuffer buffer = new WriteBehindBuffer(cosmosDBService, enabled, FLUSH_WINDOW_MILLIS);
+        if (enabled) {
+            logger.info("Write-behind enabled, flush window " + FLUSH_WINDOW_MILLIS + " ms");
+            Runtime.getRuntime().addShutdownHook(new Thread(buffer::close, "write-behind-shutdown"));
+        }
+        return buffer;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Queues a mutation of a document. onFlushed runs with the written document after a successful flush,
+    // e.g. to evict cached copies of it
+    public <T> void enqueue(String containerName, String id, String partitionKey, Class<T> clazz,
+                            Consumer<T> mutation, Consumer<T> onFlushed) {
+        String key = keyOf(containerName, id);
+        while (true) {
+            Batch<?> batch = pending.computeIfAbsent(key,
+                    k -> new Batch<>(containerName, id, partitionKey, clazz, onFlushed));
+            int size = batch.add(clazz, mutation);
+            if (size < 0) {
+                // Closed by a flush that is in progress; start a new batch for this document
+                pending.remove(key, batch);
+                continue;
+            }
+            if (size == 1) {
+                scheduler.schedule(() -> flush(key), flushWindowMillis, TimeUnit.MILLISECONDS);
+            } else if (size == MAX_PENDING) {
+                scheduler.execute(() -> flush(key));
+            }
+            return;
+        }
+    }
+
+    // Reads a document and applies its queued mutations to the copy, so this worker reads its own writes.
+    // A batch that is being written may or may not be in what Cosmos returns, so the read waits until that write
+    // is acknowledged instead of guessing, and reads again if a flush started while it was reading
+    public <T> Optional<T> overlay(String containerName, String id, Supplier<Optional<T>> read) {
+        if (!enabled) {
+            return read.get();
+        }
+        String key = keyOf(containerName, id);
+        while (true) {
+            // Pending before in-flight: flush moves a batch in the other order, so it is never missed in between
+            Batch<?> queued = pending.get(key);
+            awaitWritten(key, inFlight.get(key));
+            Optional<T> document = read.get();
+            if (queued == null || document.isEmpty() || queued.applyIfOpen(document.get())) {
+                return document;
+            }
+            awaitWritten(key, queued);
+        }
+    }
+
+    public int pendingCount() {
+        return pending.values().stream().mapToInt(Batch::size).sum();
+    }
+
+    // Writes every queued update now; returns the number of documents that could not be written
+    public int flushAll() {
+        int failed = 0;
+        for (String key : new ArrayList<>(pending.keySet())) {
+            if (!flush(key)) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    public void close() {
+        scheduler.shutdown();
+        int failed = flushAll();
+        if (failed > 0) {
+            logger.severe("Write-behind shutdown: " + failed + " documents could not be written");
+        }
+    }
+
+    private boolean flush(String key) {
+        Batch<?> batch = pending.get(key);
+        if (batch == null) {
+            return true;
+        }
+        inFlight.put(key, batch);
+        pending.remove(key, batch);
+        try {
+            return batch.flush(cosmosDBService);
+        } finally {
+            inFlight.remove(key, batch);
+        }
+    }
+
+    private static void awaitWritten(String key, Batch<?> batch) {
+        if (batch == null) {
+            return;
+        }
+        try {
+            batch.written.get(AWAIT_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warning("Write-behind: reading " + key + " without waiting for its flush: " + e.getMessage());
+        }
+    }
+
+    private static String keyOf(String containerName, String id) {
+        return containerName + ":" + id;
+    }
+
+    private static class Batch<T> {
+        private final String containerName;
+        private final String id;
+        private final String partitionKey;
+        private final Class<T> clazz;
+        private final Consumer<T> onFlushed;
+        private final List<Consumer<T>> mutations = new ArrayList<>();
+        // Completes with the outcome of the flush once Cosmos has acknowledged (or rejected) the write
+        private final CompletableFuture<Boolean> written = new CompletableFuture<>();
+        private boolean closed;
+
+        Batch(String containerName, String id, String partitionKey, Class<T> clazz, Consumer<T> onFlushed) {
+            this.containerName = containerName;
+            this.id = id;
+            this.partitionKey = partitionKey;
+            this.clazz = clazz;
+            this.onFlushed = onFlushed;
+        }
+
+        // Returns the number of queued mutations, or -1 if this batch is already being flushed
+        @SuppressWarnings("unchecked")
+        synchronized int add(Class<?> type, Consumer<?> mutation) {
+            if (closed) {
+                return -1;
+            }
+            if (type != clazz) {
+                throw new IllegalArgumentException("Document " + id + " is already queued as " + clazz.getSimpleName());
+            }
+            mutations.add((Consumer<T>) mutation);
+            return mutations.size();
+        }
+
+        synchronized int size() {
+            return mutations.size();
+        }
+
+        // Applies the queued mutations unless the batch is being flushed; false if it is, and the caller must wait
+        @SuppressWarnings("unchecked")
+        synchronized boolean applyIfOpen(Object document) {
+            if (closed) {
+                return false;
+            }
+            if (clazz.isInstance(document)) {
+                mutations.forEach(mutation -> mutation.accept((T) document));
+            }
+            return true;
+        }
+
+        // Writes the batch once; a second caller waits for the first write instead of applying the mutations again
+        boolean flush(CosmosDBService cosmosDBService) {
+            List<Consumer<T>> batch;
+            synchronized (this) {
+                if (closed) {
+                    return written.join();
+                }
+                closed = true;
+                batch = new ArrayList<>(mutations);
+            }
+            boolean succeeded = false;
+            try {
+                succeeded = write(cosmosDBService, batch);
+            } finally {
+                written.complete(succeeded);
+            }
+            return succeeded;
+        }
+
+        private boolean write(CosmosDBService cosmosDBService, List<Consumer<T>> batch) {
+            if (batch.isEmpty()) {
+                return true;
+            }
+            try {
+                Optional<T> document = cosmosDBService.updateWithRetry(containerName, id, partitionKey, clazz,
+                        current -> batch.forEach(mutation -> mutation.accept(current)));
+                if (document.isEmpty()) {
+                    logger.warning("Write-behind: document " + id + " no longer exists, dropping "
+                            + batch.size() + " updates");
+                    return true;
+                }
+                logger.info("Write-behind: wrote " + batch.size() + " updates to " + containerName + "/" + id);
+                onFlushed.accept(document.get());
+                return true;
+            } catch (RuntimeException e) {
+                logger.severe("Write-behind: failed to write " + containerName + "/" + id + ", "
+                        + batch.size() + " updates lost: " + e.getMessage());
+            }
+            return false;
+        }
+    }
+}
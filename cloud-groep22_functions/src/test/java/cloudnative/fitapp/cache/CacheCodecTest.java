@@ -0,0 +1,130 @@
+package cloudnative.fitapp.cache;
+
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.Progress;
+import cloudnative.fitapp.domain.Set;
+import cloudnative.fitapp.domain.Workout;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Size and encode/decode time of both codecs on what the cache holds: a single workout (workout:id:<id>) and
+// a user's workouts with their progress attached (workouts:user:<id>). Timings are logged, not asserted
+class CacheCodecTest {
+
+    private static final Logger logger = Logger.getLogger(CacheCodecTest.class.getName());
+
+    private static final int WARM_UP = 200;
+    private static final int ITERATIONS = 1000;
+
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final CacheCodec json = new JsonCacheCodec();
+    private final CacheCodec smile = new SmileCacheCodec();
+
+    @Test
+    void singleWorkout() throws Exception {
+        JsonNode value = tree(workout(0, 0));
+
+        Measurement jsonResult = measure(json, value);
+        Measurement smileResult = measure(smile, value);
+        report("workout:id", jsonResult, smileResult);
+
+        assertTrue(smileResult.size < jsonResult.size);
+    }
+
+    @Test
+    void userWorkoutsWithProgress() throws Exception {
+        List<Workout> workouts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            workouts.add(workout(i, 30));
+        }
+        JsonNode value = tree(workouts);
+
+        Measurement jsonResult = measure(json, value);
+        Measurement smileResult = measure(smile, value);
+        report("workouts:user", jsonResult, smileResult);
+
+        // Large enough to be deflated: the stored value must be well under half the JSON
+        assertTrue(smileResult.size * 2 < jsonResult.size);
+    }
+
+    @Test
+    void eachCodecReadsTheOthersValues() throws Exception {
+        JsonNode value = tree(List.of(workout(0, 30), workout(1, 30)));
+
+        assertEquals(value, json.decode(smile.encode(value)));
+        assertEquals(value, smile.decode(json.encode(value)));
+    }
+
+    // Through JSON text, as the cache sees it, so numbers get the node types a parser gives them
+    private JsonNode tree(Object value) throws Exception {
+        return mapper.readTree(mapper.writeValueAsBytes(value));
+    }
+
+    private static Measurement measure(CacheCodec codec, JsonNode value) throws Exception {
+        byte[] bytes = codec.encode(value);
+        assertEquals(value, codec.decode(bytes));
+
+        for (int i = 0; i < WARM_UP; i++) {
+            codec.decode(codec.encode(value));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.encode(value);
+        }
+        long encodeNanos = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decode(bytes);
+        }
+        long decodeNanos = (System.nanoTime() - start) / ITERATIONS;
+        return new Measurement(bytes.length, encodeNanos, decodeNanos);
+    }
+
+    private static void report(String payload, Measurement json, Measurement smile) {
+        logger.info(String.format("%s: json %d bytes, encode %d us, decode %d us; smile %d bytes, encode %d us, decode %d us",
+                payload, json.size, json.encodeNanos / 1000, json.decodeNanos / 1000,
+                smile.size, smile.encodeNanos / 1000, smile.decodeNanos / 1000));
+    }
+
+    // A typical plan: six exercises of four sets, each exercise with its progress history
+    private static Workout workout(int index, int progressEntries) {
+        Workout workout = new Workout("Workout " + index);
+        workout.setId("workout-" + index);
+        workout.setUserId("user-1");
+        workout.setRest(90);
+        for (int e = 0; e < 6; e++) {
+            Exercise exercise = workout.addExercise(new Exercise("Exercise " + e));
+            for (int s = 0; s < 4; s++) {
+                exercise.addSet(new Set(8 + s, 40 + 5 * e, 0));
+            }
+            List<Progress> progressList = new ArrayList<>();
+            for (int p = 0; p < progressEntries; p++) {
+                progressList.add(new Progress(40 + 2.5 * p, new Date(1_700_000_000_000L + p * 86_400_000L)));
+            }
+            exercise.setProgressList(progressList);
+        }
+        return workout;
+    }
+
+    private static class Measurement {
+        private final int size;
+        private final long encodeNanos;
+        private final long decodeNanos;
+
+        Measurement(int size, long encodeNanos, long decodeNanos) {
+            this.size = size;
+            this.encodeNanos = encodeNanos;
+            this.decodeNanos = decodeNanos;
+        }
+    }
+}
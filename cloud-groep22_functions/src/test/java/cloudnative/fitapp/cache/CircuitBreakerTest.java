@@ -0,0 +1,75 @@
+package cloudnative.fitapp.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 50;
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        AtomicInteger opened = new AtomicInteger();
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, OPEN_MILLIS, opened::incrementAndGet);
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, opened.get());
+    }
+
+    @Test
+    void letsOneProbeThroughAfterTheCoolDown() throws InterruptedException {
+        CircuitBreaker breaker = tripped();
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordSuccess();
+        assertTrue(breaker.isClosed());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    void failedProbeReopens() throws InterruptedException {
+        CircuitBreaker breaker = tripped();
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    void probeThatNeverReportsBackDoesNotBlockForever() throws InterruptedException {
+        CircuitBreaker breaker = tripped();
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        // The probe is let through, but its caller never records an outcome
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(OPEN_MILLIS + 10);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertTrue(breaker.isClosed());
+    }
+
+    private static CircuitBreaker tripped() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, OPEN_MILLIS, () -> { });
+        breaker.recordFailure();
+        return breaker;
+    }
+}
@@ -0,0 +1,44 @@
+package cloudnative.fitapp.functions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BaseFunctionHandlerTest {
+
+    private static final int CAP = 1000;
+
+    @Test
+    void writesEveryItemUpToTheCap() throws Exception {
+        byte[] body = BaseFunctionHandler.writeJsonArray(items(CAP), CAP);
+
+        JsonNode array = new ObjectMapper().readTree(body);
+        assertEquals(CAP, array.size());
+        assertEquals("set-999", array.get(CAP - 1).get("id").asText());
+    }
+
+    @Test
+    void stopsReadingPastTheCap() {
+        AtomicInteger read = new AtomicInteger();
+        Stream<Map<String, Object>> endless = Stream.generate(() -> item(read.getAndIncrement()));
+
+        assertThrows(IllegalArgumentException.class, () -> BaseFunctionHandler.writeJsonArray(endless, CAP));
+        assertEquals(CAP + 1, read.get());
+    }
+
+    private static Stream<Map<String, Object>> items(int count) {
+        return IntStream.range(0, count).mapToObj(BaseFunctionHandlerTest::item);
+    }
+
+    private static Map<String, Object> item(int index) {
+        return Map.of("id", "set-" + index, "reps", 8, "weight", 50, "duration", 0);
+    }
+}
@@ -0,0 +1,71 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.ExerciseStats;
+import cloudnative.fitapp.domain.Set;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.functions.ApplicationContext;
+import cloudnative.fitapp.security.JwtUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExerciseStatsServiceTest {
+
+    private final InMemoryCosmosDBService cosmos = new InMemoryCosmosDBService();
+    private final ApplicationContext context = new ApplicationContext(cosmos, RedisCache.disabled(),
+            new WriteBehindBuffer(cosmos, false, 0), new JwtUtil());
+
+    private Exercise exercise;
+
+    @BeforeEach
+    void seedWorkout() {
+        Workout workout = new Workout("Push");
+        workout.setId("workout-1");
+        workout.setUserId("user-1");
+        exercise = workout.addExercise(new Exercise("Bench press"));
+        context.getWorkoutRepository().save(workout);
+    }
+
+    @Test
+    void editingASetReplacesItsVolume() {
+        SetService setService = context.getSetService();
+        Set set = setService.addSetToExercise(exercise.getId(), new Set(10, 50, 0));
+        assertVolume(500, 1);
+
+        setService.updateSet(set.getId(), new Set(8, 60, 0));
+        assertVolume(480, 1);
+
+        // The same values again must not count the set twice
+        setService.updateSet(set.getId(), new Set(8, 60, 0));
+        assertVolume(480, 1);
+    }
+
+    @Test
+    void deletingASetTakesOutItsVolume() {
+        SetService setService = context.getSetService();
+        Set kept = setService.addSetToExercise(exercise.getId(), new Set(10, 50, 0));
+        Set deleted = setService.addSetToExercise(exercise.getId(), new Set(5, 100, 0));
+        assertVolume(1000, 2);
+
+        setService.deleteSet(deleted.getId());
+        assertVolume(500, 1);
+        assertEquals(100.0, stats().getMaxWeight());
+        assertEquals(1, stats().getSets().size());
+        assertEquals(String.valueOf(kept.getId()), stats().getSets().keySet().iterator().next());
+    }
+
+    private void assertVolume(double volume, int samples) {
+        ExerciseStats stats = stats();
+        assertEquals(samples, stats.getSamples());
+        assertEquals(1, stats.getWeeks().size());
+        assertEquals(volume, stats.getWeeks().get(0).getVolume(), 0.001);
+        assertEquals(samples, stats.getWeeks().get(0).getSamples());
+    }
+
+    private ExerciseStats stats() {
+        return context.getExerciseStatsService().getStats(String.valueOf(exercise.getId())).orElseThrow();
+    }
+}
@@ -0,0 +1,481 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.dto.Page;
+import cloudnative.fitapp.dto.Versioned;
+import com.azure.cosmos.implementation.ImplementationBridgeHelpers;
+import com.azure.cosmos.implementation.patch.PatchOperation;
+import com.azure.cosmos.implementation.patch.PatchOperationCore;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import com.azure.cosmos.models.SqlParameter;
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// Cosmos DB stand-in for tests. Documents are kept as JSON, so every read returns a fresh copy as a real round trip
+// would. Replaces honor ETags, patches apply their operations and filter predicate atomically, and every call is
+// counted per operation and container, so tests can assert how many round trips a code path makes.
+// Queries are only understood as far as the tests need: they return the documents of the partition that contain
+// every identifier parameter (@id, @email, @...Id) somewhere in them.
+public class InMemoryCosmosDBService extends CosmosDBService {
+
+    public static final String READ = "read";
+    public static final String QUERY = "query";
+    public static final String CREATE = "create";
+    public static final String REPLACE = "replace";
+    public static final String UPSERT = "upsert";
+    public static final String PATCH = "patch";
+    public static final String DELETE = "delete";
+    public static final String BULK = "bulk";
+
+    // Partition key path per container, as created by ensureContainersExist
+    private static final Map<String, String> PARTITION_KEYS = Map.of(
+            "users", "email",
+            "workouts", "userId",
+            "lookups", "id",
+            "history", "userId",
+            "rollups", "userId",
+            "readmodels", "id");
+
+    private final ObjectMapper mapper;
+    private final Map<String, Map<String, Document>> containers = new HashMap<>();
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private long nextETag = 1;
+
+    public InMemoryCosmosDBService() {
+        this(createMapper());
+    }
+
+    private InMemoryCosmosDBService(ObjectMapper mapper) {
+        super(mapper);
+        this.mapper = mapper;
+    }
+
+    private static ObjectMapper createMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        return mapper;
+    }
+
+    // Round trips of one operation, over all containers
+    public int calls(String operation) {
+        AtomicInteger count = calls.get(operation);
+        return count != null ? count.get() : 0;
+    }
+
+    public int calls(String operation, String containerName) {
+        AtomicInteger count = calls.get(operation + ":" + containerName);
+        return count != null ? count.get() : 0;
+    }
+
+    public int totalCalls() {
+        return calls.entrySet().stream()
+                .filter(entry -> !entry.getKey().contains(":"))
+                .mapToInt(entry -> entry.getValue().get())
+                .sum();
+    }
+
+    public void resetCalls() {
+        calls.clear();
+    }
+
+    // Stores documents without counting a round trip, to set up a test
+    public synchronized void seed(String containerName, Object... items) {
+        for (Object item : items) {
+            ObjectNode json = toJson(item);
+            store(containerName).put(json.path("id").asText(), new Document(partitionKeyOf(containerName, json), json, newETag()));
+        }
+    }
+
+    public synchronized int size(String containerName) {
+        return store(containerName).size();
+    }
+
+    @Override
+    public synchronized <T> T save(String containerName, T item, String partitionKey, Class<T> clazz) {
+        count(CREATE, containerName);
+        ObjectNode json = toJson(item);
+        String id = json.path("id").asText();
+        if (store(containerName).containsKey(id)) {
+            throw new RuntimeException("Error saving item to Cosmos DB: conflict on " + id);
+        }
+        store(containerName).put(id, new Document(partitionKey, json, newETag()));
+        return fromJson(json, clazz);
+    }
+
+    @Override
+    public synchronized <T> T update(String containerName, T item, String partitionKey, Class<T> clazz) {
+        count(REPLACE, containerName);
+        ObjectNode json = toJson(item);
+        Document current = find(containerName, json.path("id").asText(), partitionKey);
+        if (current == null) {
+            throw new RuntimeException("Error updating item in Cosmos DB: not found");
+        }
+        current.replace(json, newETag());
+        return fromJson(json, clazz);
+    }
+
+    @Override
+    public synchronized <T> Optional<T> patch(String containerName, String id, String partitionKey,
+                                              CosmosPatchOperations operations, String filterPredicate, Class<T> clazz) {
+        count(PATCH, containerName);
+        Document current = find(containerName, id, partitionKey);
+        if (current == null || (filterPredicate != null && !matches(current.json, filterPredicate))) {
+            return Optional.empty();
+        }
+        ObjectNode patched = current.json.deepCopy();
+        for (PatchOperation operation : ImplementationBridgeHelpers.CosmosPatchOperationsHelper
+                .getCosmosPatchOperationsAccessor().getPatchOperations(operations)) {
+            apply(patched, (PatchOperationCore<?>) operation);
+        }
+        current.replace(patched, newETag());
+        return Optional.of(fromJson(patched, clazz));
+    }
+
+    @Override
+    public synchronized <T> Optional<Versioned<T>> findVersionedById(String containerName, String id, String partitionKey,
+                                                                     Class<T> clazz) {
+        count(READ, containerName);
+        Document current = find(containerName, id, partitionKey);
+        return current == null
+                ? Optional.empty()
+                : Optional.of(new Versioned<>(fromJson(current.json, clazz), current.eTag));
+    }
+
+    @Override
+    public synchronized <T> boolean replaceIfMatch(String containerName, T item, String partitionKey, String eTag) {
+        count(REPLACE, containerName);
+        ObjectNode json = toJson(item);
+        Document current = find(containerName, json.path("id").asText(), partitionKey);
+        if (current == null) {
+            throw new RuntimeException("Error updating item in Cosmos DB: not found");
+        }
+        if (!current.eTag.equals(eTag)) {
+            return false;
+        }
+        current.replace(json, newETag());
+        return true;
+    }
+
+    // Same contract as the real one; the create only wins if nobody created the document in the meantime
+    @Override
+    public <T> T updateOrCreate(String containerName, String id, String partitionKey, Class<T> clazz,
+                                Supplier<T> initial, Consumer<T> mutation) {
+        while (true) {
+            Optional<T> updated = updateWithRetry(containerName, id, partitionKey, clazz, mutation);
+            if (updated.isPresent()) {
+                return updated.get();
+            }
+            T item = initial.get();
+            mutation.accept(item);
+            synchronized (this) {
+                count(CREATE, containerName);
+                if (!store(containerName).containsKey(id)) {
+                    store(containerName).put(id, new Document(partitionKey, toJson(item), newETag()));
+                    return item;
+                }
+            }
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<Optional<T>> updateWithRetryAsync(String containerName, String id, String partitionKey,
+                                                                   Class<T> clazz, Consumer<T> mutation) {
+        return CompletableFuture.completedFuture(updateWithRetry(containerName, id, partitionKey, clazz, mutation));
+    }
+
+    @Override
+    public synchronized <T> void upsert(String containerName, T item, String partitionKey) {
+        count(UPSERT, containerName);
+        ObjectNode json = toJson(item);
+        store(containerName).put(json.path("id").asText(), new Document(partitionKey, json, newETag()));
+    }
+
+    @Override
+    public synchronized <T> Optional<T> findById(String containerName, String id, String partitionKey, Class<T> clazz) {
+        count(READ, containerName);
+        Document current = find(containerName, id, partitionKey);
+        return current == null ? Optional.empty() : Optional.of(fromJson(current.json, clazz));
+    }
+
+    @Override
+    public synchronized <T> List<T> findAll(String containerName, Class<T> clazz) {
+        count(QUERY, containerName);
+        List<T> result = new ArrayList<>();
+        store(containerName).values().forEach(document -> result.add(fromJson(document.json, clazz)));
+        return result;
+    }
+
+    @Override
+    public synchronized <T> List<T> query(String containerName, SqlQuerySpec querySpec, String partitionKey, Class<T> clazz) {
+        count(QUERY, containerName);
+        List<T> result = new ArrayList<>();
+        for (Document document : store(containerName).values()) {
+            if ((partitionKey == null || partitionKey.equals(document.partitionKey))
+                    && containsIdentifiers(document.json, querySpec)) {
+                result.add(fromJson(document.json, clazz));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public <T> Stream<T> stream(String containerName, SqlQuerySpec querySpec, Class<T> clazz) {
+        return query(containerName, querySpec, null, clazz).stream();
+    }
+
+    // One round trip per page; the continuation token is the offset of the next page
+    @Override
+    public <T> Page<T> findPage(String containerName, SqlQuerySpec querySpec, int pageSize, String continuationToken,
+                                Class<T> clazz) {
+        List<T> all = query(containerName, querySpec, null, clazz);
+        int from = continuationToken != null ? Integer.parseInt(continuationToken) : 0;
+        int to = Math.min(from + pageSize, all.size());
+        return new Page<>(new ArrayList<>(all.subList(from, to)), to < all.size() ? String.valueOf(to) : null);
+    }
+
+    @Override
+    public synchronized void deleteById(String containerName, String id, String partitionKey) {
+        count(DELETE, containerName);
+        Document current = find(containerName, id, partitionKey);
+        if (current != null) {
+            store(containerName).remove(id);
+        }
+    }
+
+    @Override
+    public synchronized long count(String containerName) {
+        count(QUERY, containerName);
+        return store(containerName).size();
+    }
+
+    // One round trip per call, whatever the number of operations; deleting a missing item counts as done
+    @Override
+    public synchronized List<String> executeBulk(String containerName, List<CosmosItemOperation> operations) {
+        count(BULK, containerName);
+        List<String> failed = new ArrayList<>();
+        for (CosmosItemOperation operation : operations) {
+            switch (operation.getOperationType()) {
+                case CREATE -> {
+                    ObjectNode json = toJson(operation.getItem());
+                    if (store(containerName).putIfAbsent(operation.getId(),
+                            new Document(partitionKeyOf(containerName, json), json, newETag())) != null) {
+                        failed.add(operation.getId());
+                    }
+                }
+                case UPSERT, REPLACE -> {
+                    ObjectNode json = toJson(operation.getItem());
+                    store(containerName).put(operation.getId(),
+                            new Document(partitionKeyOf(containerName, json), json, newETag()));
+                }
+                case DELETE -> store(containerName).remove(operation.getId());
+                default -> failed.add(operation.getId());
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> saveAsync(String containerName, T item, String partitionKey) {
+        @SuppressWarnings("unchecked")
+        Class<T> clazz = (Class<T>) item.getClass();
+        return CompletableFuture.completedFuture(save(containerName, item, partitionKey, clazz));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> updateAsync(String containerName, T item, String partitionKey) {
+        @SuppressWarnings("unchecked")
+        Class<T> clazz = (Class<T>) item.getClass();
+        return CompletableFuture.completedFuture(update(containerName, item, partitionKey, clazz));
+    }
+
+    @Override
+    public <T> CompletableFuture<Optional<T>> findByIdAsync(String containerName, String id, String partitionKey, Class<T> clazz) {
+        return CompletableFuture.completedFuture(findById(containerName, id, partitionKey, clazz));
+    }
+
+    @Override
+    public <T> CompletableFuture<List<T>> queryAsync(String containerName, SqlQuerySpec querySpec, String partitionKey,
+                                                     Class<T> clazz) {
+        return CompletableFuture.completedFuture(query(containerName, querySpec, partitionKey, clazz));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteByIdAsync(String containerName, String id, String partitionKey) {
+        deleteById(containerName, id, partitionKey);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void ensureContainersExist() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void count(String operation, String containerName) {
+        calls.computeIfAbsent(operation, k -> new AtomicInteger()).incrementAndGet();
+        calls.computeIfAbsent(operation + ":" + containerName, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private Map<String, Document> store(String containerName) {
+        return containers.computeIfAbsent(containerName, k -> new LinkedHashMap<>());
+    }
+
+    private Document find(String containerName, String id, String partitionKey) {
+        Document document = store(containerName).get(id);
+        return document != null && (partitionKey == null || partitionKey.equals(document.partitionKey)) ? document : null;
+    }
+
+    private static String partitionKeyOf(String containerName, JsonNode json) {
+        return json.path(PARTITION_KEYS.getOrDefault(containerName, "id")).asText(null);
+    }
+
+    private String newETag() {
+        return "\"" + nextETag++ + "\"";
+    }
+
+    private ObjectNode toJson(Object item) {
+        return mapper.valueToTree(item);
+    }
+
+    private <T> T fromJson(JsonNode json, Class<T> clazz) {
+        try {
+            return mapper.treeToValue(json, clazz);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error reading item from Cosmos DB: " + e.getMessage(), e);
+        }
+    }
+
+    // Patch semantics of Cosmos DB on a JSON path such as /exercises/2/sets/-
+    private void apply(ObjectNode document, PatchOperationCore<?> operation) {
+        String[] path = operation.getPath().substring(1).split("/");
+        JsonNode parent = document;
+        for (int i = 0; i < path.length - 1; i++) {
+            parent = parent.isArray() ? parent.path(Integer.parseInt(path[i])) : parent.path(path[i]);
+            if (parent.isMissingNode()) {
+                throw new RuntimeException("Error patching item in Cosmos DB: no " + operation.getPath());
+            }
+        }
+        String last = path[path.length - 1];
+        JsonNode value = mapper.valueToTree(operation.getResource());
+
+        if (parent instanceof ArrayNode array) {
+            int index = "-".equals(last) ? array.size() : Integer.parseInt(last);
+            switch (operation.getOperationType()) {
+                case ADD -> array.insert(index, value);
+                case SET, REPLACE -> {
+                    if (index < array.size()) {
+                        array.set(index, value);
+                    } else {
+                        array.add(value);
+                    }
+                }
+                case REMOVE -> array.remove(index);
+                case INCREMENT -> array.set(index, mapper.valueToTree(array.path(index).asDouble() + value.asDouble()));
+                default -> throw new UnsupportedOperationException(operation.getOperationType().toString());
+            }
+            return;
+        }
+
+        ObjectNode object = (ObjectNode) parent;
+        switch (operation.getOperationType()) {
+            case ADD, SET, REPLACE -> object.set(last, value);
+            case REMOVE -> object.remove(last);
+            case INCREMENT -> {
+                JsonNode current = object.path(last);
+                if (current.isIntegralNumber() && value.isIntegralNumber()) {
+                    object.put(last, current.asLong() + value.asLong());
+                } else {
+                    object.put(last, current.asDouble() + value.asDouble());
+                }
+            }
+            default -> throw new UnsupportedOperationException(operation.getOperationType().toString());
+        }
+    }
+
+    // Filter predicates of the form "FROM c WHERE c.exercises[2].id = 42 AND c.exercises[2].sets[0].id = 7"
+    private static boolean matches(JsonNode document, String filterPredicate) {
+        String conditions = filterPredicate.replaceFirst("(?i)^\\s*FROM c WHERE\\s+", "");
+        for (String condition : conditions.split("(?i)\\s+AND\\s+")) {
+            String[] sides = condition.split("=", 2);
+            JsonNode node = document;
+            for (String part : sides[0].trim().replaceFirst("^c\\.", "").split("\\.")) {
+                int bracket = part.indexOf('[');
+                node = node.path(bracket < 0 ? part : part.substring(0, bracket));
+                if (bracket >= 0) {
+                    node = node.path(Integer.parseInt(part.substring(bracket + 1, part.length() - 1)));
+                }
+            }
+            String expected = sides[1].trim().replaceAll("^['\"]|['\"]$", "");
+            if (node.isMissingNode() || !node.asText().equals(expected)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIdentifiers(JsonNode document, SqlQuerySpec querySpec) {
+        for (SqlParameter parameter : querySpec.getParameters()) {
+            String name = parameter.getName();
+            if (!name.equals("@id") && !name.equals("@email") && !name.endsWith("Id") && !name.endsWith("Ids")) {
+                continue;
+            }
+            Object value = parameter.getValue(Object.class);
+            Collection<?> candidates = value instanceof Collection<?> values ? values : List.of(value);
+            if (candidates.stream().noneMatch(candidate -> contains(document, String.valueOf(candidate)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(JsonNode node, String value) {
+        if (node.isValueNode()) {
+            return node.asText().equals(value);
+        }
+        for (JsonNode child : node) {
+            if (contains(child, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Document {
+        private final String partitionKey;
+        private ObjectNode json;
+        private String eTag;
+
+        Document(String partitionKey, ObjectNode json, String eTag) {
+            this.partitionKey = partitionKey;
+            this.json = json;
+            this.eTag = eTag;
+        }
+
+        void replace(ObjectNode json, String eTag) {
+            this.json = json;
+            this.eTag = eTag;
+        }
+    }
+}
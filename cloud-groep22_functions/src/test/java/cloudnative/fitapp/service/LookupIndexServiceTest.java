@@ -0,0 +1,103 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.Set;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.functions.ApplicationContext;
+import cloudnative.fitapp.security.JwtUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static cloudnative.fitapp.service.InMemoryCosmosDBService.BULK;
+import static cloudnative.fitapp.service.InMemoryCosmosDBService.QUERY;
+import static cloudnative.fitapp.service.InMemoryCosmosDBService.READ;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Finding an exercise or set by id: two point reads through the lookup index, whatever the number of workouts,
+// where it used to take a query over every workout
+class LookupIndexServiceTest {
+
+    private final InMemoryCosmosDBService cosmos = new InMemoryCosmosDBService();
+    private final ApplicationContext context = new ApplicationContext(cosmos, RedisCache.disabled(),
+            new WriteBehindBuffer(cosmos, false, 0), new JwtUtil());
+
+    @Test
+    void indexedExerciseIsTwoPointReadsWithOneWorkout() {
+        assertIndexedLookups(1);
+    }
+
+    @Test
+    void indexedExerciseIsTwoPointReadsWithManyWorkouts() {
+        assertIndexedLookups(50);
+    }
+
+    @Test
+    void unindexedExerciseIsQueriedOnceAndThenIndexed() {
+        List<Workout> workouts = workouts(20);
+        cosmos.seed("workouts", workouts.toArray());
+        Long exerciseId = workouts.get(7).getExercises().get(0).getId();
+        ExerciseService exerciseService = context.getExerciseService();
+
+        exerciseService.getExerciseById(exerciseId);
+        assertEquals(1, cosmos.calls(QUERY, "workouts"));
+
+        cosmos.resetCalls();
+        exerciseService.getExerciseById(exerciseId);
+        assertEquals(0, cosmos.calls(QUERY));
+        assertEquals(2, cosmos.calls(READ));
+    }
+
+    // A page of workouts is read and indexed at a time, never the whole container
+    @Test
+    void rebuildIndexesOnePageAtATime() {
+        List<Workout> workouts = workouts(1200);
+        cosmos.seed("workouts", workouts.toArray());
+
+        assertEquals(1200, context.getLookupIndexService().rebuild());
+        assertEquals(3, cosmos.calls(QUERY, "workouts"));
+        assertEquals(3, cosmos.calls(BULK, "lookups"));
+
+        cosmos.resetCalls();
+        Exercise exercise = workouts.get(1100).getExercises().get(0);
+        assertEquals(exercise.getId(), context.getExerciseService().getExerciseById(exercise.getId()).getId());
+        assertEquals(0, cosmos.calls(QUERY));
+    }
+
+    private void assertIndexedLookups(int workoutCount) {
+        List<Workout> workouts = workouts(workoutCount);
+        workouts.forEach(context.getWorkoutRepository()::save);
+        Exercise exercise = workouts.get(workoutCount - 1).getExercises().get(0);
+        Set set = exercise.getSets().get(0);
+
+        cosmos.resetCalls();
+        assertEquals(exercise.getId(), context.getExerciseService().getExerciseById(exercise.getId()).getId());
+        assertEquals(2, cosmos.totalCalls());
+        assertEquals(2, cosmos.calls(READ));
+
+        cosmos.resetCalls();
+        assertEquals(set.getId(), context.getSetService().getSetById(set.getId()).getId());
+        assertEquals(2, cosmos.totalCalls());
+        assertEquals(0, cosmos.calls(QUERY));
+    }
+
+    // One workout per user, each with an exercise of three sets, all with distinct ids
+    private static List<Workout> workouts(int count) {
+        List<Workout> workouts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Workout workout = new Workout("Workout " + i);
+            workout.setId("workout-" + i);
+            workout.setUserId("user-" + i);
+            Exercise exercise = workout.addExercise(new Exercise("Exercise " + i));
+            exercise.setId(1000L + i);
+            for (int s = 0; s < 3; s++) {
+                Set set = exercise.addSet(new Set(8, 50, 0));
+                set.setId(100_000L + i * 10L + s);
+            }
+            workouts.add(workout);
+        }
+        return workouts;
+    }
+}
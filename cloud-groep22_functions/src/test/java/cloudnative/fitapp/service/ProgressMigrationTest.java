@@ -0,0 +1,91 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.Progress;
+import cloudnative.fitapp.domain.RollupBucket;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.enums.RollupGranularity;
+import cloudnative.fitapp.functions.ApplicationContext;
+import cloudnative.fitapp.security.JwtUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The migration can be re-run, e.g. after a partial failure: entries already moved are neither copied nor
+// counted again
+class ProgressMigrationTest {
+
+    private static final int WORKOUTS = 3;
+    private static final int EXERCISES = 2;
+    private static final int PROGRESS = 4;
+
+    private final InMemoryCosmosDBService cosmos = new InMemoryCosmosDBService();
+    private final ApplicationContext context = new ApplicationContext(cosmos, RedisCache.disabled(),
+            new WriteBehindBuffer(cosmos, false, 0), new JwtUtil());
+
+    @Test
+    void secondRunChangesNothing() {
+        cosmos.seed("workouts", workouts().toArray());
+
+        Map<String, Object> first = context.getProgressService().migrateEmbeddedProgress();
+        assertEquals(WORKOUTS * EXERCISES * PROGRESS, first.get("migratedEntries"));
+        assertMigrated();
+
+        Map<String, Object> second = context.getProgressService().migrateEmbeddedProgress();
+        assertEquals(0, second.get("migratedEntries"));
+        assertEquals(0, second.get("failedWorkouts"));
+        assertMigrated();
+    }
+
+    private void assertMigrated() {
+        assertEquals(WORKOUTS * EXERCISES * PROGRESS, cosmos.size("history"));
+
+        for (Workout workout : cosmos.findAll("workouts", Workout.class)) {
+            for (Exercise exercise : workout.getExercises()) {
+                assertTrue(exercise.getProgressList() == null || exercise.getProgressList().isEmpty(),
+                        "exercise " + exercise.getId() + " still embeds progress");
+                assertEquals(PROGRESS, context.getExerciseStatsService().getStats(String.valueOf(exercise.getId()))
+                        .orElseThrow().getSamples());
+            }
+        }
+
+        // Every entry is in exactly one bucket per granularity
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            long counted = cosmos.findAll(RollupService.CONTAINER, RollupBucket.class).stream()
+                    .filter(bucket -> bucket.getGranularity() == granularity)
+                    .mapToLong(RollupBucket::getCount)
+                    .sum();
+            assertEquals(WORKOUTS * EXERCISES * PROGRESS, counted, granularity.name());
+        }
+    }
+
+    // Workouts from before the history container, with their progress still embedded
+    private static List<Workout> workouts() {
+        List<Workout> workouts = new ArrayList<>();
+        for (int w = 0; w < WORKOUTS; w++) {
+            Workout workout = new Workout("Workout " + w);
+            workout.setId("workout-" + w);
+            workout.setUserId("user-1");
+            for (int e = 0; e < EXERCISES; e++) {
+                Exercise exercise = workout.addExercise(new Exercise("Exercise " + e));
+                exercise.setId(1000L + w * 10L + e);
+                List<Progress> progressList = new ArrayList<>();
+                for (int p = 0; p < PROGRESS; p++) {
+                    Progress progress = new Progress(40 + 2.5 * p, new Date(1_700_000_000_000L + p * 86_400_000L));
+                    progress.setId(String.valueOf(5000 + p));
+                    progressList.add(progress);
+                }
+                exercise.setProgressList(progressList);
+            }
+            workouts.add(workout);
+        }
+        return workouts;
+    }
+}
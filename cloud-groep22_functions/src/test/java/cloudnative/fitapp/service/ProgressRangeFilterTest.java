@@ -0,0 +1,95 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.Progress;
+import cloudnative.fitapp.domain.ProgressEntry;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.dto.RangeFilter;
+import cloudnative.fitapp.functions.ApplicationContext;
+import cloudnative.fitapp.security.JwtUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// ?from=&to=&limit=&order= over an exercise whose progress is partly in the history container and partly still
+// embedded in a workout that was not migrated: the range, order and limit apply to both together
+class ProgressRangeFilterTest {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2024, 3, 1);
+    private static final Long EXERCISE_ID = 1001L;
+
+    private final InMemoryCosmosDBService cosmos = new InMemoryCosmosDBService();
+    private final ApplicationContext context = new ApplicationContext(cosmos, RedisCache.disabled(),
+            new WriteBehindBuffer(cosmos, false, 0), new JwtUtil());
+
+    // Entry n is on day n of the month; days 1, 3 and 6 are embedded, the others are in the history
+    @BeforeEach
+    void seedProgress() {
+        Workout workout = new Workout("Workout");
+        workout.setId("workout-1");
+        workout.setUserId("user-1");
+        Exercise exercise = workout.addExercise(new Exercise("Exercise"));
+        exercise.setId(EXERCISE_ID);
+        Exercise other = workout.addExercise(new Exercise("Other"));
+        other.setId(1002L);
+
+        List<Progress> embedded = new ArrayList<>();
+        for (int day : new int[] {1, 3, 6}) {
+            embedded.add(progress("embedded-" + day, day));
+        }
+        exercise.setProgressList(embedded);
+        context.getWorkoutRepository().save(workout);
+
+        for (int day : new int[] {2, 4, 5}) {
+            cosmos.seed("history", new ProgressEntry(workout, exercise, progress("history-" + day, day)));
+            cosmos.seed("history", new ProgressEntry(workout, other, progress("other-" + day, day)));
+        }
+    }
+
+    @Test
+    void withoutFilterEverythingOldestFirst() {
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), days(RangeFilter.none()));
+    }
+
+    @Test
+    void fromAndToAreInclusive() {
+        assertEquals(List.of(2, 3, 4, 5), days(new RangeFilter(FIRST_DAY.plusDays(1), FIRST_DAY.plusDays(4), null, false)));
+        assertEquals(List.of(3, 4, 5, 6), days(new RangeFilter(FIRST_DAY.plusDays(2), null, null, false)));
+        assertEquals(List.of(1, 2, 3), days(new RangeFilter(null, FIRST_DAY.plusDays(2), null, false)));
+    }
+
+    @Test
+    void limitKeepsTheOldest() {
+        assertEquals(List.of(1, 2, 3), days(new RangeFilter(null, null, 3, false)));
+    }
+
+    // The newest entries come from both places: the limit must not be filled from the history alone
+    @Test
+    void descendingLimitKeepsTheNewest() {
+        assertEquals(List.of(6, 5, 4), days(new RangeFilter(null, null, 3, true)));
+        assertEquals(List.of(4, 3), days(new RangeFilter(FIRST_DAY.plusDays(1), FIRST_DAY.plusDays(3), 2, true)));
+    }
+
+    private List<Integer> days(RangeFilter filter) {
+        return context.getProgressService().getProgressByExerciseId(EXERCISE_ID, filter).stream()
+                .map(progress -> progress.getDate().toInstant().atZone(ZoneOffset.UTC).getDayOfMonth())
+                .collect(Collectors.toList());
+    }
+
+    // Midday, so the entry is on its day in UTC
+    private static Progress progress(String id, int day) {
+        LocalDate date = FIRST_DAY.plusDays(day - 1);
+        Progress progress = new Progress(40 + day, Date.from(date.atTime(12, 0).toInstant(ZoneOffset.UTC)));
+        progress.setId(id);
+        return progress;
+    }
+}
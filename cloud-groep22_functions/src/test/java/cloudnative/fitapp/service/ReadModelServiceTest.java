@@ -0,0 +1,115 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.Set;
+import cloudnative.fitapp.domain.User;
+import cloudnative.fitapp.domain.UserDashboard;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.functions.ApplicationContext;
+import cloudnative.fitapp.security.JwtUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The change feed delivers at least once and can be replayed from the beginning: a batch seen twice, or an older
+// version after a newer one, leaves the dashboard as it was
+class ReadModelServiceTest {
+
+    private static final String USER_ID = "user-1";
+
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final InMemoryCosmosDBService cosmos = new InMemoryCosmosDBService();
+    private final ApplicationContext context = new ApplicationContext(cosmos, RedisCache.disabled(),
+            new WriteBehindBuffer(cosmos, false, 0), new JwtUtil());
+    private final ReadModelService readModels = context.getReadModelService();
+
+    @Test
+    void sameBatchTwiceChangesNothing() {
+        List<String> users = List.of(change(user("Test", "workout-1", "workout-2"), 100));
+        List<String> workouts = List.of(change(workout("workout-1", "Push", 2), 100), change(workout("workout-2", "Pull", 3), 100));
+
+        readModels.projectUserChanges(users);
+        readModels.projectWorkoutChanges(workouts);
+        JsonNode once = dashboard();
+
+        readModels.projectUserChanges(users);
+        readModels.projectWorkoutChanges(workouts);
+        assertEquals(once, dashboard());
+        assertEquals(2, once.get("workouts").size());
+        assertEquals(5, once.get("latestWeights").size());
+    }
+
+    @Test
+    void olderVersionsAreSkipped() {
+        readModels.projectUserChanges(List.of(change(user("Test", "workout-1", "workout-2"), 100)));
+        readModels.projectWorkoutChanges(List.of(change(workout("workout-1", "Push", 2), 100),
+                change(workout("workout-2", "Pull", 3), 100)));
+        JsonNode current = dashboard();
+
+        // A replay from the beginning: versions from before the ones already projected
+        readModels.projectUserChanges(List.of(change(user("Old name", "workout-1"), 50)));
+        readModels.projectWorkoutChanges(List.of(change(workout("workout-1", "Old push", 1), 40),
+                change(workout("workout-2", "Old pull", 1), 60)));
+
+        assertEquals(current, dashboard());
+        assertEquals("Test", current.get("name").asText());
+        assertEquals("Pull", current.get("workouts").get("workout-2").get("name").asText());
+    }
+
+    // A workout the user no longer links is only dropped once a point read shows it is deleted
+    @Test
+    void unlinkedWorkoutIsDroppedOnlyWhenDeleted() {
+        Workout kept = workout("workout-1", "Push", 2);
+        Workout deleted = workout("workout-2", "Pull", 3);
+        cosmos.seed("workouts", kept);
+        readModels.projectUserChanges(List.of(change(user("Test", "workout-1", "workout-2"), 100)));
+        readModels.projectWorkoutChanges(List.of(change(kept, 100), change(deleted, 100)));
+
+        readModels.projectUserChanges(List.of(change(user("Test"), 200)));
+
+        UserDashboard dashboard = cosmos.findById(ReadModelService.CONTAINER, USER_ID, USER_ID, UserDashboard.class).orElseThrow();
+        assertTrue(dashboard.getWorkouts().containsKey("workout-1"));
+        assertFalse(dashboard.getWorkouts().containsKey("workout-2"));
+        assertTrue(dashboard.getLatestWeights().values().stream().noneMatch(latest -> "workout-2".equals(latest.getWorkoutId())));
+    }
+
+    private JsonNode dashboard() {
+        return mapper.valueToTree(cosmos.findById(ReadModelService.CONTAINER, USER_ID, USER_ID, UserDashboard.class).orElseThrow());
+    }
+
+    // A document as the change feed delivers it, with the _ts of the version
+    private String change(Object document, long ts) {
+        ObjectNode node = mapper.valueToTree(document);
+        node.put("_ts", ts);
+        return node.toString();
+    }
+
+    private static User user(String name, String... workoutIds) {
+        User user = new User(name, "test@example.com", "secret");
+        user.setId(USER_ID);
+        user.setWorkoutIds(new ArrayList<>(List.of(workoutIds)));
+        return user;
+    }
+
+    private static Workout workout(String id, String name, int exercises) {
+        Workout workout = new Workout(name);
+        workout.setId(id);
+        workout.setUserId(USER_ID);
+        for (int e = 0; e < exercises; e++) {
+            Exercise exercise = workout.addExercise(new Exercise("Exercise " + e));
+            exercise.setId(Long.parseLong(id.substring(id.indexOf('-') + 1)) * 100 + e);
+            exercise.addSet(new Set(8, 50, 0));
+        }
+        return workout;
+    }
+}
@@ -0,0 +1,103 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.Progress;
+import cloudnative.fitapp.domain.ProgressEntry;
+import cloudnative.fitapp.domain.RollupBucket;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.dto.SeriesPoint;
+import cloudnative.fitapp.enums.RollupGranularity;
+import cloudnative.fitapp.functions.ApplicationContext;
+import cloudnative.fitapp.security.JwtUtil;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollupServiceTest {
+
+    private static final String USER_ID = "user-1";
+    private static final int ENTRIES = 5;
+
+    private final InMemoryCosmosDBService cosmos = new InMemoryCosmosDBService();
+    private final ApplicationContext context = new ApplicationContext(cosmos, RedisCache.disabled(),
+            new WriteBehindBuffer(cosmos, false, 0), new JwtUtil());
+
+    @Test
+    void lttbReturnsShortSeriesAsTheyAre() {
+        List<SeriesPoint> data = series(10);
+
+        assertSame(data, RollupService.lttb(data, 10));
+        assertSame(data, RollupService.lttb(data, 100));
+    }
+
+    @Test
+    void lttbKeepsFirstAndLastAndReturnsThresholdPoints() {
+        List<SeriesPoint> data = series(1000);
+
+        List<SeriesPoint> sampled = RollupService.lttb(data, 100);
+
+        assertEquals(100, sampled.size());
+        assertSame(data.get(0), sampled.get(0));
+        assertSame(data.get(999), sampled.get(99));
+    }
+
+    // A single peak in a flat series forms the largest triangle of its bucket, so it is never averaged away
+    @Test
+    void lttbKeepsAPeak() {
+        List<SeriesPoint> data = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            data.add(new SeriesPoint(LocalDate.of(2024, 1, 1).plusDays(i), i == 500 ? 200 : 80));
+        }
+
+        assertTrue(RollupService.lttb(data, 20).contains(data.get(500)));
+    }
+
+    // Buckets whose writes failed are put right from the history: wrong counts are replaced and buckets without
+    // entries are deleted, however often it runs
+    @Test
+    void rebuildRecomputesTheBucketsFromTheHistory() {
+        Workout workout = new Workout("Workout");
+        workout.setId("workout-1");
+        workout.setUserId(USER_ID);
+        Exercise exercise = workout.addExercise(new Exercise("Exercise"));
+        exercise.setId(1001L);
+        for (int p = 0; p < ENTRIES; p++) {
+            Progress progress = new Progress(40 + 2.5 * p, new Date(1_700_000_000_000L + p * 86_400_000L));
+            cosmos.seed("history", new ProgressEntry(workout, exercise, progress));
+        }
+        String series = RollupService.progressSeries("1001");
+        RollupBucket stale = new RollupBucket(USER_ID, series, RollupGranularity.DAY, "2020-01-01");
+        stale.add(100, 0);
+        cosmos.seed(RollupService.CONTAINER, stale);
+
+        for (int run = 0; run < 2; run++) {
+            Map<String, Object> result = context.getProgressService().rebuildProgressRollups(USER_ID);
+            assertEquals(ENTRIES, result.get("entries"));
+            assertEquals(0, result.get("failedBuckets"));
+
+            List<RollupBucket> buckets = cosmos.findAll(RollupService.CONTAINER, RollupBucket.class);
+            assertTrue(buckets.stream().noneMatch(bucket -> bucket.getId().equals(stale.getId())));
+            for (RollupGranularity granularity : RollupGranularity.values()) {
+                assertEquals(ENTRIES, buckets.stream().filter(bucket -> bucket.getGranularity() == granularity)
+                        .mapToLong(RollupBucket::getCount).sum(), granularity.name());
+            }
+        }
+    }
+
+    private static List<SeriesPoint> series(int size) {
+        List<SeriesPoint> data = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            data.add(new SeriesPoint(LocalDate.of(2024, 1, 1).plusDays(i), 80 + Math.sin(i / 10.0) * 5));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,59 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.Set;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.functions.ApplicationContext;
+import cloudnative.fitapp.security.JwtUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SetServiceConcurrencyTest {
+
+    private static final int CALLS = 100;
+    private static final int THREADS = 8;
+
+    private final InMemoryCosmosDBService cosmos = new InMemoryCosmosDBService();
+    private final ApplicationContext context = new ApplicationContext(cosmos, RedisCache.disabled(),
+            new WriteBehindBuffer(cosmos, false, 0), new JwtUtil());
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @AfterEach
+    void shutDown() {
+        executor.shutdownNow();
+    }
+
+    // The exercise starts without sets, so the first calls race through the ETag-checked path and the rest
+    // through the guarded append
+    @Test
+    void concurrentAddsAreNotLost() throws Exception {
+        Workout workout = new Workout("Push");
+        workout.setId("workout-1");
+        workout.setUserId("user-1");
+        Exercise exercise = workout.addExercise(new Exercise("Bench press"));
+        context.getWorkoutRepository().save(workout);
+
+        SetService setService = context.getSetService();
+        List<Future<Set>> results = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            int reps = i;
+            results.add(executor.submit(() -> setService.addSetToExercise(exercise.getId(), new Set(reps, 50, 0))));
+        }
+        for (Future<Set> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+
+        Workout stored = cosmos.findById("workouts", "workout-1", "user-1", Workout.class).orElseThrow();
+        assertEquals(CALLS, stored.getExercises().get(0).getSets().size());
+    }
+}
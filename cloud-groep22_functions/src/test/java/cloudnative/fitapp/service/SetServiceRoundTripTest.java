@@ -0,0 +1,107 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.Exercise;
+import cloudnative.fitapp.domain.Set;
+import cloudnative.fitapp.domain.Workout;
+import cloudnative.fitapp.functions.ApplicationContext;
+import cloudnative.fitapp.security.JwtUtil;
+import com.azure.cosmos.models.CosmosPatchOperations;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static cloudnative.fitapp.service.InMemoryCosmosDBService.PATCH;
+import static cloudnative.fitapp.service.InMemoryCosmosDBService.QUERY;
+import static cloudnative.fitapp.service.InMemoryCosmosDBService.READ;
+import static cloudnative.fitapp.service.InMemoryCosmosDBService.REPLACE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Deleting a set writes only the workout that holds it, where it used to replace every workout in the container:
+// one guarded patch, or a read and a conditional replace when the set moved since it was read
+class SetServiceRoundTripTest {
+
+    private static final int WORKOUTS = 30;
+
+    // A write that lands between the service's read and its patch, as another request would
+    private final AtomicReference<Workout> concurrentWrite = new AtomicReference<>();
+    private final InMemoryCosmosDBService cosmos = new InMemoryCosmosDBService() {
+        @Override
+        public synchronized <T> Optional<T> patch(String containerName, String id, String partitionKey,
+                                                  CosmosPatchOperations operations, String filterPredicate, Class<T> clazz) {
+            Workout write = concurrentWrite.getAndSet(null);
+            if (write != null) {
+                seed("workouts", write);
+            }
+            return super.patch(containerName, id, partitionKey, operations, filterPredicate, clazz);
+        }
+    };
+    private final ApplicationContext context = new ApplicationContext(cosmos, RedisCache.disabled(),
+            new WriteBehindBuffer(cosmos, false, 0), new JwtUtil());
+
+    @Test
+    void deleteIsOneGuardedPatchOfOneWorkout() {
+        List<Workout> workouts = seedWorkouts();
+        Set set = workouts.get(12).getExercises().get(0).getSets().get(1);
+
+        cosmos.resetCalls();
+        assertTrue(context.getSetService().deleteSet(set.getId()));
+
+        assertEquals(1, cosmos.calls(READ, "workouts"));
+        assertEquals(1, cosmos.calls(PATCH, "workouts"));
+        assertEquals(0, cosmos.calls(REPLACE, "workouts"));
+        assertEquals(0, cosmos.calls(QUERY));
+        assertEquals(List.of(112_000L, 112_002L), storedSetIds("workout-12", "user-12"));
+    }
+
+    @Test
+    void movedSetFallsBackToReadAndConditionalReplace() {
+        List<Workout> workouts = seedWorkouts();
+        Set set = workouts.get(12).getExercises().get(0).getSets().get(1);
+
+        // The sets are reordered after the service read the workout, so the patch's index no longer holds the set
+        Workout reordered = workouts.get(12);
+        Collections.rotate(reordered.getExercises().get(0).getSets(), 1);
+        concurrentWrite.set(reordered);
+
+        cosmos.resetCalls();
+        assertTrue(context.getSetService().deleteSet(set.getId()));
+
+        assertEquals(1, cosmos.calls(PATCH, "workouts"));
+        assertEquals(2, cosmos.calls(READ, "workouts"));
+        assertEquals(1, cosmos.calls(REPLACE, "workouts"));
+        assertEquals(0, cosmos.calls(QUERY));
+        assertEquals(List.of(112_002L, 112_000L), storedSetIds("workout-12", "user-12"));
+    }
+
+    private List<Workout> seedWorkouts() {
+        List<Workout> workouts = new ArrayList<>();
+        for (int i = 0; i < WORKOUTS; i++) {
+            Workout workout = new Workout("Workout " + i);
+            workout.setId("workout-" + i);
+            workout.setUserId("user-" + i);
+            Exercise exercise = workout.addExercise(new Exercise("Exercise " + i));
+            exercise.setId(1000L + i);
+            for (int s = 0; s < 3; s++) {
+                Set set = exercise.addSet(new Set(8, 50, 0));
+                set.setId(100_000L + i * 1000L + s);
+            }
+            context.getWorkoutRepository().save(workout);
+            workouts.add(workout);
+        }
+        return workouts;
+    }
+
+    private List<Long> storedSetIds(String workoutId, String userId) {
+        return cosmos.findById("workouts", workoutId, userId, Workout.class).orElseThrow()
+                .getExercises().get(0).getSets().stream()
+                .map(Set::getId)
+                .collect(Collectors.toList());
+    }
+}
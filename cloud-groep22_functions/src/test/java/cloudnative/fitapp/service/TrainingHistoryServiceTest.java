@@ -0,0 +1,122 @@
+package cloudnative.fitapp.service;
+
+import cloudnative.fitapp.cache.RedisCache;
+import cloudnative.fitapp.domain.User;
+import cloudnative.fitapp.functions.ApplicationContext;
+import cloudnative.fitapp.security.JwtUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static cloudnative.fitapp.service.InMemoryCosmosDBService.BULK;
+import static cloudnative.fitapp.service.InMemoryCosmosDBService.CREATE;
+import static cloudnative.fitapp.service.InMemoryCosmosDBService.UPSERT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// An import writes its rows with one bulk call per chunk of workouts, so the round trips to the workouts, history
+// and lookups containers grow with the number of chunks, not of rows
+class TrainingHistoryServiceTest {
+
+    private static final Logger logger = Logger.getLogger(TrainingHistoryServiceTest.class.getName());
+
+    private static final int EXERCISES = 3;
+    private static final int SETS = 4;
+    private static final int PROGRESS = 5;
+    private static final int ROWS_PER_WORKOUT = 1 + EXERCISES * (1 + SETS + PROGRESS);
+
+    private final InMemoryCosmosDBService cosmos = new InMemoryCosmosDBService();
+    private final ApplicationContext context = new ApplicationContext(cosmos, RedisCache.disabled(),
+            new WriteBehindBuffer(cosmos, false, 0), new JwtUtil());
+
+    @BeforeEach
+    void seedUser() {
+        User user = new User("Test", "test@example.com", "secret");
+        user.setId("user-1");
+        cosmos.seed("users", user);
+    }
+
+    @Test
+    void smallImportUsesOneBulkCallPerContainer() {
+        assertBulkImport(2);
+    }
+
+    @Test
+    void fullChunkUsesOneBulkCallPerContainer() {
+        assertBulkImport(TrainingHistoryService.IMPORT_CHUNK_WORKOUTS);
+    }
+
+    @Test
+    void largeImportUsesOneBulkCallPerChunk() {
+        assertBulkImport(250);
+    }
+
+    // About 100k rows, the size of years of logged training. The rate is logged, not asserted
+    @Test
+    void hundredThousandRows() {
+        int workouts = 100_000 / ROWS_PER_WORKOUT + 1;
+        Map<String, Object> result = assertBulkImport(workouts);
+
+        assertTrue((int) result.get("rows") >= 100_000);
+        logger.info("Imported " + result.get("rows") + " rows in " + result.get("millis") + " ms, "
+                + result.get("rowsPerSecond") + " rows per second");
+    }
+
+    // The entries go into the user document, so an import that would push it past the cap writes none of them
+    @Test
+    void tooManyBodyweightsAreRejected() {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i <= TrainingHistoryService.MAX_BODYWEIGHTS; i++) {
+            lines.append("{\"record\":\"bodyweight\",\"bodyWeight\":80.5,\"date\":\"31-01-2024\"}\n");
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> context.getTrainingHistoryService()
+                .importHistory("user-1", new StringReader(lines.toString())));
+        User user = cosmos.findById("users", "user-1", "test@example.com", User.class).orElseThrow();
+        assertTrue(user.getBodyweightList() == null || user.getBodyweightList().isEmpty());
+        assertEquals(0, cosmos.size(RollupService.CONTAINER));
+    }
+
+    private Map<String, Object> assertBulkImport(int workouts) {
+        Map<String, Object> result = context.getTrainingHistoryService()
+                .importHistory("user-1", new StringReader(ndjson(workouts)));
+
+        assertEquals(workouts * ROWS_PER_WORKOUT, result.get("rows"));
+        assertEquals(workouts, cosmos.size("workouts"));
+        assertEquals(workouts * EXERCISES * PROGRESS, cosmos.size("history"));
+
+        int chunks = (workouts + TrainingHistoryService.IMPORT_CHUNK_WORKOUTS - 1) / TrainingHistoryService.IMPORT_CHUNK_WORKOUTS;
+        for (String container : new String[] {"workouts", "history", "lookups"}) {
+            assertEquals(chunks, cosmos.calls(BULK, container), container);
+            assertEquals(0, cosmos.calls(CREATE, container), container);
+            assertEquals(0, cosmos.calls(UPSERT, container), container);
+        }
+        return result;
+    }
+
+    private static String ndjson(int workouts) {
+        StringBuilder lines = new StringBuilder();
+        for (int w = 0; w < workouts; w++) {
+            lines.append("{\"record\":\"workout\",\"id\":\"w").append(w).append("\",\"name\":\"Workout ").append(w).append("\"}\n");
+            for (int e = 0; e < EXERCISES; e++) {
+                String exerciseId = "w" + w + "e" + e;
+                lines.append("{\"record\":\"exercise\",\"workoutId\":\"w").append(w).append("\",\"id\":\"").append(exerciseId)
+                        .append("\",\"name\":\"Exercise ").append(e).append("\"}\n");
+                for (int s = 0; s < SETS; s++) {
+                    lines.append("{\"record\":\"set\",\"exerciseId\":\"").append(exerciseId)
+                            .append("\",\"reps\":8,\"weight\":50,\"duration\":0}\n");
+                }
+                for (int p = 0; p < PROGRESS; p++) {
+                    lines.append("{\"record\":\"progress\",\"exerciseId\":\"").append(exerciseId)
+                            .append("\",\"weight\":").append(40 + p).append(",\"date\":").append(1_700_000_000_000L + p * 86_400_000L)
+                            .append("}\n");
+                }
+            }
+        }
+        return lines.toString();
+    }
+}